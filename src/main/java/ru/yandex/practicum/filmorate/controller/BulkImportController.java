@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.model.BulkResult;
+import ru.yandex.practicum.filmorate.service.BulkImportService;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Пакетная загрузка в формате NDJSON: тело запроса читается потоком, а не целиком.
+ */
+@RestController
+public class BulkImportController {
+    private final BulkImportService bulkImportService;
+
+    public BulkImportController(BulkImportService bulkImportService) {
+        this.bulkImportService = bulkImportService;
+    }
+
+    @PostMapping(value = "/films/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkResult importFilms(InputStream body) throws IOException {
+        return bulkImportService.importFilms(body);
+    }
+
+    @PostMapping(value = "/users/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkResult importUsers(InputStream body) throws IOException {
+        return bulkImportService.importUsers(body);
+    }
+
+    @PostMapping(value = "/likes/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkResult importLikes(InputStream body) throws IOException {
+        return bulkImportService.importLikes(body);
+    }
+
+    @PostMapping(value = "/friends/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkResult importFriends(InputStream body) throws IOException {
+        return bulkImportService.importFriends(body);
+    }
+}
@@ -1,32 +1,46 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exception.InvalidParamException;
-import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Batch;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.service.FilmService;
-import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
 import java.util.Collection;
+import java.util.List;
 
 @Slf4j
 @RestController
 public class FilmController {
     private final FilmService filmService;
-    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final int maxUnpaged;
+    private final int maxPageSize;
 
     @Autowired
-    public FilmController(FilmService filmService, UserService userService) {
+    public FilmController(FilmService filmService, ObjectMapper objectMapper,
+                          @Value("${filmorate.pagination.max-unpaged}") int maxUnpaged,
+                          @Value("${filmorate.pagination.max-page-size}") int maxPageSize) {
         this.filmService = filmService;
-        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.maxUnpaged = maxUnpaged;
+        this.maxPageSize = maxPageSize;
     }
 
     @PostMapping("/films")
@@ -40,16 +54,100 @@ public class FilmController {
         return filmService.updateFilm(film);
     }
 
-    @GetMapping("/films")
-    public Collection<Film> getFilms() {
-        return filmService.getFilms();
+    // GET /films без параметров фильтра; условий больше, чем у filterFilms, поэтому при их отсутствии
+    // Spring выбирает этот метод
+    @GetMapping(value = "/films", params = {"!genre", "!mpa", "!releasedFrom", "!releasedTo", "!minDuration",
+            "!maxDuration", "!limit", "!ids", "!stream"})
+    public Collection<Film> getFilms(@RequestParam(required = false) Long after) {
+        // курсор без размера страницы не молча игнорируется, а считается ошибкой в limit
+        if (after != null) {
+            throw new InvalidParamException("limit");
+        }
+        var page = filmService.getFilmsPage(0, maxUnpaged);
+        if (page.getNextCursor() != null) {
+            log.warn("Список фильмов обрезан до {} записей, используйте параметры after и limit", maxUnpaged);
+        }
+        return page.getItems();
+    }
+
+    @GetMapping(value = "/films", params = "stream=json")
+    public ResponseEntity<StreamingResponseBody> streamFilms() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(StreamingResponses.jsonArray(objectMapper, filmService::forEachFilm));
+    }
+
+    @GetMapping(value = "/films", params = "stream=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamFilmsNdjson() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(StreamingResponses.ndjson(objectMapper, filmService::forEachFilm));
+    }
+
+    @GetMapping(value = "/films", params = {"limit", "!genre", "!mpa", "!releasedFrom", "!releasedTo",
+            "!minDuration", "!maxDuration"})
+    public Page<Film> getFilmsPage(@RequestParam(defaultValue = "0") Long after,
+                                   @RequestParam Integer limit) {
+        if (after < 0) {
+            throw new InvalidParamException("after");
+        }
+        if (limit <= 0 || limit > maxPageSize) {
+            throw new InvalidParamException("limit");
+        }
+        return filmService.getFilmsPage(after, limit);
+    }
+
+    // GET /films с любым из параметров FilmFilter
+    @GetMapping(value = "/films", params = {"!ids", "!stream"})
+    public FacetedPage<Film> filterFilms(FilmFilter filter,
+                                         @RequestParam(defaultValue = "0") Long after,
+                                         @RequestParam(required = false) Integer limit) {
+        if (filter.getGenre().contains(null)) {
+            throw new InvalidParamException("genre");
+        }
+        if (filter.getMpa().contains(null)) {
+            throw new InvalidParamException("mpa");
+        }
+        if (after < 0) {
+            throw new InvalidParamException("after");
+        }
+        if (limit != null && (limit <= 0 || limit > maxPageSize)) {
+            throw new InvalidParamException("limit");
+        }
+        return filmService.filterFilms(filter, after, limit == null ? maxPageSize : limit);
+    }
+
+    @GetMapping(value = "/films", params = "ids")
+    public Batch<Film> getFilmsByIds(@RequestParam List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > maxPageSize) {
+            throw new InvalidParamException("ids");
+        }
+        return filmService.getFilms(ids);
+    }
+
+    @GetMapping("/films/search")
+    public List<Film> searchFilms(@RequestParam String q,
+                                  @RequestParam(defaultValue = "10") Integer count) {
+        if (q.isBlank()) {
+            throw new InvalidParamException("q");
+        }
+        if (count <= 0 || count > maxPageSize) {
+            throw new InvalidParamException("count");
+        }
+        return filmService.searchFilms(q, count);
+    }
+
+    @GetMapping("/films/{id}/similar")
+    public Collection<Film> getSimilar(@PathVariable long id,
+                                       @RequestParam(defaultValue = "10") Integer count) {
+        if (count <= 0 || count > maxPageSize) {
+            throw new InvalidParamException("count");
+        }
+        return filmService.getSimilar(id, count);
     }
 
     @GetMapping("/films/{id}")
     public Film getFilm(@PathVariable("id") Long id) {
-        if (!filmService.filmExists(id)) {
-            throw new FilmNotFoundException();
-        }
         return filmService.getFilm(id)
                 .orElseThrow(FilmNotFoundException::new);
     }
@@ -57,30 +155,18 @@ public class FilmController {
     @PutMapping("/films/{id}/like/{userId}")
     public Film setLike(@PathVariable("id") Long id,
                         @PathVariable("userId") Long userId) {
-
-        if (!filmService.filmExists(id)) {
-            throw new FilmNotFoundException();
-        }
-        if (!userService.userExists(userId)) {
-            throw new UserNotFoundException();
-        }
         return filmService.addLike(id, userId);
     }
 
     @DeleteMapping("/films/{id}/like/{userId}")
     public Film removeLike(@PathVariable Long id, @PathVariable Long userId) {
-        if (!filmService.filmExists(id)) {
-            throw new FilmNotFoundException();
-        }
-        if (!userService.userExists(userId)) {
-            throw new UserNotFoundException();
-        }
         return filmService.removeLike(id, userId);
     }
 
     @GetMapping("/films/popular")
     public Collection<Film> getPopular(@RequestParam(required = false, defaultValue = "10") Integer count) {
-        if (count <= 0) {
+        // без верхней границы большой count загружал бы весь каталог в обход max-unpaged
+        if (count <= 0 || count > maxPageSize) {
             throw new InvalidParamException("count");
         }
         return filmService.getMostLiked(count);
@@ -0,0 +1,53 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Потоковая запись коллекций в ответ: объекты сериализуются по одному по мере чтения из хранилища.
+ */
+final class StreamingResponses {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private StreamingResponses() {
+    }
+
+    static <T> StreamingResponseBody jsonArray(ObjectMapper mapper, Consumer<Consumer<T>> source) {
+        return out -> {
+            var writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (SequenceWriter sequence = writer.writeValuesAsArray(new BufferedOutputStream(out, BUFFER_SIZE))) {
+                source.accept(item -> {
+                    try {
+                        sequence.write(item);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+    }
+
+    static <T> StreamingResponseBody ndjson(ObjectMapper mapper, Consumer<Consumer<T>> source) {
+        return out -> {
+            var writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE)) {
+                source.accept(item -> {
+                    try {
+                        buffered.write(writer.writeValueAsBytes(item));
+                        buffered.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+    }
+}
@@ -1,15 +1,27 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.exception.InvalidParamException;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Batch;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -17,9 +29,19 @@ import java.util.Collection;
 public class UserController {
 
     private final UserService userService;
+    private final FilmService filmService;
+    private final ObjectMapper objectMapper;
+    private final int maxUnpaged;
+    private final int maxPageSize;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, FilmService filmService, ObjectMapper objectMapper,
+                          @Value("${filmorate.pagination.max-unpaged}") int maxUnpaged,
+                          @Value("${filmorate.pagination.max-page-size}") int maxPageSize) {
         this.userService = userService;
+        this.filmService = filmService;
+        this.objectMapper = objectMapper;
+        this.maxUnpaged = maxUnpaged;
+        this.maxPageSize = maxPageSize;
     }
 
     @PostMapping()
@@ -34,53 +56,107 @@ public class UserController {
     }
 
     @GetMapping
-    public Collection<User> getUsers() {
-        return userService.getUsers();
+    public Collection<User> getUsers(@RequestParam(required = false) Long after) {
+        // курсор без размера страницы не молча игнорируется, а считается ошибкой в limit
+        if (after != null) {
+            throw new InvalidParamException("limit");
+        }
+        var page = userService.getUsersPage(0, maxUnpaged);
+        if (page.getNextCursor() != null) {
+            log.warn("Список пользователей обрезан до {} записей, используйте параметры after и limit", maxUnpaged);
+        }
+        return page.getItems();
     }
 
-    @GetMapping("/{id}")
-    public User getUser(@PathVariable("id") Long id) {
-        if (!userService.userExists(id)) {
-            throw new UserNotFoundException();
+    @GetMapping(params = "stream=json")
+    public ResponseEntity<StreamingResponseBody> streamUsers() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(StreamingResponses.jsonArray(objectMapper, userService::forEachUser));
+    }
+
+    @GetMapping(params = "stream=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUsersNdjson() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(StreamingResponses.ndjson(objectMapper, userService::forEachUser));
+    }
+
+    @GetMapping(params = "limit")
+    public Page<User> getUsersPage(@RequestParam(defaultValue = "0") Long after,
+                                   @RequestParam Integer limit) {
+        if (after < 0) {
+            throw new InvalidParamException("after");
         }
-        var user = userService.getUser(id);
-        if (user.isPresent()) {
-            return user.get();
+        if (limit <= 0 || limit > maxPageSize) {
+            throw new InvalidParamException("limit");
         }
-        throw new UserNotFoundException();
+        return userService.getUsersPage(after, limit);
+    }
+
+    @GetMapping(params = "ids")
+    public Batch<User> getUsersByIds(@RequestParam List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > maxPageSize) {
+            throw new InvalidParamException("ids");
+        }
+        return userService.getUsers(ids);
+    }
+
+    @GetMapping("/{id}")
+    public User getUser(@PathVariable("id") Long id) {
+        return userService.getUser(id)
+                .orElseThrow(UserNotFoundException::new);
     }
 
     @PutMapping("/{id}/friends/{friendId}")
     public User addFriend(@PathVariable("id") Long id, @PathVariable("friendId") Long friendId) {
-        if (!(userService.userExists(id) && userService.userExists(friendId))) {
-            throw new UserNotFoundException();
-        }
         return userService.addFriend(id, friendId);
     }
 
     @DeleteMapping("/{id}/friends/{friendId}")
     public User removeFriend(@PathVariable("id") Long id, @PathVariable("friendId") Long friendId) {
-        if (!(userService.userExists(id) && userService.userExists(friendId))) {
-            throw new UserNotFoundException();
-        }
         return userService.removeFriend(id, friendId);
     }
 
     @GetMapping("/{id}/friends")
     public Collection<User> getFriends(@PathVariable("id") Long id) throws ValidationException {
-        if (!userService.userExists(id)) {
-            throw new UserNotFoundException();
-        }
         return userService.getFriends(id);
     }
 
+    @GetMapping("/{id}/friends/suggestions")
+    public Collection<User> getFriendSuggestions(@PathVariable long id,
+                                                 @RequestParam(defaultValue = "10") Integer count) {
+        if (count <= 0 || count > userService.getMaxFriendSuggestions()) {
+            throw new InvalidParamException("count");
+        }
+        return userService.getFriendSuggestions(id, count);
+    }
+
+    @GetMapping("/{id}/friends/common")
+    public Collection<User> getCommonFriends(@PathVariable("id") Long id,
+                                             @RequestParam("others") List<Long> others) {
+        if (others.isEmpty()) {
+            throw new InvalidParamException("others");
+        }
+        List<Long> userIds = new ArrayList<>(others.size() + 1);
+        userIds.add(id);
+        userIds.addAll(others);
+        return userService.getCommonFriends(userIds);
+    }
+
     @GetMapping("/{id}/friends/common/{otherId}")
     public Collection<User> getCommonFriends(@PathVariable("id") Long id,
                                              @PathVariable("otherId") Long otherId) {
-        if (!(userService.userExists(id) && userService.userExists(otherId))) {
-            throw new UserNotFoundException();
-        }
         return userService.getCommonFriends(id, otherId);
     }
 
+    @GetMapping("/{id}/recommendations")
+    public Collection<Film> getRecommendations(@PathVariable long id,
+                                               @RequestParam(defaultValue = "10") Integer count) {
+        if (count <= 0 || count > filmService.getMaxRecommendations()) {
+            throw new InvalidParamException("count");
+        }
+        return filmService.getRecommendations(id, count);
+    }
+
 }
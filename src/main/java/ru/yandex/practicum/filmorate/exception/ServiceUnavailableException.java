@@ -0,0 +1,13 @@
+package ru.yandex.practicum.filmorate.exception;
+
+public class ServiceUnavailableException extends RuntimeException {
+    private static final String defaultMessage = "Сервис перегружен, повторите запрос позже";
+
+    public ServiceUnavailableException() {
+        super(defaultMessage);
+    }
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
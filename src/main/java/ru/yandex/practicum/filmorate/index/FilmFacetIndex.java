@@ -0,0 +1,164 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.IdPairConsumer;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Битмапы id фильмов по каждому жанру и рейтингу MPA для фильтрации GET /films?genre=...&mpa=...
+ * без соединений с FILMS_GENRES. Границы даты выхода и продолжительности берутся из {@link FilmRangeIndex}.
+ * <p>
+ * Жанры фильтра пересекаются (фильм должен быть во всех), рейтинги объединяются — у фильма он один.
+ * Счетчики жанров считаются по найденным фильмам, счетчики рейтингов — по фильмам, подходящим под остальные
+ * условия без учета рейтингов, чтобы было видно, сколько даст выбор другого рейтинга.
+ */
+@Component
+public class FilmFacetIndex {
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final FilmRangeIndex rangeIndex;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private RoaringBitmap all = new RoaringBitmap();
+    private Map<Integer, RoaringBitmap> byGenre = new HashMap<>();
+    private Map<Integer, RoaringBitmap> byMpa = new HashMap<>();
+    private volatile boolean warm = false;
+
+    public FilmFacetIndex(FilmRangeIndex rangeIndex) {
+        this.rangeIndex = rangeIndex;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Перестраивает индекс из источников пар (фильм, рейтинг MPA) и (фильм, жанр).
+     */
+    public void rebuild(Consumer<IdPairConsumer> mpas, Consumer<IdPairConsumer> genres) {
+        RoaringBitmap newAll = new RoaringBitmap();
+        Map<Integer, RoaringBitmap> newByMpa = new HashMap<>();
+        Map<Integer, RoaringBitmap> newByGenre = new HashMap<>();
+        mpas.accept((filmId, mpaId) -> {
+            newAll.add(toInt(filmId));
+            newByMpa.computeIfAbsent(toInt(mpaId), id -> new RoaringBitmap()).add(toInt(filmId));
+        });
+        genres.accept((filmId, genreId) ->
+                newByGenre.computeIfAbsent(toInt(genreId), id -> new RoaringBitmap()).add(toInt(filmId)));
+        newAll.runOptimize();
+        newByMpa.values().forEach(RoaringBitmap::runOptimize);
+        newByGenre.values().forEach(RoaringBitmap::runOptimize);
+        lock.writeLock().lock();
+        try {
+            all = newAll;
+            byMpa = newByMpa;
+            byGenre = newByGenre;
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает жанры и рейтинг нового или измененного фильма.
+     */
+    public void update(Film film) {
+        int filmId = toInt(film.getId());
+        lock.writeLock().lock();
+        try {
+            byMpa.values().forEach(films -> films.remove(filmId));
+            byGenre.values().forEach(films -> films.remove(filmId));
+            add(film);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает порцию новых фильмов под одной блокировкой. Прежних значений у них нет,
+     * поэтому битмапы других жанров и рейтингов не просматриваются.
+     */
+    public void addAll(Collection<Film> films) {
+        lock.writeLock().lock();
+        try {
+            films.forEach(this::add);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * До limit id фильмов больше afterId, подходящих под фильтр, со счетчиками по жанрам и рейтингам.
+     */
+    public FacetedPage<Long> filter(FilmFilter filter, long afterId, int limit) {
+        RoaringBitmap inRange = rangeIndex.select(filter);
+        lock.readLock().lock();
+        try {
+            RoaringBitmap withGenres = inRange == null ? all : RoaringBitmap.and(all, inRange);
+            for (Integer genreId : filter.getGenre()) {
+                withGenres = RoaringBitmap.and(withGenres, byGenre.getOrDefault(genreId, EMPTY));
+            }
+            RoaringBitmap matched = withGenres;
+            if (!filter.getMpa().isEmpty()) {
+                matched = RoaringBitmap.and(withGenres, FastAggregation.or(filter.getMpa().stream()
+                        .map(mpaId -> byMpa.getOrDefault(mpaId, EMPTY))
+                        .iterator()));
+            }
+
+            List<Long> ids = new ArrayList<>(limit);
+            Long nextCursor = null;
+            if (afterId < Integer.MAX_VALUE) {
+                PeekableIntIterator iterator = matched.getIntIterator();
+                iterator.advanceIfNeeded((int) afterId + 1);
+                while (iterator.hasNext() && ids.size() < limit) {
+                    ids.add((long) iterator.next());
+                }
+                if (iterator.hasNext()) {
+                    nextCursor = ids.get(ids.size() - 1);
+                }
+            }
+            return new FacetedPage<>(ids, nextCursor, matched.getLongCardinality(),
+                    counts(byGenre, matched), counts(byMpa, withGenres));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Map<Integer, Integer> counts(Map<Integer, RoaringBitmap> facet, RoaringBitmap films) {
+        Map<Integer, Integer> counts = new TreeMap<>();
+        facet.forEach((id, facetFilms) -> {
+            int count = RoaringBitmap.andCardinality(facetFilms, films);
+            if (count > 0) {
+                counts.put(id, count);
+            }
+        });
+        return counts;
+    }
+
+    private void add(Film film) {
+        int filmId = toInt(film.getId());
+        all.add(filmId);
+        if (film.getMpa() != null) {
+            byMpa.computeIfAbsent(film.getMpa().getId(), id -> new RoaringBitmap()).add(filmId);
+        }
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                byGenre.computeIfAbsent(genre.getId(), id -> new RoaringBitmap()).add(filmId);
+            }
+        }
+    }
+
+    private static int toInt(long id) {
+        return Math.toIntExact(id);
+    }
+}
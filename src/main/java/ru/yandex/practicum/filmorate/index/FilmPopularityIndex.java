@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Рейтинг фильмов по числу лайков, который обновляется на каждом лайке и отдает первые N фильмов без запросов к базе.
+ * Пока индекс не построен ({@link #isWarm()}), вызывающий код должен обращаться к хранилищу.
+ */
+@Component
+public class FilmPopularityIndex {
+    private static final Comparator<Entry> byLikesDescThenId = Comparator
+            .comparingInt((Entry e) -> e.likes).reversed()
+            .thenComparingLong(e -> e.filmId);
+
+    private final Map<Long, Integer> likes = new ConcurrentHashMap<>();
+    private final NavigableSet<Entry> ranking = new ConcurrentSkipListSet<>(byLikesDescThenId);
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    private volatile boolean warm = false;
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void rebuild(Map<Long, Integer> likesByFilm) {
+        rebuildLock.writeLock().lock();
+        try {
+            likes.clear();
+            ranking.clear();
+            likesByFilm.forEach((filmId, count) -> {
+                likes.put(filmId, count);
+                ranking.add(new Entry(filmId, count));
+            });
+            warm = true;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет новый фильм с числом лайков, которые сохранены вместе с ним.
+     */
+    public void addFilm(long filmId, int likes) {
+        adjust(filmId, likes);
+    }
+
+    /**
+     * Добавляет порцию новых фильмов "id -> число лайков" под одной блокировкой.
+     */
+    public void addFilms(Map<Long, Integer> likesByFilm) {
+        rebuildLock.readLock().lock();
+        try {
+            likesByFilm.forEach(this::apply);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    public void adjust(long filmId, int delta) {
+        rebuildLock.readLock().lock();
+        try {
+            apply(filmId, delta);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    private void apply(long filmId, int delta) {
+        likes.compute(filmId, (id, current) -> {
+            int before = current == null ? 0 : current;
+            int after = before + delta;
+            // сначала добавляем новую запись: читатель может увидеть фильм дважды, но не потеряет его
+            ranking.add(new Entry(id, after));
+            if (current != null && before != after) {
+                ranking.remove(new Entry(id, before));
+            }
+            return after;
+        });
+    }
+
+    public List<Long> top(int count) {
+        return top(count, filmId -> true);
+    }
+
+    /**
+     * Первые count фильмов рейтинга среди подходящих под фильтр. Рейтинг проходится от самых популярных,
+     * поэтому фильтр, который пропускает долю p фильмов, вызывается в среднем count / p раз.
+     */
+    public List<Long> top(int count, LongPredicate filter) {
+        rebuildLock.readLock().lock();
+        try {
+            Set<Long> ids = new LinkedHashSet<>();
+            for (Entry entry : ranking) {
+                if (ids.size() == count) {
+                    break;
+                }
+                if (filter.test(entry.filmId)) {
+                    ids.add(entry.filmId);
+                }
+            }
+            return new ArrayList<>(ids);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Число фильмов в рейтинге.
+     */
+    public int size() {
+        return likes.size();
+    }
+
+    public int getLikes(long filmId) {
+        return likes.getOrDefault(filmId, 0);
+    }
+
+    private static final class Entry {
+        private final long filmId;
+        private final int likes;
+
+        private Entry(long filmId, int likes) {
+            this.filmId = filmId;
+            this.likes = likes;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.storage.IdPairConsumer;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Упорядоченные индексы "значение -> битмап id фильмов" по дню выхода и продолжительности для отбора
+ * по диапазонам: диапазон находится в дереве за O(log n), затем объединяются битмапы попавших в него значений.
+ * <p>
+ * Индекс помнит день выхода и продолжительность каждого фильма, поэтому {@link #update(Film)} снимает фильм
+ * с прежних значений под той же блокировкой записи, что и ставит на новые, как {@link FilmFacetIndex#update(Film)}.
+ * Изменение попадает в индекс после записи в базу, поэтому вызывающий код перепроверяет найденные фильмы
+ * через {@link FilmFilter#matches(Film)}.
+ */
+@Component
+public class FilmRangeIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private NavigableMap<Integer, RoaringBitmap> byReleaseDay = new TreeMap<>();
+    private NavigableMap<Integer, RoaringBitmap> byDuration = new TreeMap<>();
+    private Map<Integer, Values> valuesByFilm = new HashMap<>();
+    private volatile boolean warm = false;
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Перестраивает индекс из источников пар (фильм, день выхода от 1970-01-01) и (фильм, продолжительность).
+     */
+    public void rebuild(Consumer<IdPairConsumer> releaseDays, Consumer<IdPairConsumer> durations) {
+        NavigableMap<Integer, RoaringBitmap> newByReleaseDay = new TreeMap<>();
+        NavigableMap<Integer, RoaringBitmap> newByDuration = new TreeMap<>();
+        Map<Integer, Values> newValuesByFilm = new HashMap<>();
+        releaseDays.accept((filmId, day) -> {
+            add(newByReleaseDay, Math.toIntExact(day), Math.toIntExact(filmId));
+            newValuesByFilm.computeIfAbsent(Math.toIntExact(filmId), id -> new Values()).day = Math.toIntExact(day);
+        });
+        durations.accept((filmId, duration) -> {
+            add(newByDuration, Math.toIntExact(duration), Math.toIntExact(filmId));
+            newValuesByFilm.computeIfAbsent(Math.toIntExact(filmId), id -> new Values()).duration =
+                    Math.toIntExact(duration);
+        });
+        lock.writeLock().lock();
+        try {
+            byReleaseDay = newByReleaseDay;
+            byDuration = newByDuration;
+            valuesByFilm = newValuesByFilm;
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Film film) {
+        update(film);
+    }
+
+    /**
+     * Добавляет порцию новых фильмов под одной блокировкой.
+     */
+    public void addAll(Collection<Film> films) {
+        lock.writeLock().lock();
+        try {
+            films.forEach(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает дату выхода и продолжительность нового или измененного фильма.
+     */
+    public void update(Film film) {
+        lock.writeLock().lock();
+        try {
+            put(film);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Фильмы, подходящие под границы даты выхода и продолжительности фильтра, или null, если границ нет.
+     */
+    public RoaringBitmap select(FilmFilter filter) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap released = range(byReleaseDay,
+                    filter.getReleasedFrom() == null ? null : day(filter.getReleasedFrom()),
+                    filter.getReleasedTo() == null ? null : day(filter.getReleasedTo()));
+            RoaringBitmap lasting = range(byDuration, filter.getMinDuration(), filter.getMaxDuration());
+            if (released == null || lasting == null) {
+                return released == null ? lasting : released;
+            }
+            return RoaringBitmap.and(released, lasting);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(Film film) {
+        int filmId = Math.toIntExact(film.getId());
+        Values values = new Values();
+        values.day = film.getReleaseDate() == null ? null : day(film.getReleaseDate());
+        values.duration = film.getDuration();
+        Values old = valuesByFilm.put(filmId, values);
+        if (old != null) {
+            if (old.day != null) {
+                remove(byReleaseDay, old.day, filmId);
+            }
+            remove(byDuration, old.duration, filmId);
+        }
+        if (values.day != null) {
+            add(byReleaseDay, values.day, filmId);
+        }
+        add(byDuration, values.duration, filmId);
+    }
+
+    private static RoaringBitmap range(NavigableMap<Integer, RoaringBitmap> index, Integer from, Integer to) {
+        if (from == null && to == null) {
+            return null;
+        }
+        NavigableMap<Integer, RoaringBitmap> values;
+        if (from == null) {
+            values = index.headMap(to, true);
+        } else if (to == null) {
+            values = index.tailMap(from, true);
+        } else {
+            values = from > to ? Collections.emptyNavigableMap() : index.subMap(from, true, to, true);
+        }
+        return FastAggregation.or(values.values().iterator());
+    }
+
+    private static void add(NavigableMap<Integer, RoaringBitmap> index, int value, int filmId) {
+        index.computeIfAbsent(value, v -> new RoaringBitmap()).add(filmId);
+    }
+
+    private static void remove(NavigableMap<Integer, RoaringBitmap> index, int value, int filmId) {
+        RoaringBitmap films = index.get(value);
+        if (films != null) {
+            films.remove(filmId);
+            if (films.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+
+    private static int day(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+
+    /**
+     * Значения фильма, по которым он сейчас лежит в индексе. Изменяются только под блокировкой записи.
+     */
+    private static final class Values {
+        private Integer day;
+        private int duration;
+    }
+}
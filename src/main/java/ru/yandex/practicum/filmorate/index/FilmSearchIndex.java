@@ -0,0 +1,333 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Полнотекстовый поиск фильмов по названию и описанию: обратный индекс "слово -> битмап id фильмов".
+ * <p>
+ * Текст режется на слова из букв и цифр любого алфавита, слова приводятся к нижнему регистру, "ё" — к "е";
+ * морфологии нет, ее отчасти заменяет поиск по началу слова. Каждое слово запроса ищется как префикс:
+ * для префикса, с которого начинается больше {@link #MAX_EXPANSION} слов словаря, битмап хранится готовым,
+ * остальные собираются объединением не более чем {@link #MAX_EXPANSION} битмапов слов.
+ * <p>
+ * В выдаче сначала фильмы, в названии которых есть все слова запроса, затем остальные; внутри каждой группы —
+ * по числу лайков из {@link FilmPopularityIndex}. Большая группа не сортируется целиком: рейтинг популярности
+ * проходится сверху, пока не наберется count фильмов из группы.
+ * <p>
+ * Индекс помнит слова каждого фильма, поэтому {@link #update(Film)} снимает фильм с прежних слов под той же
+ * блокировкой записи, что и ставит на новые. Изменение попадает в индекс после записи в базу,
+ * поэтому вызывающий код перепроверяет найденные фильмы через {@link #matches(Film, String)}.
+ */
+@Component
+public class FilmSearchIndex {
+    static final int MAX_EXPANSION = 16;
+
+    private final FilmPopularityIndex popularityIndex;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Field names = new Field();
+    private Field descriptions = new Field();
+    private volatile boolean warm = false;
+
+    public FilmSearchIndex(FilmPopularityIndex popularityIndex) {
+        this.popularityIndex = popularityIndex;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void rebuild(Consumer<Consumer<Film>> films) {
+        Field newNames = new Field();
+        Field newDescriptions = new Field();
+        films.accept(film -> {
+            int id = Math.toIntExact(film.getId());
+            newNames.add(id, terms(film.getName()));
+            newDescriptions.add(id, terms(film.getDescription()));
+        });
+        newNames.buildPrefixes();
+        newDescriptions.buildPrefixes();
+        lock.writeLock().lock();
+        try {
+            names = newNames;
+            descriptions = newDescriptions;
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Film film) {
+        update(film);
+    }
+
+    /**
+     * Добавляет порцию новых фильмов: слова режутся до блокировки, запись в словари — под одной блокировкой.
+     */
+    public void addAll(Collection<Film> films) {
+        List<Film> added = new ArrayList<>(films);
+        List<Set<String>> newNames = new ArrayList<>(added.size());
+        List<Set<String>> newDescriptions = new ArrayList<>(added.size());
+        for (Film film : added) {
+            newNames.add(terms(film.getName()));
+            newDescriptions.add(terms(film.getDescription()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < added.size(); i++) {
+                int id = Math.toIntExact(added.get(i).getId());
+                names.replace(id, newNames.get(i));
+                descriptions.replace(id, newDescriptions.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает слова нового или измененного фильма.
+     */
+    public void update(Film film) {
+        int id = Math.toIntExact(film.getId());
+        Set<String> newNames = terms(film.getName());
+        Set<String> newDescriptions = terms(film.getDescription());
+        lock.writeLock().lock();
+        try {
+            names.replace(id, newNames);
+            descriptions.replace(id, newDescriptions);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Id до count фильмов, у которых каждое слово запроса начинает какое-то слово названия или описания.
+     */
+    public List<Long> search(String query, int count) {
+        Set<String> words = terms(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // длинные слова разворачиваются в меньшее число слов словаря и отсекают больше фильмов,
+        // следующие слова ищутся только среди уже найденного
+        List<String> bySelectivity = new ArrayList<>(words);
+        bySelectivity.sort(Comparator.comparingInt(String::length).reversed());
+        lock.readLock().lock();
+        try {
+            RoaringBitmap matched = null;
+            RoaringBitmap matchedInName = null;
+            for (String word : bySelectivity) {
+                RoaringBitmap inName = names.startingWith(word, matched);
+                matched = RoaringBitmap.or(inName, descriptions.startingWith(word, matched));
+                matchedInName = matchedInName == null ? inName : RoaringBitmap.and(matchedInName, inName);
+                if (matched.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+            // ранжирование под той же блокировкой: готовые битмапы префиксов не копируются
+            List<Long> found = new ArrayList<>(ranked(matchedInName, count));
+            if (found.size() < count) {
+                found.addAll(ranked(RoaringBitmap.andNot(matched, matchedInName), count - found.size()));
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Подходит ли фильм под запрос по тем же правилам, что и {@link #search(String, int)}.
+     */
+    public static boolean matches(Film film, String query) {
+        Set<String> words = terms(film.getName());
+        words.addAll(terms(film.getDescription()));
+        NavigableSet<String> sorted = new TreeSet<>(words);
+        for (String word : terms(query)) {
+            String candidate = sorted.ceiling(word);
+            if (candidate == null || !candidate.startsWith(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isLetterOrDigit(codePoint)) {
+                int lower = Character.toLowerCase(codePoint);
+                term.appendCodePoint(lower == 'ё' ? 'е' : lower);
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    private List<Long> ranked(RoaringBitmap films, int count) {
+        if (films.isEmpty() || count <= 0) {
+            return Collections.emptyList();
+        }
+        // сортировка группы стоит порядка ее размера n, проход по рейтингу из N фильмов — порядка count * N / n
+        long size = films.getLongCardinality();
+        if (size * size > (long) count * popularityIndex.size() && popularityIndex.isWarm()) {
+            return popularityIndex.top(count, filmId -> films.contains((int) filmId));
+        }
+        // по возрастанию значимости: в голове очереди худший из отобранных
+        Comparator<long[]> byLikesThenId = Comparator.comparingLong((long[] film) -> film[1])
+                .thenComparing(film -> -film[0]);
+        PriorityQueue<long[]> top = new PriorityQueue<>(count + 1, byLikesThenId);
+        films.forEach((org.roaringbitmap.IntConsumer) filmId -> {
+            top.add(new long[]{filmId, popularityIndex.getLikes(filmId)});
+            if (top.size() > count) {
+                top.poll();
+            }
+        });
+        List<long[]> best = new ArrayList<>(top);
+        best.sort(byLikesThenId.reversed());
+        List<Long> ids = new ArrayList<>(best.size());
+        best.forEach(film -> ids.add(film[0]));
+        return ids;
+    }
+
+    /**
+     * Словарь одного поля фильма. Не потокобезопасен, доступ — под блокировкой индекса.
+     */
+    private static final class Field {
+        private static final RoaringBitmap EMPTY = new RoaringBitmap();
+        private final NavigableMap<String, RoaringBitmap> terms = new TreeMap<>();
+        private final Map<String, RoaringBitmap> prefixes = new HashMap<>();
+        // слова, под которыми фильм сейчас лежит в словаре
+        private final Map<Integer, String[]> termsByFilm = new HashMap<>();
+
+        /**
+         * Добавляет слова фильма при первичной сборке, битмапы префиксов строит {@link #buildPrefixes()}.
+         */
+        void add(int filmId, Set<String> newTerms) {
+            newTerms.forEach(term -> terms.computeIfAbsent(term, t -> new RoaringBitmap()).add(filmId));
+            termsByFilm.put(filmId, newTerms.toArray(String[]::new));
+        }
+
+        void buildPrefixes() {
+            String previous = "";
+            for (String term : terms.keySet()) {
+                // каждый префикс рассматривается один раз — на первом слове словаря, которое с него начинается
+                for (int length = 1; length <= term.length(); length++) {
+                    String prefix = term.substring(0, length);
+                    if (!previous.startsWith(prefix)) {
+                        cacheIfLarge(prefix);
+                    }
+                }
+                previous = term;
+            }
+            terms.values().forEach(RoaringBitmap::runOptimize);
+            prefixes.values().forEach(RoaringBitmap::runOptimize);
+        }
+
+        void replace(int filmId, Set<String> newTerms) {
+            String[] previous = termsByFilm.put(filmId, newTerms.toArray(String[]::new));
+            Set<String> oldTerms = previous == null ? Collections.emptySet() : Set.of(previous);
+            for (String term : oldTerms) {
+                if (!newTerms.contains(term)) {
+                    remove(terms, term, filmId);
+                }
+            }
+            for (String term : newTerms) {
+                RoaringBitmap films = terms.get(term);
+                if (films == null) {
+                    terms.put(term, RoaringBitmap.bitmapOf(filmId));
+                    // новое слово могло сделать какой-то из своих префиксов слишком широким
+                    for (int length = 1; length <= term.length(); length++) {
+                        String prefix = term.substring(0, length);
+                        if (!prefixes.containsKey(prefix)) {
+                            cacheIfLarge(prefix);
+                        }
+                    }
+                } else {
+                    films.add(filmId);
+                }
+            }
+            Set<String> newPrefixes = cachedPrefixes(newTerms);
+            for (String prefix : cachedPrefixes(oldTerms)) {
+                if (!newPrefixes.contains(prefix)) {
+                    remove(prefixes, prefix, filmId);
+                }
+            }
+            newPrefixes.forEach(prefix -> prefixes.get(prefix).add(filmId));
+        }
+
+        /**
+         * Фильмы из within (или все, если within == null), в поле которых есть слово, начинающееся с prefix.
+         * Результат без within может оказаться битмапом самого индекса и не должен изменяться.
+         */
+        RoaringBitmap startingWith(String prefix, RoaringBitmap within) {
+            RoaringBitmap cached = prefixes.get(prefix);
+            if (cached != null) {
+                return within == null ? cached : RoaringBitmap.and(within, cached);
+            }
+            Collection<RoaringBitmap> expanded = expand(prefix).values();
+            if (within == null) {
+                return expanded.isEmpty() ? EMPTY : FastAggregation.or(expanded.iterator());
+            }
+            RoaringBitmap films = new RoaringBitmap();
+            expanded.forEach(termFilms -> films.or(RoaringBitmap.and(within, termFilms)));
+            return films;
+        }
+
+        private SortedMap<String, RoaringBitmap> expand(String prefix) {
+            return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+
+        private void cacheIfLarge(String prefix) {
+            Collection<RoaringBitmap> expanded = expand(prefix).values();
+            Iterator<RoaringBitmap> iterator = expanded.iterator();
+            for (int i = 0; i <= MAX_EXPANSION; i++) {
+                if (!iterator.hasNext()) {
+                    return;
+                }
+                iterator.next();
+            }
+            prefixes.put(prefix, FastAggregation.or(expanded.iterator()));
+        }
+
+        private Set<String> cachedPrefixes(Set<String> terms) {
+            Set<String> cached = new HashSet<>();
+            for (String term : terms) {
+                for (int length = 1; length <= term.length(); length++) {
+                    String prefix = term.substring(0, length);
+                    if (prefixes.containsKey(prefix)) {
+                        cached.add(prefix);
+                    }
+                }
+            }
+            return cached;
+        }
+
+        private static void remove(Map<String, RoaringBitmap> postings, String key, int filmId) {
+            RoaringBitmap films = postings.get(key);
+            if (films != null) {
+                films.remove(filmId);
+                if (films.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+    }
+}
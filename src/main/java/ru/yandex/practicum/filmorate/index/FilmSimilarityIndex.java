@@ -0,0 +1,233 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * "С этим фильмом также лайкают": для каждого фильма до {@code neighbours} фильмов, которые чаще всего
+ * лайкали те же пользователи, при равенстве — с меньшим id.
+ * <p>
+ * Сборка идет по {@link LikeMatrix}: соседей фильмов считают задачи fork-join в собственном пуле индекса —
+ * общий пул занят, например, пакетной загрузкой, которая ждет базу. У каждой задачи свой массив счетчиков
+ * по id фильма, поэтому сборка не создает объектов на пару фильмов, а счетчики освобождаются вместе с задачей.
+ * Задачи забирают фильмы порциями из общего курсора, так что фильмы с множеством лайков не достаются одной задаче.
+ * Стоимость — сумма квадратов числа лайков пользователей; пользователи, у которых лайков больше
+ * {@code maxUserLikes}, пропускаются: их лайки мало говорят о сходстве фильмов, а стоят дороже всего.
+ * <p>
+ * Готовый результат публикуется целиком, чтение не берет блокировок. Между сборками индекс не меняется:
+ * лайки только помечают его устаревшим ({@link #markChanged()}), пересборку запускает вызывающий код.
+ */
+@Component
+public class FilmSimilarityIndex {
+    // сколько фильмов подряд задача забирает из курсора за раз
+    private static final int FILMS_PER_TASK = 256;
+    private static final int[] NO_NEIGHBOURS = new int[0];
+
+    private final int neighbours;
+    private final int maxUserLikes;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean stale = new AtomicBoolean();
+    private volatile int[][] neighboursByFilm = new int[0][];
+    private volatile boolean warm = false;
+
+    public FilmSimilarityIndex(@Value("${filmorate.similar.neighbours}") int neighbours,
+                               @Value("${filmorate.similar.max-user-likes}") int maxUserLikes) {
+        this.neighbours = neighbours;
+        this.maxUserLikes = maxUserLikes;
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("similar-films-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public boolean isStale() {
+        return stale.get();
+    }
+
+    public void markChanged() {
+        stale.set(true);
+    }
+
+    /**
+     * Снимает пометку об изменениях перед чтением лайков для сборки и возвращает, была ли она:
+     * изменения, пришедшие во время сборки, снова пометят индекс.
+     */
+    public boolean resetStale() {
+        return stale.getAndSet(false);
+    }
+
+    public void rebuild(LikeMatrix likes) {
+        int[][] built = new int[likes.maxFilm() + 1][];
+        AtomicInteger nextFilm = new AtomicInteger();
+        int taskCount = Math.min(pool.getParallelism(), (built.length + FILMS_PER_TASK - 1) / FILMS_PER_TASK);
+        List<NeighboursTask> tasks = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            tasks.add(new NeighboursTask(likes, nextFilm, built));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        neighboursByFilm = built;
+        warm = true;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * До count id фильмов, похожих на filmId, начиная с самого похожего; не больше {@code neighbours}.
+     */
+    public List<Long> similar(long filmId, int count) {
+        int[][] snapshot = neighboursByFilm;
+        if (filmId < 0 || filmId >= snapshot.length || snapshot[(int) filmId] == null) {
+            return Collections.emptyList();
+        }
+        int[] ids = snapshot[(int) filmId];
+        List<Long> similar = new ArrayList<>(Math.min(count, ids.length));
+        for (int i = 0; i < ids.length && i < count; i++) {
+            similar.add((long) ids[i]);
+        }
+        return similar;
+    }
+
+    private int[] topNeighbours(int filmId, LikeMatrix likes, Counters counters) {
+        int[] count = counters.count;
+        int[] touched = counters.touched;
+        int touchedSize = 0;
+        for (int i = likes.filmFrom(filmId); i < likes.filmTo(filmId); i++) {
+            int userId = likes.filmUser(i);
+            int from = likes.userFrom(userId);
+            int to = likes.userTo(userId);
+            if (to - from > maxUserLikes) {
+                continue;
+            }
+            for (int j = from; j < to; j++) {
+                int other = likes.userFilm(j);
+                if (other != filmId && count[other]++ == 0) {
+                    touched[touchedSize++] = other;
+                }
+            }
+        }
+        if (touchedSize == 0) {
+            return NO_NEIGHBOURS;
+        }
+
+        // куча худших из лучших: в старших битах число общих лайков, в младших — id наоборот,
+        // чтобы при равном числе выше оказывался меньший id
+        long[] heap = counters.heap;
+        int heapSize = 0;
+        for (int i = 0; i < touchedSize; i++) {
+            int other = touched[i];
+            long rank = ((long) count[other] << 32) | (Integer.MAX_VALUE - other);
+            count[other] = 0;
+            if (heapSize < neighbours) {
+                heap[heapSize] = rank;
+                siftUp(heap, heapSize++);
+            } else if (rank > heap[0]) {
+                heap[0] = rank;
+                siftDown(heap, heapSize);
+            }
+        }
+        Arrays.sort(heap, 0, heapSize);
+        int[] top = new int[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            top[i] = Integer.MAX_VALUE - (int) heap[heapSize - 1 - i];
+        }
+        return top;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= heap[i]) {
+                return;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            if (left < size && heap[left] < heap[smallest]) {
+                smallest = left;
+            }
+            if (left + 1 < size && heap[left + 1] < heap[smallest]) {
+                smallest = left + 1;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(heap, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(long[] heap, int i, int j) {
+        long tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    private final class NeighboursTask extends RecursiveAction {
+        private final LikeMatrix likes;
+        private final AtomicInteger nextFilm;
+        private final int[][] result;
+
+        private NeighboursTask(LikeMatrix likes, AtomicInteger nextFilm, int[][] result) {
+            this.likes = likes;
+            this.nextFilm = nextFilm;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            Counters counters = new Counters(result.length);
+            int from;
+            while ((from = nextFilm.getAndAdd(FILMS_PER_TASK)) < result.length) {
+                int to = Math.min(result.length, from + FILMS_PER_TASK);
+                for (int filmId = from; filmId < to; filmId++) {
+                    if (likes.filmFrom(filmId) < likes.filmTo(filmId)) {
+                        result[filmId] = topNeighbours(filmId, likes, counters);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Счетчики общих лайков одной задачи: обнуляются после каждого фильма только в тронутых ячейках.
+     */
+    private final class Counters {
+        private final int[] count;
+        private final int[] touched;
+        private final long[] heap = new long[neighbours];
+
+        private Counters(int films) {
+            count = new int[films];
+            touched = new int[films];
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package ru.yandex.practicum.filmorate.index;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.IdPairConsumer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя хранится отсортированный массив id его друзей.
+ * Массивы не меняются после публикации, поэтому пересечение считается без блокировок на снимках.
+ * Пока граф не загружен ({@link #isWarm()}), вызывающий код должен обращаться к хранилищу.
+ * <p>
+ * Предложения дружбы ({@link #suggestFriends(long, int)}) считаются обходом на два шага с ограничением
+ * ветвления и кэшируются по пользователю. Запись кэша помнит массивы друзей, по которым посчитана, и
+ * действует, пока ни один из них не заменен: так изменения у друзей пользователя тоже сбрасывают его запись.
+ */
+@Component
+public class FriendGraphIndex {
+    private static final int[] NO_FRIENDS = new int[0];
+    // во сколько раз один массив длиннее другого, чтобы вместо слияния искать двоичным поиском
+    private static final int GALLOP_RATIO = 16;
+
+    private final Map<Integer, int[]> friends = new ConcurrentHashMap<>();
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+    private final int maxFanOut;
+    private final int maxSuggestions;
+    private final Cache<Integer, Suggestions> suggestions;
+    private volatile boolean warm = false;
+
+    public FriendGraphIndex(@Value("${filmorate.friends.suggestions.max-fan-out}") int maxFanOut,
+                            @Value("${filmorate.friends.suggestions.max-count}") int maxSuggestions,
+                            @Value("${filmorate.friends.suggestions.cache.maximum-size}") long cacheSize) {
+        this.maxFanOut = maxFanOut;
+        this.maxSuggestions = maxSuggestions;
+        this.suggestions = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Перестраивает граф из источника пар (пользователь, друг).
+     */
+    public void rebuild(Consumer<IdPairConsumer> source) {
+        Map<Integer, Adjacency> loaded = new HashMap<>();
+        source.accept((userId, friendId) -> loaded
+                .computeIfAbsent(toInt(userId), id -> new Adjacency())
+                .add(toInt(friendId)));
+        rebuildLock.writeLock().lock();
+        try {
+            friends.clear();
+            loaded.forEach((userId, adjacency) -> friends.put(userId, adjacency.toSortedArray()));
+            suggestions.invalidateAll();
+            warm = true;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    public void addFriend(long userId, long friendId) {
+        int friend = toInt(friendId);
+        rebuildLock.readLock().lock();
+        try {
+            friends.compute(toInt(userId), (id, current) -> {
+                int[] ids = current == null ? NO_FRIENDS : current;
+                int pos = Arrays.binarySearch(ids, friend);
+                if (pos >= 0) {
+                    return current;
+                }
+                int insertAt = -pos - 1;
+                int[] updated = new int[ids.length + 1];
+                System.arraycopy(ids, 0, updated, 0, insertAt);
+                updated[insertAt] = friend;
+                System.arraycopy(ids, insertAt, updated, insertAt + 1, ids.length - insertAt);
+                return updated;
+            });
+            suggestions.invalidate(toInt(userId));
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        int friend = toInt(friendId);
+        rebuildLock.readLock().lock();
+        try {
+            friends.computeIfPresent(toInt(userId), (id, ids) -> {
+                int pos = Arrays.binarySearch(ids, friend);
+                if (pos < 0) {
+                    return ids;
+                }
+                if (ids.length == 1) {
+                    return null;
+                }
+                int[] updated = new int[ids.length - 1];
+                System.arraycopy(ids, 0, updated, 0, pos);
+                System.arraycopy(ids, pos + 1, updated, pos, ids.length - pos - 1);
+                return updated;
+            });
+            suggestions.invalidate(toInt(userId));
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    public List<Long> getFriends(long userId) {
+        return toList(snapshot(userId));
+    }
+
+    /**
+     * Общие друзья всех переданных пользователей в порядке возрастания id.
+     */
+    public List<Long> getCommonFriends(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<int[]> sets = new ArrayList<>(userIds.size());
+        for (long userId : userIds) {
+            int[] ids = snapshot(userId);
+            if (ids.length == 0) {
+                return Collections.emptyList();
+            }
+            sets.add(ids);
+        }
+        // начинаем с самого короткого списка: промежуточный результат только уменьшается
+        sets.sort(Comparator.comparingInt(ids -> ids.length));
+        int[] common = sets.get(0);
+        int size = common.length;
+        for (int i = 1; i < sets.size() && size > 0; i++) {
+            int[] result = new int[size];
+            size = intersect(common, size, sets.get(i), result);
+            common = result;
+        }
+        return toList(Arrays.copyOf(common, size));
+    }
+
+    /**
+     * Сколько предложений дружбы можно запросить за раз.
+     */
+    public int getMaxSuggestions() {
+        return maxSuggestions;
+    }
+
+    /**
+     * До count пользователей, которые в друзьях у друзей userId, но не у него самого, — по убыванию числа
+     * таких общих друзей, при равенстве по возрастанию id; count не больше {@link #getMaxSuggestions()}.
+     * <p>
+     * Если друзей больше maxFanOut, обходятся maxFanOut друзей с самыми короткими списками; друзья, у которых
+     * своих друзей больше maxFanOut, не обходятся совсем: через них почти любой оказался бы общим знакомым.
+     */
+    public List<Long> suggestFriends(long userId, int count) {
+        int user = toInt(userId);
+        Suggestions cached = suggestions.getIfPresent(user);
+        if (cached == null || !cached.isCurrent(this)) {
+            cached = suggest(user);
+            suggestions.put(user, cached);
+        }
+        int size = Math.min(count, cached.ids.length);
+        List<Long> suggested = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            suggested.add((long) cached.ids[i]);
+        }
+        return suggested;
+    }
+
+    private Suggestions suggest(int user) {
+        int[] own = snapshot(user);
+        int[][] theirs = new int[own.length][];
+        for (int i = 0; i < own.length; i++) {
+            theirs[i] = snapshot(own[i]);
+        }
+        Integer[] byDegree = new Integer[own.length];
+        for (int i = 0; i < own.length; i++) {
+            byDegree[i] = i;
+        }
+        if (own.length > maxFanOut) {
+            Arrays.sort(byDegree, Comparator.comparingInt(i -> theirs[i].length));
+        }
+        int visited = 0;
+        int expanded = Math.min(own.length, maxFanOut);
+        for (int i = 0; i < expanded; i++) {
+            int degree = theirs[byDegree[i]].length;
+            visited += degree > maxFanOut ? 0 : degree;
+        }
+
+        IdCounter mutual = new IdCounter(visited);
+        for (int i = 0; i < expanded; i++) {
+            int[] friendsOfFriend = theirs[byDegree[i]];
+            if (friendsOfFriend.length <= maxFanOut) {
+                for (int candidate : friendsOfFriend) {
+                    mutual.increment(candidate);
+                }
+            }
+        }
+
+        // куча худших из лучших: в старших битах число общих друзей, в младших — id наоборот
+        long[] heap = new long[maxSuggestions];
+        int heapSize = 0;
+        for (int slot = 0; slot < mutual.ids.length; slot++) {
+            int candidate = mutual.ids[slot];
+            int common = mutual.counts[slot];
+            if (common == 0 || candidate == user || Arrays.binarySearch(own, candidate) >= 0) {
+                continue;
+            }
+            long rank = ((long) common << 32) | (Integer.MAX_VALUE - candidate);
+            if (heapSize < heap.length) {
+                heap[heapSize++] = rank;
+                if (heapSize == heap.length) {
+                    Arrays.sort(heap);
+                }
+            } else if (rank > heap[0]) {
+                // массив отсортирован: вставка со сдвигом дешевле кучи при небольшом числе предложений
+                int pos = Arrays.binarySearch(heap, rank);
+                int insertAt = (pos < 0 ? -pos - 1 : pos) - 1;
+                System.arraycopy(heap, 1, heap, 0, insertAt);
+                heap[insertAt] = rank;
+            }
+        }
+        long[] best = Arrays.copyOf(heap, heapSize);
+        Arrays.sort(best);
+        int[] ids = new int[best.length];
+        for (int i = 0; i < best.length; i++) {
+            ids[i] = Integer.MAX_VALUE - (int) best[best.length - 1 - i];
+        }
+        return new Suggestions(user, own, theirs, ids);
+    }
+
+    static int intersect(int[] small, int smallSize, int[] large, int[] out) {
+        int count = 0;
+        if (large.length / GALLOP_RATIO > smallSize) {
+            int from = 0;
+            for (int i = 0; i < smallSize && from < large.length; i++) {
+                int pos = Arrays.binarySearch(large, from, large.length, small[i]);
+                if (pos >= 0) {
+                    out[count++] = small[i];
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+            return count;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < smallSize && j < large.length) {
+            if (small[i] < large[j]) {
+                i++;
+            } else if (small[i] > large[j]) {
+                j++;
+            } else {
+                out[count++] = small[i];
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private int[] snapshot(long userId) {
+        return friends.getOrDefault(toInt(userId), NO_FRIENDS);
+    }
+
+    private static List<Long> toList(int[] ids) {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add((long) id);
+        }
+        return list;
+    }
+
+    private static int toInt(long id) {
+        // в базе идентификаторы пользователей имеют тип INTEGER
+        return Math.toIntExact(id);
+    }
+
+    /**
+     * Счетчики по id с открытой адресацией, емкость — по числу обходимых ребер.
+     */
+    private static final class IdCounter {
+        private final int[] ids;
+        private final int[] counts;
+        private final int mask;
+        private final int shift;
+
+        private IdCounter(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+            ids = new int[capacity];
+            counts = new int[capacity];
+            mask = capacity - 1;
+            shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        }
+
+        private void increment(int id) {
+            // старшие биты произведения перемешаны лучше младших
+            int slot = (id * 0x9E3779B9) >>> shift;
+            while (counts[slot] != 0 && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Предложения вместе с массивами друзей, по которым они посчитаны.
+     */
+    private static final class Suggestions {
+        private final int user;
+        private final int[] own;
+        private final int[][] theirs;
+        private final int[] ids;
+
+        private Suggestions(int user, int[] own, int[][] theirs, int[] ids) {
+            this.user = user;
+            this.own = own;
+            this.theirs = theirs;
+            this.ids = ids;
+        }
+
+        private boolean isCurrent(FriendGraphIndex graph) {
+            if (graph.snapshot(user) != own) {
+                return false;
+            }
+            for (int i = 0; i < own.length; i++) {
+                if (graph.snapshot(own[i]) != theirs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Adjacency {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        private int[] toSortedArray() {
+            int[] sorted = Arrays.copyOf(ids, size);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.index;
+
+import ru.yandex.practicum.filmorate.storage.IdPairConsumer;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Все лайки в памяти в двух плоских списках смежности: пользователи каждого фильма и фильмы каждого пользователя,
+ * оба по возрастанию id. Загружается одним проходом по лайкам и служит общим источником для индексов,
+ * которые пересобираются из лайков, после загрузки не меняется.
+ */
+public final class LikeMatrix {
+    private final int maxFilm;
+    private final int maxUser;
+    private final int size;
+    // пользователи фильма film — filmUsers[filmStart[film]..filmStart[film + 1])
+    private final int[] filmStart;
+    private final int[] filmUsers;
+    // фильмы пользователя user — userFilms[userStart[user]..userStart[user + 1])
+    private final int[] userStart;
+    private final int[] userFilms;
+
+    private LikeMatrix(IdPairs pairs) {
+        maxFilm = pairs.maxFilm;
+        maxUser = pairs.maxUser;
+        size = pairs.size;
+        filmStart = new int[maxFilm + 2];
+        filmUsers = new int[size];
+        group(pairs.films, pairs.users, size, filmStart, filmUsers);
+        userStart = new int[maxUser + 2];
+        userFilms = new int[size];
+        group(pairs.users, pairs.films, size, userStart, userFilms);
+    }
+
+    public static LikeMatrix load(Consumer<IdPairConsumer> likes) {
+        IdPairs pairs = new IdPairs();
+        likes.accept((filmId, userId) -> pairs.add(Math.toIntExact(filmId), Math.toIntExact(userId)));
+        return new LikeMatrix(pairs);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int maxFilm() {
+        return maxFilm;
+    }
+
+    int maxUser() {
+        return maxUser;
+    }
+
+    int filmFrom(int filmId) {
+        return filmId > maxFilm ? 0 : filmStart[filmId];
+    }
+
+    int filmTo(int filmId) {
+        return filmId > maxFilm ? 0 : filmStart[filmId + 1];
+    }
+
+    int filmUser(int i) {
+        return filmUsers[i];
+    }
+
+    int userFrom(int userId) {
+        return userId > maxUser ? 0 : userStart[userId];
+    }
+
+    int userTo(int userId) {
+        return userId > maxUser ? 0 : userStart[userId + 1];
+    }
+
+    int userFilm(int i) {
+        return userFilms[i];
+    }
+
+    /**
+     * Фильмы пользователя по возрастанию id, копией.
+     */
+    int[] userFilms(int userId) {
+        return Arrays.copyOfRange(userFilms, userFrom(userId), userTo(userId));
+    }
+
+    /**
+     * Примерный объем массивов в байтах.
+     */
+    long bytes() {
+        return 4L * (filmStart.length + filmUsers.length + userStart.length + userFilms.length);
+    }
+
+    /**
+     * Раскладывает пары по ключам сортировкой подсчетом и упорядочивает значения каждого ключа.
+     */
+    private static void group(int[] keys, int[] values, int size, int[] start, int[] grouped) {
+        for (int i = 0; i < size; i++) {
+            start[keys[i] + 1]++;
+        }
+        for (int key = 0; key < start.length - 1; key++) {
+            start[key + 1] += start[key];
+        }
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        for (int i = 0; i < size; i++) {
+            grouped[next[keys[i]]++] = values[i];
+        }
+        for (int key = 0; key < start.length - 1; key++) {
+            if (start[key + 1] - start[key] > 1) {
+                Arrays.sort(grouped, start[key], start[key + 1]);
+            }
+        }
+    }
+
+    private static final class IdPairs {
+        private int[] films = new int[1024];
+        private int[] users = new int[1024];
+        private int size = 0;
+        private int maxFilm = 0;
+        private int maxUser = 0;
+
+        private void add(int filmId, int userId) {
+            if (size == films.length) {
+                films = Arrays.copyOf(films, size + (size >> 1));
+                users = Arrays.copyOf(users, size + (size >> 1));
+            }
+            films[size] = filmId;
+            users[size] = userId;
+            size++;
+            maxFilm = Math.max(maxFilm, filmId);
+            maxUser = Math.max(maxUser, userId);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package ru.yandex.practicum.filmorate.index;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Рекомендации фильмов пользователю: фильмы, которые лайкали пользователи с похожим вкусом, а он сам — нет.
+ * <p>
+ * Похожих пользователей ищет MinHash с LSH: множество фильмов каждого пользователя сворачивается в
+ * {@code bands * rows} минимальных хэшей, каждая полоса из {@code rows} хэшей — в ключ корзины. Пользователи,
+ * совпавшие хотя бы в одной корзине, — кандидаты; вероятность совпасть растет с мерой Жаккара их лайков,
+ * так что для поиска соседей не нужно перебирать всех пользователей. Корзины полосы хранятся отсортированным
+ * массивом "ключ, пользователь" и ищутся двоичным поиском. Среди кандидатов {@code neighbours} самых похожих
+ * по точной мере Жаккара голосуют за свои фильмы весом сходства.
+ * <p>
+ * Индекс пересобирается из {@link LikeMatrix} целиком, между сборками лайки пользователя копятся отдельно
+ * ({@link #recordLike(long, long, boolean)}) и сразу учитываются в его собственных рекомендациях. Готовые
+ * рекомендации кэшируются по пользователю до его следующего лайка или пересборки индекса.
+ */
+@Component
+public class UserRecommendationIndex implements MeterBinder {
+    private static final List<Long> NONE = Collections.emptyList();
+
+    private final int bands;
+    private final int rows;
+    private final int neighbours;
+    private final int maxCandidates;
+    private final int maxCount;
+    private final long[] seeds;
+    private final Cache<Long, Recommendations> cache;
+    private final AtomicBoolean stale = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+    // лайки (true) и отмены (false) по пользователям с начала сборки текущего снимка и с начала следующей
+    private volatile Map<Long, Map<Long, Boolean>> building = Collections.emptyMap();
+    private volatile Map<Long, Map<Long, Boolean>> changed = new ConcurrentHashMap<>();
+
+    public UserRecommendationIndex(@Value("${filmorate.recommendations.bands}") int bands,
+                                   @Value("${filmorate.recommendations.rows}") int rows,
+                                   @Value("${filmorate.recommendations.neighbours}") int neighbours,
+                                   @Value("${filmorate.recommendations.max-candidates}") int maxCandidates,
+                                   @Value("${filmorate.recommendations.max-count}") int maxCount,
+                                   @Value("${filmorate.recommendations.cache.maximum-size}") long cacheSize) {
+        this.bands = bands;
+        this.rows = rows;
+        this.neighbours = neighbours;
+        this.maxCandidates = maxCandidates;
+        this.maxCount = maxCount;
+        this.seeds = new Random(bands * 31L + rows).longs(bands * rows).toArray();
+        this.cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+        this.snapshot = new Snapshot(LikeMatrix.load(likes -> { }), new long[bands][], 0);
+    }
+
+    /**
+     * Сколько рекомендаций можно запросить за раз.
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public boolean isStale() {
+        return stale.get();
+    }
+
+    /**
+     * Отмечает изменения, не копя лайки по пользователям: они попадут в рекомендации со следующей сборкой.
+     */
+    public void markChanged() {
+        stale.set(true);
+    }
+
+    /**
+     * Снимает пометку об изменениях перед чтением лайков для сборки и возвращает, была ли она.
+     * Лайки, записанные до этого момента, индекс перестает копить отдельно, как только соберется.
+     */
+    public synchronized boolean resetStale() {
+        Map<Long, Map<Long, Boolean>> pending = changed;
+        changed = new ConcurrentHashMap<>();
+        if (building.isEmpty()) {
+            building = pending;
+        } else {
+            // прошлая сборка не удалась: ее лайки еще не в снимке
+            Map<Long, Map<Long, Boolean>> merged = new ConcurrentHashMap<>(building);
+            pending.forEach((userId, films) -> merged.merge(userId, films, (older, newer) -> {
+                Map<Long, Boolean> both = new ConcurrentHashMap<>(older);
+                both.putAll(newer);
+                return both;
+            }));
+            building = merged;
+        }
+        return stale.getAndSet(false);
+    }
+
+    /**
+     * Лайк (liked = true) или его отмена; рекомендации пользователя учитывают их сразу, остальных — после сборки.
+     */
+    public void recordLike(long userId, long filmId, boolean liked) {
+        changed.computeIfAbsent(userId, id -> new ConcurrentHashMap<>()).put(filmId, liked);
+        stale.set(true);
+        cache.invalidate(userId);
+    }
+
+    public void rebuild(LikeMatrix likes) {
+        long start = System.nanoTime();
+        int[] users = IntStream.rangeClosed(0, likes.maxUser())
+                .filter(userId -> likes.userFrom(userId) < likes.userTo(userId))
+                .toArray();
+        long[][] buckets = new long[bands][users.length];
+        IntStream.range(0, users.length).parallel().forEach(i -> {
+            int userId = users[i];
+            int[] signature = signature(likes, likes.userFrom(userId), likes.userTo(userId), null);
+            for (int band = 0; band < bands; band++) {
+                buckets[band][i] = ((long) bandKey(signature, band) << 32) | userId;
+            }
+        });
+        Arrays.stream(buckets).parallel().forEach(Arrays::sort);
+        snapshot = new Snapshot(likes, buckets, (System.nanoTime() - start) / 1_000_000);
+        building = Collections.emptyMap();
+    }
+
+    /**
+     * До count id фильмов для пользователя, начиная с лучшего; count не больше {@link #getMaxCount()}.
+     */
+    public List<Long> recommend(long userId, int count) {
+        Recommendations cached = cache.getIfPresent(userId);
+        if (cached == null || cached.snapshot != snapshot) {
+            cached = cache.asMap().compute(userId, (id, old) -> old != null && old.snapshot == snapshot
+                    ? old : rank(id));
+        }
+        List<Long> films = cached.films;
+        return films.size() > count ? films.subList(0, count) : films;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("filmorate.recommendations.index.build.time", this,
+                        TimeUnit.MILLISECONDS, index -> index.snapshot.buildMillis)
+                .description("Время последней сборки индекса рекомендаций")
+                .register(registry);
+        Gauge.builder("filmorate.recommendations.index.memory", this, index -> index.snapshot.bytes())
+                .baseUnit("bytes")
+                .description("Примерный объем индекса рекомендаций вместе с лайками")
+                .register(registry);
+        Gauge.builder("filmorate.recommendations.index.users", this, index -> index.snapshot.buckets[0].length)
+                .description("Пользователи с лайками в индексе рекомендаций")
+                .register(registry);
+    }
+
+    private Recommendations rank(long userId) {
+        // сначала лайки в обход снимка, затем сам снимок: сборка публикует снимок раньше, чем забывает их
+        Map<Long, Boolean> older = building.getOrDefault(userId, Collections.emptyMap());
+        Map<Long, Boolean> recent = changed.getOrDefault(userId, Collections.emptyMap());
+        Snapshot current = snapshot;
+        LikeMatrix likes = current.likes;
+        int[] films = userFilms(likes, Math.toIntExact(userId), older, recent);
+        if (films.length == 0) {
+            return new Recommendations(current, NONE);
+        }
+
+        int[] signature = signature(null, 0, films.length, films);
+        double[] similarity = new double[0];
+        int[] similar = new int[0];
+        int found = 0;
+        for (int candidate : candidates(current, signature, Math.toIntExact(userId))) {
+            double jaccard = jaccard(films, likes, candidate);
+            if (jaccard == 0) {
+                continue;
+            }
+            if (found == similar.length) {
+                similar = Arrays.copyOf(similar, Math.max(16, found * 2));
+                similarity = Arrays.copyOf(similarity, similar.length);
+            }
+            similar[found] = candidate;
+            similarity[found++] = jaccard;
+        }
+        Integer[] bySimilarity = new Integer[found];
+        for (int i = 0; i < found; i++) {
+            bySimilarity[i] = i;
+        }
+        double[] weights = similarity;
+        Arrays.sort(bySimilarity, (a, b) -> Double.compare(weights[b], weights[a]));
+
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int i = 0; i < Math.min(found, neighbours); i++) {
+            int neighbour = similar[bySimilarity[i]];
+            double weight = similarity[bySimilarity[i]];
+            for (int j = likes.userFrom(neighbour); j < likes.userTo(neighbour); j++) {
+                int filmId = likes.userFilm(j);
+                if (Arrays.binarySearch(films, filmId) < 0) {
+                    scores.merge(filmId, weight, Double::sum);
+                }
+            }
+        }
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        List<Long> recommended = new ArrayList<>(Math.min(ranked.size(), maxCount));
+        for (int i = 0; i < ranked.size() && i < maxCount; i++) {
+            recommended.add((long) ranked.get(i).getKey());
+        }
+        return new Recommendations(current, Collections.unmodifiableList(recommended));
+    }
+
+    private static int[] userFilms(LikeMatrix likes, int userId, Map<Long, Boolean> older,
+                                   Map<Long, Boolean> recent) {
+        if (older.isEmpty() && recent.isEmpty()) {
+            return likes.userFilms(userId);
+        }
+        Set<Integer> films = new TreeSet<>();
+        for (int filmId : likes.userFilms(userId)) {
+            films.add(filmId);
+        }
+        for (Map<Long, Boolean> pending : List.of(older, recent)) {
+            pending.forEach((filmId, liked) -> {
+                if (liked) {
+                    films.add(Math.toIntExact(filmId));
+                } else {
+                    films.remove(Math.toIntExact(filmId));
+                }
+            });
+        }
+        return films.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Пользователи, совпавшие с подписью хотя бы в одной полосе, кроме самого userId; не больше maxCandidates.
+     */
+    private Set<Integer> candidates(Snapshot current, int[] signature, int userId) {
+        Set<Integer> candidates = new LinkedHashSet<>();
+        for (int band = 0; band < bands && candidates.size() < maxCandidates; band++) {
+            long[] bucket = current.buckets[band];
+            long key = (long) bandKey(signature, band) << 32;
+            int i = Arrays.binarySearch(bucket, key);
+            for (i = i < 0 ? -i - 1 : i; i < bucket.length && (bucket[i] & 0xFFFFFFFF00000000L) == key
+                    && candidates.size() < maxCandidates; i++) {
+                int candidate = (int) bucket[i];
+                if (candidate != userId) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static double jaccard(int[] films, LikeMatrix likes, int userId) {
+        int i = 0;
+        int j = likes.userFrom(userId);
+        int to = likes.userTo(userId);
+        int common = 0;
+        while (i < films.length && j < to) {
+            int other = likes.userFilm(j);
+            if (films[i] == other) {
+                common++;
+                i++;
+                j++;
+            } else if (films[i] < other) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (films.length + to - likes.userFrom(userId) - common);
+    }
+
+    /**
+     * Минимальные хэши фильмов: из likes[from..to) или, если likes == null, из films[from..to).
+     */
+    private int[] signature(LikeMatrix likes, int from, int to, int[] films) {
+        int[] signature = new int[seeds.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int i = from; i < to; i++) {
+            int filmId = likes == null ? films[i] : likes.userFilm(i);
+            for (int h = 0; h < seeds.length; h++) {
+                signature[h] = Math.min(signature[h], (int) (mix(filmId ^ seeds[h]) >>> 33));
+            }
+        }
+        return signature;
+    }
+
+    private int bandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * rows; row < (band + 1) * rows; row++) {
+            key = mix(key * 31 + signature[row]);
+        }
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Перемешивание битов из SplitMix64.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    private static final class Snapshot {
+        private final LikeMatrix likes;
+        // по полосе: (ключ корзины << 32 | id пользователя), по возрастанию
+        private final long[][] buckets;
+        private final long buildMillis;
+
+        private Snapshot(LikeMatrix likes, long[][] buckets, long buildMillis) {
+            this.likes = likes;
+            this.buckets = buckets;
+            this.buildMillis = buildMillis;
+            for (int band = 0; band < buckets.length; band++) {
+                if (buckets[band] == null) {
+                    buckets[band] = new long[0];
+                }
+            }
+        }
+
+        private long bytes() {
+            long bytes = likes.bytes();
+            for (long[] bucket : buckets) {
+                bytes += 8L * bucket.length;
+            }
+            return bytes;
+        }
+    }
+
+    private static final class Recommendations {
+        private final Snapshot snapshot;
+        private final List<Long> films;
+
+        private Recommendations(Snapshot snapshot, List<Long> films) {
+            this.snapshot = snapshot;
+            this.films = films;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Ответ на запрос нескольких объектов по списку id: найденные объекты в порядке запроса
+ * и id, для которых ничего не нашлось.
+ */
+@Value
+public class Batch<T> {
+    List<T> items;
+    List<Long> missingIds;
+
+    public static <T> Batch<T> of(Collection<Long> requestedIds, List<T> found, ToLongFunction<T> idOf) {
+        Set<Long> foundIds = found.stream()
+                .map(idOf::applyAsLong)
+                .collect(Collectors.toSet());
+        List<Long> missingIds = requestedIds.stream()
+                .filter(id -> !foundIds.contains(id))
+                .collect(Collectors.toList());
+        return new Batch<>(found, missingIds);
+    }
+}
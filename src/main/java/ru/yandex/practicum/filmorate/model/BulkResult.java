@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Итог пакетной загрузки: число принятых строк, id созданных объектов по номерам строк
+ * (null для строк с ошибкой) и ошибки по строкам. Строки нумеруются с единицы.
+ */
+@Value
+public class BulkResult {
+    int accepted;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    List<Long> ids;
+    List<LineError> errors;
+
+    @Value
+    public static class LineError {
+        long line;
+        String error;
+    }
+}
@@ -0,0 +1,276 @@
+package ru.yandex.practicum.filmorate.model;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Множество неотрицательных id без упаковки в {@link Long}. Пока id немного, они лежат в отсортированном
+ * массиве int (4 байта на id), после {@link #BITMAP_THRESHOLD} — в сжатом битмапе Roaring, который
+ * для больших множеств занимает от одного-двух байт на id и меньше.
+ * <p>
+ * Не потокобезопасно, как и {@link HashSet}, которым раньше были лайки и друзья.
+ */
+public final class CompactIdSet {
+    static final int BITMAP_THRESHOLD = 4096;
+    // во сколько раз одно множество больше другого, чтобы вместо слияния искать двоичным поиском
+    private static final int GALLOP_RATIO = 16;
+    private static final int[] EMPTY = new int[0];
+
+    private int[] sorted = EMPTY;
+    private int size;
+    private RoaringBitmap bitmap;
+
+    public boolean add(long id) {
+        int value = toInt(id);
+        if (bitmap != null) {
+            return bitmap.checkedAdd(value);
+        }
+        int pos = Arrays.binarySearch(sorted, 0, size, value);
+        if (pos >= 0) {
+            return false;
+        }
+        if (size == BITMAP_THRESHOLD) {
+            bitmap = RoaringBitmap.bitmapOf(Arrays.copyOf(sorted, size));
+            bitmap.add(value);
+            sorted = EMPTY;
+            size = 0;
+            return true;
+        }
+        if (size == sorted.length) {
+            sorted = Arrays.copyOf(sorted, Math.min(Math.max(4, size + (size >> 1)), BITMAP_THRESHOLD));
+        }
+        int insertAt = -pos - 1;
+        System.arraycopy(sorted, insertAt, sorted, insertAt + 1, size - insertAt);
+        sorted[insertAt] = value;
+        size++;
+        return true;
+    }
+
+    public boolean remove(long id) {
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            return false;
+        }
+        int value = (int) id;
+        if (bitmap != null) {
+            return bitmap.checkedRemove(value);
+        }
+        int pos = Arrays.binarySearch(sorted, 0, size, value);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(sorted, pos + 1, sorted, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    public boolean contains(long id) {
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            return false;
+        }
+        if (bitmap != null) {
+            return bitmap.contains((int) id);
+        }
+        return Arrays.binarySearch(sorted, 0, size, (int) id) >= 0;
+    }
+
+    public int size() {
+        return bitmap != null ? bitmap.getCardinality() : size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Обходит id по возрастанию без выделения памяти.
+     */
+    public void forEach(IntConsumer consumer) {
+        if (bitmap != null) {
+            bitmap.forEach((org.roaringbitmap.IntConsumer) consumer::accept);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            consumer.accept(sorted[i]);
+        }
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        if (bitmap != null) {
+            PeekableIntIterator ids = bitmap.getIntIterator();
+            return new PrimitiveIterator.OfInt() {
+                @Override
+                public boolean hasNext() {
+                    return ids.hasNext();
+                }
+
+                @Override
+                public int nextInt() {
+                    if (!ids.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return ids.next();
+                }
+            };
+        }
+        int[] ids = sorted;
+        int count = size;
+        return new PrimitiveIterator.OfInt() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                return ids[next++];
+            }
+        };
+    }
+
+    /**
+     * Id по возрастанию.
+     */
+    public int[] toArray() {
+        return bitmap != null ? bitmap.toArray() : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * Добавляет все id другого множества; пустое множество копирует его представление целиком.
+     */
+    public void addAll(CompactIdSet other) {
+        if (other.bitmap != null) {
+            if (bitmap == null && size == 0) {
+                bitmap = other.bitmap.clone();
+                bitmap.runOptimize();
+                return;
+            }
+            other.forEach(this::add);
+            return;
+        }
+        if (bitmap == null && size == 0) {
+            sorted = Arrays.copyOf(other.sorted, other.size);
+            size = other.size;
+            return;
+        }
+        for (int i = 0; i < other.size; i++) {
+            add(other.sorted[i]);
+        }
+    }
+
+    /**
+     * Пересечение двух множеств: два битмапа пересекаются по контейнерам, в остальных случаях
+     * меньшее множество проходится по порядку и сверяется с большим.
+     */
+    public static CompactIdSet intersection(CompactIdSet first, CompactIdSet second) {
+        CompactIdSet small = first.size() <= second.size() ? first : second;
+        CompactIdSet large = small == first ? second : first;
+        CompactIdSet result = new CompactIdSet();
+        if (small.bitmap != null && large.bitmap != null) {
+            RoaringBitmap common = RoaringBitmap.and(small.bitmap, large.bitmap);
+            if (common.getCardinality() > BITMAP_THRESHOLD) {
+                result.bitmap = common;
+            } else {
+                result.sorted = common.toArray();
+                result.size = result.sorted.length;
+            }
+            return result;
+        }
+        int[] common = new int[small.size()];
+        int count = 0;
+        if (small.bitmap != null || large.bitmap != null || large.size / GALLOP_RATIO > small.size) {
+            for (PrimitiveIterator.OfInt ids = small.iterator(); ids.hasNext(); ) {
+                int id = ids.nextInt();
+                if (large.contains(id)) {
+                    common[count++] = id;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < small.size && j < large.size) {
+                if (small.sorted[i] < large.sorted[j]) {
+                    i++;
+                } else if (small.sorted[i] > large.sorted[j]) {
+                    j++;
+                } else {
+                    common[count++] = small.sorted[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        result.sorted = count == common.length ? common : Arrays.copyOf(common, count);
+        result.size = count;
+        return result;
+    }
+
+    /**
+     * Только для чтения: представление в виде {@code Set<Long>} для Jackson и кода, работающего с коллекциями.
+     */
+    public Set<Long> asLongSet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return CompactIdSet.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Long && CompactIdSet.this.contains((Long) o);
+            }
+
+            @Override
+            public Iterator<Long> iterator() {
+                PrimitiveIterator.OfInt ids = CompactIdSet.this.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return ids.hasNext();
+                    }
+
+                    @Override
+                    public Long next() {
+                        return (long) ids.nextInt();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompactIdSet)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((CompactIdSet) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return asLongSet().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return asLongSet().toString();
+    }
+
+    private static int toInt(long id) {
+        // в базе id имеют тип INTEGER; отрицательные id нарушили бы порядок обхода битмапа
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Некорректный id: " + id);
+        }
+        return (int) id;
+    }
+}
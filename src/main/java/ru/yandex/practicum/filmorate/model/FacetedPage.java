@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Страница фильмов, отобранных по {@link FilmFilter}. {@code nextCursor} работает как в {@link Page},
+ * {@code total} — число подходящих фильмов на всех страницах, {@code genres} и {@code mpa} — сколько из них
+ * пришлось бы на каждый жанр и рейтинг (id -> число фильмов, нулевые не выводятся).
+ */
+@Value
+public class FacetedPage<T> {
+    List<T> items;
+    Long nextCursor;
+    long total;
+    Map<Integer, Integer> genres;
+    Map<Integer, Integer> mpa;
+}
@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -35,9 +36,10 @@ public class Film {
 
     private List<Genre> genres = new ArrayList<>();
 
+    // id пользователей без упаковки: у популярных фильмов сотни тысяч лайков
     @Setter(AccessLevel.NONE)
     @Getter(AccessLevel.NONE)
-    private final HashSet<Long> likes = new HashSet<>();
+    private final CompactIdSet likes = new CompactIdSet();
 
     public boolean addLike(Long userId) {
         return likes.add(userId);
@@ -56,11 +58,37 @@ public class Film {
         genres.remove(genre);
     }
 
+    /**
+     * Копия фильма со своими списками жанров и лайков.
+     */
+    public Film copy() {
+        Film copy = Film.builder()
+                .id(id)
+                .name(name)
+                .description(description)
+                .releaseDate(releaseDate)
+                .duration(duration)
+                .mpa(mpa)
+                .genres(genres == null ? null : new ArrayList<>(genres))
+                .build();
+        copy.likes.addAll(likes);
+        return copy;
+    }
+
     public int getLikesCount() {
         return likes.size();
     }
 
+    // через API лайки только читаются и ставятся отдельными запросами
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     public Collection<Long> getLikes() {
-        return Collections.unmodifiableCollection(likes);
+        return likes.asLongSet();
+    }
+
+    /**
+     * Лайки из JSON пакетной загрузки: Jackson видит этот метод только там (см. BulkImportService).
+     */
+    private void readLikes(Collection<Long> userIds) {
+        userIds.forEach(likes::add);
     }
 }
@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Условия отбора GET /films: все жанры из genre, один из рейтингов mpa, дата выхода и продолжительность
+ * в границах включительно. Незаданное условие выборку не ограничивает.
+ */
+@Data
+public class FilmFilter {
+    private List<Integer> genre = new ArrayList<>();
+    private List<Integer> mpa = new ArrayList<>();
+
+    @DateTimeFormat(pattern = "yyyy-MM-dd")
+    private LocalDate releasedFrom;
+
+    @DateTimeFormat(pattern = "yyyy-MM-dd")
+    private LocalDate releasedTo;
+
+    private Integer minDuration;
+    private Integer maxDuration;
+
+    /**
+     * Тот же фильтр без условия на рейтинг: по нему считаются счетчики рейтингов.
+     */
+    public FilmFilter withoutMpa() {
+        FilmFilter copy = new FilmFilter();
+        copy.setGenre(genre);
+        copy.setReleasedFrom(releasedFrom);
+        copy.setReleasedTo(releasedTo);
+        copy.setMinDuration(minDuration);
+        copy.setMaxDuration(maxDuration);
+        return copy;
+    }
+
+    public boolean matches(Film film) {
+        if (!mpa.isEmpty() && (film.getMpa() == null || !mpa.contains(film.getMpa().getId()))) {
+            return false;
+        }
+        for (Integer genreId : genre) {
+            if (film.getGenres() == null || film.getGenres().stream().noneMatch(g -> genreId.equals(g.getId()))) {
+                return false;
+            }
+        }
+        LocalDate released = film.getReleaseDate();
+        if ((releasedFrom != null || releasedTo != null) && released == null) {
+            return false;
+        }
+        return (releasedFrom == null || !released.isBefore(releasedFrom))
+                && (releasedTo == null || !released.isAfter(releasedTo))
+                && (minDuration == null || film.getDuration() >= minDuration)
+                && (maxDuration == null || film.getDuration() <= maxDuration);
+    }
+}
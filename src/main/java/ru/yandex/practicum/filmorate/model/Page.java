@@ -0,0 +1,15 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Страница выборки по ключу: {@code nextCursor} передается в параметр {@code after} следующего запроса,
+ * для последней страницы он равен null.
+ */
+@Value
+public class Page<T> {
+    List<T> items;
+    Long nextCursor;
+}
@@ -1,14 +1,13 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
 import java.time.LocalDate;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.function.IntConsumer;
 
 @Data
 @Builder
@@ -23,7 +22,7 @@ public class User {
     private LocalDate birthday;
 
     @Setter(AccessLevel.NONE) @Getter(AccessLevel.NONE)
-    private final Set<Long> friends = new HashSet<>();
+    private final CompactIdSet friends = new CompactIdSet();
 
     public boolean isFriend(Long id) {
         return friends.contains(id);
@@ -37,7 +36,32 @@ public class User {
         return friends.remove(id);
     }
 
+    /**
+     * Копия пользователя со своим списком друзей.
+     */
+    public User copy() {
+        User copy = new User(id, email, login, name, birthday);
+        copy.friends.addAll(friends);
+        return copy;
+    }
+
+    // через API друзья только читаются и меняются отдельными запросами
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     public Collection<Long> getFriends() {
-        return Collections.unmodifiableCollection(friends);
+        return friends.asLongSet();
+    }
+
+    /**
+     * Друзья из JSON пакетной загрузки: Jackson видит этот метод только там (см. BulkImportService).
+     */
+    private void readFriends(Collection<Long> ids) {
+        ids.forEach(friends::add);
+    }
+
+    /**
+     * Обходит id друзей по возрастанию без упаковки и выделения памяти.
+     */
+    public void forEachFriend(IntConsumer consumer) {
+        friends.forEach(consumer);
     }
 }
@@ -0,0 +1,429 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.index.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.index.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.index.FilmRangeIndex;
+import ru.yandex.practicum.filmorate.index.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.index.UserRecommendationIndex;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.model.BulkResult;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Пакетная загрузка фильмов, пользователей, лайков и дружбы из NDJSON (один JSON-объект на строку).
+ * Строки читаются по одной и собираются в порции: порция проверяется параллельно и пишется
+ * в базу JDBC-пакетами в одной транзакции. Ошибка в строке не останавливает загрузку остальных.
+ */
+@Slf4j
+@Service
+public class BulkImportService {
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final MpaStorage mpaStorage;
+    private final GenreStorage genreStorage;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmSearchIndex searchIndex;
+    private final FilmFacetIndex facetIndex;
+    private final FilmRangeIndex rangeIndex;
+    private final FilmSimilarityIndex similarityIndex;
+    private final UserRecommendationIndex recommendationIndex;
+    private final FriendGraphIndex friendGraph;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int chunkSize;
+
+    public BulkImportService(@Qualifier("filmStorage") FilmStorage filmStorage,
+                             @Qualifier("userStorage") UserStorage userStorage,
+                             @Qualifier("mpaStorage") MpaStorage mpaStorage,
+                             @Qualifier("genreStorage") GenreStorage genreStorage,
+                             FilmPopularityIndex popularityIndex,
+                             FilmSearchIndex searchIndex,
+                             FilmFacetIndex facetIndex,
+                             FilmRangeIndex rangeIndex,
+                             FilmSimilarityIndex similarityIndex,
+                             UserRecommendationIndex recommendationIndex,
+                             FriendGraphIndex friendGraph,
+                             ObjectMapper objectMapper,
+                             Validator validator,
+                             @Value("${filmorate.bulk.chunk-size}") int chunkSize) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.mpaStorage = mpaStorage;
+        this.genreStorage = genreStorage;
+        this.popularityIndex = popularityIndex;
+        this.searchIndex = searchIndex;
+        this.facetIndex = facetIndex;
+        this.rangeIndex = rangeIndex;
+        this.similarityIndex = similarityIndex;
+        this.recommendationIndex = recommendationIndex;
+        this.friendGraph = friendGraph;
+        this.objectMapper = objectMapper.copy()
+                .addMixIn(Film.class, BulkFilm.class)
+                .addMixIn(User.class, BulkUser.class);
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+    }
+
+    public BulkResult importFilms(InputStream in) throws IOException {
+        return importLines(in, Film.class, true, this::filmValidation, this::writeFilms);
+    }
+
+    public BulkResult importUsers(InputStream in) throws IOException {
+        return importLines(in, User.class, true, () -> this::validateUser, this::writeUsers);
+    }
+
+    public BulkResult importLikes(InputStream in) throws IOException {
+        return importLines(in, Like.class, false, () -> BulkImportService::validateLike, this::writeLikes);
+    }
+
+    public BulkResult importFriends(InputStream in) throws IOException {
+        return importLines(in, Friendship.class, false, () -> BulkImportService::validateFriendship,
+                this::writeFriends);
+    }
+
+    /**
+     * @param validation создает проверку строк для очередной порции, так что все, что проверке нужно
+     *                   из справочников, читается один раз на порцию, а не на каждую строку
+     */
+    private <T> BulkResult importLines(InputStream in, Class<T> type, boolean returnIds,
+                                       Supplier<Consumer<Line<T>>> validation, Consumer<List<Line<T>>> writer)
+            throws IOException {
+        var result = new ResultBuilder(returnIds);
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        ObjectReader objectReader = objectMapper.readerFor(type);
+        List<Line<T>> chunk = new ArrayList<>(chunkSize);
+        long number = 0;
+        String text;
+        while ((text = reader.readLine()) != null) {
+            number++;
+            if (text.isBlank()) {
+                result.set(number, null);
+                continue;
+            }
+            try {
+                chunk.add(new Line<>(number, objectReader.readValue(text)));
+            } catch (JsonProcessingException e) {
+                result.fail(number, "некорректный JSON: " + e.getOriginalMessage());
+                continue;
+            }
+            if (chunk.size() == chunkSize) {
+                processChunk(chunk, validation, writer, result);
+                chunk.clear();
+            }
+        }
+        processChunk(chunk, validation, writer, result);
+        log.info("Пакетная загрузка {}: строк {}, принято {}, ошибок {}",
+                type.getSimpleName(), number, result.accepted, result.errors.size());
+        return result.build();
+    }
+
+    private <T> void processChunk(List<Line<T>> chunk, Supplier<Consumer<Line<T>>> validations,
+                                  Consumer<List<Line<T>>> writer, ResultBuilder result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Consumer<Line<T>> validation = validations.get();
+        chunk.parallelStream().forEach(line -> {
+            try {
+                validation.accept(line);
+            } catch (RuntimeException e) {
+                line.error = "некорректный объект";
+            }
+        });
+        List<Line<T>> valid = chunk.stream()
+                .filter(line -> line.error == null)
+                .collect(Collectors.toList());
+        if (!valid.isEmpty()) {
+            try {
+                writer.accept(valid);
+            } catch (DataAccessException e) {
+                log.warn("Порция строк {}-{} не записана", valid.get(0).number, valid.get(valid.size() - 1).number, e);
+                valid.forEach(line -> line.error = "ошибка записи в базу");
+            }
+        }
+        chunk.forEach(result::add);
+    }
+
+    private Consumer<Line<Film>> filmValidation() {
+        Set<Integer> mpas = mpaStorage.getAllMpas().stream().map(Mpa::getId).collect(Collectors.toSet());
+        Set<Integer> genres = genreStorage.getAllGenres().stream().map(Genre::getId).collect(Collectors.toSet());
+        return line -> validateFilm(line, mpas, genres);
+    }
+
+    private void validateFilm(Line<Film> line, Set<Integer> mpas, Set<Integer> genres) {
+        Film film = line.item;
+        line.error = violations(film).or(() -> FilmService.validateFilm(film)).orElse(null);
+        if (line.error != null) {
+            return;
+        }
+        if (!mpas.contains(film.getMpa().getId())) {
+            line.error = "неизвестный рейтинг mpa " + film.getMpa().getId();
+            return;
+        }
+        if (film.getGenres() != null) {
+            for (Genre genre : film.getGenres()) {
+                if (!genres.contains(genre.getId())) {
+                    line.error = "неизвестный жанр " + genre.getId();
+                    return;
+                }
+            }
+        }
+        FilmService.stripDuplicates(film);
+    }
+
+    private void writeFilms(List<Line<Film>> lines) {
+        // лайки из строки фильма проверяются так же, как в загрузке лайков: иначе один неизвестный
+        // пользователь сорвал бы запись всей порции
+        Set<Long> users = userStorage.existingIds(lines.stream()
+                .flatMap(line -> line.item.getLikes().stream())
+                .collect(Collectors.toSet()));
+        List<Line<Film>> accepted = rejectUnknown(lines, line -> line.item.getLikes(), users);
+        List<Long> ids = filmStorage.putAll(accepted.stream().map(line -> line.item).collect(Collectors.toList()));
+        List<Film> films = new ArrayList<>(accepted.size());
+        Map<Long, Integer> likes = new HashMap<>();
+        boolean liked = false;
+        for (int i = 0; i < accepted.size(); i++) {
+            accepted.get(i).id = ids.get(i);
+            // withId не копирует лайки, их число берется из исходной строки
+            int likesCount = accepted.get(i).item.getLikesCount();
+            films.add(accepted.get(i).item.withId(ids.get(i)));
+            likes.put(ids.get(i), likesCount);
+            liked |= likesCount > 0;
+        }
+        // индексы обновляются порцией: по одной блокировке на индекс вместо блокировки на каждую строку
+        popularityIndex.addFilms(likes);
+        searchIndex.addAll(films);
+        facetIndex.addAll(films);
+        rangeIndex.addAll(films);
+        if (liked) {
+            similarityIndex.markChanged();
+            recommendationIndex.markChanged();
+        }
+    }
+
+    private static void validateLike(Line<Like> line) {
+        if (line.item.getFilmId() <= 0 || line.item.getUserId() <= 0) {
+            line.error = "нужны положительные filmId и userId";
+        }
+    }
+
+    private static void validateFriendship(Line<Friendship> line) {
+        if (line.item.getUserId() <= 0 || line.item.getFriendId() <= 0) {
+            line.error = "нужны положительные userId и friendId";
+        } else if (line.item.getUserId() == line.item.getFriendId()) {
+            line.error = "пользователь не может дружить сам с собой";
+        }
+    }
+
+    private void validateUser(Line<User> line) {
+        User user = line.item;
+        line.error = violations(user).or(() -> UserService.validateUser(user)).orElse(null);
+        if (line.error == null && (user.getName() == null || user.getName().isBlank())) {
+            user.setName(user.getLogin());
+        }
+    }
+
+    private void writeUsers(List<Line<User>> lines) {
+        // логин и email должны быть уникальны и среди уже сохраненных, и внутри загрузки
+        Set<String> logins = userStorage.findTakenLogins(
+                lines.stream().map(line -> line.item.getLogin()).collect(Collectors.toList()));
+        Set<String> emails = userStorage.findTakenEmails(
+                lines.stream().map(line -> line.item.getEmail()).collect(Collectors.toList()));
+        List<Line<User>> unique = new ArrayList<>(lines.size());
+        for (Line<User> line : lines) {
+            if (!logins.add(line.item.getLogin())) {
+                line.error = "логин уже существует";
+            } else if (!emails.add(line.item.getEmail())) {
+                line.error = "email уже существует";
+            } else {
+                unique.add(line);
+            }
+        }
+        Set<Long> friends = userStorage.existingIds(unique.stream()
+                .flatMap(line -> line.item.getFriends().stream())
+                .collect(Collectors.toSet()));
+        List<Line<User>> accepted = rejectUnknown(unique, line -> line.item.getFriends(), friends);
+        List<Long> ids = userStorage.putAll(accepted.stream().map(line -> line.item).collect(Collectors.toList()));
+        for (int i = 0; i < accepted.size(); i++) {
+            long userId = ids.get(i);
+            accepted.get(i).id = userId;
+            accepted.get(i).item.getFriends().forEach(friendId -> friendGraph.addFriend(userId, friendId));
+        }
+    }
+
+    /**
+     * Отклоняет строки, ссылающиеся на пользователей не из existing, и возвращает остальные.
+     */
+    private static <T> List<Line<T>> rejectUnknown(List<Line<T>> lines, Function<Line<T>, Collection<Long>> userIds,
+                                                   Set<Long> existing) {
+        List<Line<T>> accepted = new ArrayList<>(lines.size());
+        for (Line<T> line : lines) {
+            Optional<Long> unknown = userIds.apply(line).stream()
+                    .filter(userId -> !existing.contains(userId))
+                    .findFirst();
+            if (unknown.isPresent()) {
+                line.error = "пользователь " + unknown.get() + " не найден";
+            } else {
+                accepted.add(line);
+            }
+        }
+        return accepted;
+    }
+
+    private void writeLikes(List<Line<Like>> lines) {
+        Set<Long> films = filmStorage.existingIds(
+                lines.stream().map(line -> line.item.getFilmId()).collect(Collectors.toSet()));
+        Set<Long> users = userStorage.existingIds(
+                lines.stream().map(line -> line.item.getUserId()).collect(Collectors.toSet()));
+        List<Like> likes = new ArrayList<>(lines.size());
+        for (Line<Like> line : lines) {
+            if (!films.contains(line.item.getFilmId())) {
+                line.error = "фильм не найден";
+            } else if (!users.contains(line.item.getUserId())) {
+                line.error = "пользователь не найден";
+            } else {
+                likes.add(line.item);
+            }
+        }
+        List<Like> added = filmStorage.addLikes(likes);
+        added.forEach(like -> popularityIndex.adjust(like.getFilmId(), 1));
+        if (!added.isEmpty()) {
+            // загруженные лайки попадут в рекомендации со следующей сборкой: копить их по пользователям,
+            // как лайки из запросов, значило бы держать в памяти всю загрузку до сборки
+            similarityIndex.markChanged();
+            recommendationIndex.markChanged();
+        }
+    }
+
+    private void writeFriends(List<Line<Friendship>> lines) {
+        Set<Long> ids = new HashSet<>();
+        lines.forEach(line -> {
+            ids.add(line.item.getUserId());
+            ids.add(line.item.getFriendId());
+        });
+        Set<Long> users = userStorage.existingIds(ids);
+        List<Friendship> friendships = new ArrayList<>(lines.size());
+        for (Line<Friendship> line : lines) {
+            if (!users.contains(line.item.getUserId()) || !users.contains(line.item.getFriendId())) {
+                line.error = "пользователь не найден";
+            } else {
+                friendships.add(line.item);
+            }
+        }
+        userStorage.addFriends(friendships).forEach(f -> friendGraph.addFriend(f.getUserId(), f.getFriendId()));
+    }
+
+    private <T> Optional<String> violations(T item) {
+        Set<ConstraintViolation<T>> violations = validator.validate(item);
+        if (violations.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(" | ")));
+    }
+
+    private static final class Line<T> {
+        private final long number;
+        private final T item;
+        private volatile String error;
+        private Long id;
+
+        private Line(long number, T item) {
+            this.number = number;
+            this.item = item;
+        }
+    }
+
+    private static final class ResultBuilder {
+        private final List<Long> ids;
+        private final List<BulkResult.LineError> errors = new ArrayList<>();
+        private int accepted;
+
+        private ResultBuilder(boolean returnIds) {
+            this.ids = returnIds ? new ArrayList<>() : null;
+        }
+
+        private void set(long number, Long id) {
+            // строки попадают сюда не по порядку: ошибки разбора сразу, остальные после записи порции
+            if (ids != null) {
+                while (ids.size() < number) {
+                    ids.add(null);
+                }
+                ids.set((int) number - 1, id);
+            }
+        }
+
+        private void fail(long number, String error) {
+            errors.add(new BulkResult.LineError(number, error));
+            set(number, null);
+        }
+
+        private void add(Line<?> line) {
+            set(line.number, line.id);
+            if (line.error != null) {
+                errors.add(new BulkResult.LineError(line.number, line.error));
+            } else {
+                accepted++;
+            }
+        }
+
+        private BulkResult build() {
+            errors.sort(Comparator.comparingLong(BulkResult.LineError::getLine));
+            return new BulkResult(accepted, ids, errors);
+        }
+    }
+
+    /**
+     * Лайки и друзья записываются только здесь, где их id проверяются порцией (см. rejectUnknown);
+     * в обычном API эти поля только для чтения.
+     */
+    private abstract static class BulkFilm {
+        @JsonProperty("likes")
+        abstract Collection<Long> getLikes();
+
+        @JsonProperty("likes")
+        abstract void readLikes(Collection<Long> userIds);
+    }
+
+    private abstract static class BulkUser {
+        @JsonProperty("friends")
+        abstract Collection<Long> getFriends();
+
+        @JsonProperty("friends")
+        abstract void readFriends(Collection<Long> ids);
+    }
+}
@@ -9,19 +9,33 @@ import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ResourceNotFoundException;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.index.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.index.FilmRangeIndex;
+import ru.yandex.practicum.filmorate.index.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.index.UserRecommendationIndex;
+import ru.yandex.practicum.filmorate.model.Batch;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.GenreStorage;
 import ru.yandex.practicum.filmorate.storage.MpaStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -32,19 +46,52 @@ public class FilmService {
     private final MpaStorage mpaStorage;
     private final GenreStorage genreStorage;
     private final UserStorage userStorage;
+    private final FilmPopularityIndex popularityIndex;
+    private final FilmSearchIndex searchIndex;
+    private final FilmFacetIndex facetIndex;
+    private final FilmRangeIndex rangeIndex;
+    private final FilmSimilarityIndex similarityIndex;
+    private final UserRecommendationIndex recommendationIndex;
+    private final LikeWriteBuffer likeWriteBuffer;
 
     private static final LocalDateTime earliestThreshold = LocalDateTime.of(
             1895, Month.DECEMBER, 28, 0, 0, 0);
 
     @Autowired
-    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
-                       @Qualifier("mpaDbStorage") MpaStorage mpaStorage,
-                       @Qualifier("genreDbStorage") GenreStorage genreStorage,
-                       @Qualifier("userDbStorage") UserStorage userStorage) {
+    public FilmService(@Qualifier("filmStorage") FilmStorage filmStorage,
+                       @Qualifier("mpaStorage") MpaStorage mpaStorage,
+                       @Qualifier("genreStorage") GenreStorage genreStorage,
+                       @Qualifier("userStorage") UserStorage userStorage,
+                       FilmPopularityIndex popularityIndex,
+                       FilmSearchIndex searchIndex,
+                       FilmFacetIndex facetIndex,
+                       FilmRangeIndex rangeIndex,
+                       FilmSimilarityIndex similarityIndex,
+                       UserRecommendationIndex recommendationIndex,
+                       LikeWriteBuffer likeWriteBuffer) {
         this.filmStorage = filmStorage;
         this.mpaStorage = mpaStorage;
         this.genreStorage = genreStorage;
         this.userStorage = userStorage;
+        this.popularityIndex = popularityIndex;
+        this.searchIndex = searchIndex;
+        this.facetIndex = facetIndex;
+        this.rangeIndex = rangeIndex;
+        this.similarityIndex = similarityIndex;
+        this.recommendationIndex = recommendationIndex;
+        this.likeWriteBuffer = likeWriteBuffer;
+    }
+
+    @PostConstruct
+    public void warmUpIndexes() {
+        popularityIndex.rebuild(filmStorage.getLikeCounts());
+        log.info("Рейтинг популярности построен");
+        searchIndex.rebuild(filmStorage::forEachFilm);
+        log.info("Поисковый индекс построен");
+        facetIndex.rebuild(filmStorage::forEachFilmMpa, filmStorage::forEachFilmGenre);
+        log.info("Индекс жанров и рейтингов MPA построен");
+        rangeIndex.rebuild(filmStorage::forEachFilmReleaseDay, filmStorage::forEachFilmDuration);
+        log.info("Индекс дат выхода и продолжительности построен");
     }
 
     public Film addFilm(Film film) throws ValidationException {
@@ -54,43 +101,83 @@ public class FilmService {
         }
         stripDuplicates(film);
         long id = filmStorage.put(film);
+        popularityIndex.addFilm(id, film.getLikesCount());
         Film newFilm = film.withId(id);
+        searchIndex.add(newFilm);
+        facetIndex.update(newFilm);
+        rangeIndex.add(newFilm);
         log.info("Фильм добавлен: {}", newFilm);
         return newFilm;
     }
 
+    /**
+     * Фильм и пользователь не проверяются заранее: их отсутствие видит сама запись лайка.
+     */
     public Film addLike(Long id, Long userId) throws ValidationException {
-        if (!userStorage.indexExists(userId)) {
-            throw new UserNotFoundException();
+        return setLike(id, userId, true);
+    }
+
+    public Film removeLike(long id, long userId) {
+        return setLike(id, userId, false);
+    }
+
+    private Film setLike(long id, long userId, boolean like) {
+        if (likeWriteBuffer.isEnabled()) {
+            return bufferLike(id, userId, like);
         }
-        var optFilm = filmStorage.getFilm(id);
-        if (optFilm.isPresent()) {
-            optFilm.get().addLike(userId);
-            filmStorage.addLike(id, userId);
-            return optFilm.get();
+        if (like ? filmStorage.addLike(id, userId) : filmStorage.removeLike(id, userId)) {
+            likeChanged(id, userId, like);
         }
-        throw new FilmNotFoundException();
+        return getFilm(id).orElseThrow(FilmNotFoundException::new);
     }
 
-    public Film removeLike(long id, long userId) {
+    /**
+     * При отложенной записи база увидит лайк только при сбросе буфера, поэтому фильм и пользователь
+     * проверяются до постановки в очередь; обычно оба уже в кэше.
+     */
+    private Film bufferLike(long id, long userId, boolean like) {
+        var film = getFilm(id).orElseThrow(FilmNotFoundException::new);
         if (!userStorage.indexExists(userId)) {
             throw new UserNotFoundException();
         }
-        var optFilm = filmStorage.getFilm(id);
-        if (optFilm.isPresent()) {
-            optFilm.get().removeLike(userId);
-            filmStorage.removeLike(id, userId);
-            return optFilm.get();
+        if (likeWriteBuffer.enqueue(id, userId, like, () -> filmStorage.hasLike(id, userId))) {
+            likeChanged(id, userId, like);
         }
-        throw new FilmNotFoundException();
+        if (like) {
+            film.addLike(userId);
+        } else {
+            film.removeLike(userId);
+        }
+        return film;
+    }
+
+    private void likeChanged(long id, long userId, boolean like) {
+        popularityIndex.adjust(id, like ? 1 : -1);
+        similarityIndex.markChanged();
+        recommendationIndex.recordLike(userId, id, like);
     }
 
     public Collection<Film> getFilms() {
-        return filmStorage.getAll();
+        return withPendingLikes(filmStorage.getAll());
+    }
+
+    public void forEachFilm(Consumer<Film> consumer) {
+        filmStorage.forEachFilm(film -> consumer.accept(likeWriteBuffer.applyPending(film)));
+    }
+
+    public Page<Film> getFilmsPage(long afterId, int limit) {
+        var page = filmStorage.getPage(afterId, limit);
+        withPendingLikes(page.getItems());
+        return page;
+    }
+
+    public Batch<Film> getFilms(List<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+        return Batch.of(distinctIds, withPendingLikes(filmStorage.getFilms(distinctIds)), Film::getId);
     }
 
     public Optional<Film> getFilm(Long id) {
-        return filmStorage.getFilm(id);
+        return filmStorage.getFilm(id).map(likeWriteBuffer::applyPending);
     }
 
 
@@ -98,12 +185,64 @@ public class FilmService {
         return filmStorage.indexExists(id);
     }
 
+    /**
+     * Id берутся из индекса популярности, сами фильмы — из кэша по id перед базой: в базу идут только фильмы,
+     * которых нет в кэше, например получившие лайк после прошлого чтения.
+     */
     public Collection<Film> getMostLiked(int count) {
-        return filmStorage.getAll()
-                .stream()
-                .sorted(Comparator.comparingInt(Film::getLikesCount).reversed())
-                .limit(count)
-                .collect(Collectors.toUnmodifiableList());
+        if (!popularityIndex.isWarm()) {
+            return withPendingLikes(filmStorage.getMostLiked(count));
+        }
+        return withPendingLikes(filmStorage.getFilms(popularityIndex.top(count)));
+    }
+
+    public List<Film> searchFilms(String query, int count) {
+        List<Film> found = new ArrayList<>(filmStorage.getFilms(searchIndex.search(query, count)));
+        // индекс может вернуть фильм, название которого только что изменилось
+        found.removeIf(film -> !FilmSearchIndex.matches(film, query));
+        return withPendingLikes(found);
+    }
+
+    /**
+     * Фильмы, которые чаще всего лайкали те же пользователи; по состоянию лайков на последнюю пересборку индекса.
+     */
+    public Collection<Film> getSimilar(long id, int count) {
+        List<Film> similar = filmStorage.getFilms(similarityIndex.similar(id, count));
+        // у фильма может не быть похожих, а у несуществующего их нет никогда: проверяем только пустой ответ
+        if (similar.isEmpty() && !filmStorage.indexExists(id)) {
+            throw new FilmNotFoundException();
+        }
+        return withPendingLikes(similar);
+    }
+
+    /**
+     * Фильмы, которые лайкали пользователи с похожим вкусом, а сам пользователь — нет.
+     */
+    public Collection<Film> getRecommendations(long userId, int count) {
+        List<Film> recommended = filmStorage.getFilms(recommendationIndex.recommend(userId, count));
+        if (recommended.isEmpty() && !userStorage.indexExists(userId)) {
+            throw new UserNotFoundException();
+        }
+        return withPendingLikes(recommended);
+    }
+
+    public int getMaxRecommendations() {
+        return recommendationIndex.getMaxCount();
+    }
+
+    /**
+     * Страница фильмов, подходящих под фильтр; из базы читается только страница.
+     */
+    public FacetedPage<Film> filterFilms(FilmFilter filter, long afterId, int limit) {
+        // пока индексы не построены, фильмы отбирает хранилище
+        FacetedPage<Long> page = facetIndex.isWarm() && rangeIndex.isWarm()
+                ? facetIndex.filter(filter, afterId, limit)
+                : filmStorage.filterFilms(filter, afterId, limit);
+        List<Film> films = new ArrayList<>(filmStorage.getFilms(page.getItems()));
+        // фильм мог измениться между отбором и загрузкой: жанры, рейтинг, дата или продолжительность
+        films.removeIf(film -> !filter.matches(film));
+        return new FacetedPage<>(withPendingLikes(films), page.getNextCursor(), page.getTotal(),
+                page.getGenres(), page.getMpa());
     }
 
     public Collection<Genre> getGenres() {
@@ -127,17 +266,27 @@ public class FilmService {
         if (validationMessage.isPresent()) {
             throw new ValidationException("Некорректный фильм: " + validationMessage.get());
         }
-        if (filmStorage.indexExists(film.getId())) {
-            stripDuplicates(film);
+        stripDuplicates(film);
+        try {
             filmStorage.updateFilm(film);
-            log.info("Фильм обновлен: {}", film);
-        } else {
+        } catch (FilmNotFoundException e) {
             log.warn("Фильм не найден: {}", film);
-            throw new FilmNotFoundException();
+            throw e;
         }
+        searchIndex.update(film);
+        facetIndex.update(film);
+        rangeIndex.update(film);
+        log.info("Фильм обновлен: {}", film);
         return film;
     }
 
+    private <T extends Collection<Film>> T withPendingLikes(T films) {
+        if (likeWriteBuffer.isEnabled()) {
+            films.forEach(likeWriteBuffer::applyPending);
+        }
+        return films;
+    }
+
     public static Optional<String> validateFilm(Film film) {
         if (film.getDescription().length() > 200) {
             return Optional.of("описание должно быть меньше 200 знаков.");
@@ -154,7 +303,7 @@ public class FilmService {
         return Optional.empty();
     }
 
-    private static void stripDuplicates(Film film) {
+    static void stripDuplicates(Film film) {
         if (film.getGenres() != null && film.getGenres().size() > 1) {
             film.setGenres(film.getGenres().stream()
                     .sorted(Comparator.comparingInt(Genre::getId))
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновое слияние журнала лайков в битмапы раз в compact-interval-ms. Запись лайка только дописывает журнал,
+ * поэтому битмапы переписываются только здесь; до слияния журнал читается вместе с битмапом.
+ * Для формата rows ничего не делает.
+ */
+@Slf4j
+@Component
+@Profile("!in-memory")
+public class LikeCompactionScheduler {
+    private final FilmDbStorage filmStorage;
+    private final long compactIntervalMs;
+    private final ScheduledExecutorService compactor;
+
+    public LikeCompactionScheduler(@Qualifier("filmDbStorage") FilmDbStorage filmStorage,
+                                   @Value("${filmorate.likes.bitmap.compact-interval-ms}") long compactIntervalMs) {
+        this.filmStorage = filmStorage;
+        this.compactIntervalMs = compactIntervalMs;
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "like-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void schedule() {
+        compactor.scheduleWithFixedDelay(this::compact, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void compact() {
+        long start = System.nanoTime();
+        try {
+            filmStorage.compactLikes();
+            log.debug("Журнал лайков слит в битмапы за {} мс", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Не удалось слить журнал лайков, попробуем в следующий раз", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        compactor.shutdownNow();
+        compactor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.index.LikeMatrix;
+import ru.yandex.practicum.filmorate.index.UserRecommendationIndex;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пересборка индексов, которые строятся из всех лайков ({@link FilmSimilarityIndex}, {@link UserRecommendationIndex}):
+ * при запуске и затем фоном раз в rebuild-interval-ms, если с прошлой сборки менялись лайки. Лайки читаются
+ * из хранилища один раз на все индексы, запросы тем временем читают прежние результаты. Отложенные лайки перед
+ * сборкой сбрасываются в хранилище, иначе сборка сочла бы их учтенными.
+ */
+@Slf4j
+@Component
+public class LikeIndexRefresher {
+    private final FilmStorage filmStorage;
+    private final FilmSimilarityIndex similarityIndex;
+    private final UserRecommendationIndex recommendationIndex;
+    private final LikeWriteBuffer likeWriteBuffer;
+    private final long rebuildIntervalMs;
+    private final ScheduledExecutorService rebuilder;
+
+    public LikeIndexRefresher(@Qualifier("filmStorage") FilmStorage filmStorage,
+                              FilmSimilarityIndex similarityIndex,
+                              UserRecommendationIndex recommendationIndex,
+                              LikeWriteBuffer likeWriteBuffer,
+                              @Value("${filmorate.likes.index-rebuild-interval-ms}") long rebuildIntervalMs) {
+        this.filmStorage = filmStorage;
+        this.similarityIndex = similarityIndex;
+        this.recommendationIndex = recommendationIndex;
+        this.likeWriteBuffer = likeWriteBuffer;
+        this.rebuildIntervalMs = rebuildIntervalMs;
+        rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "like-index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void warmUpIndexes() {
+        rebuild(true, true);
+        rebuilder.scheduleWithFixedDelay(this::rebuildIfStale, rebuildIntervalMs, rebuildIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void rebuildIfStale() {
+        boolean similar = similarityIndex.resetStale();
+        boolean recommendations = recommendationIndex.resetStale();
+        if (!similar && !recommendations) {
+            return;
+        }
+        try {
+            rebuild(similar, recommendations);
+        } catch (RuntimeException e) {
+            log.error("Не удалось пересобрать индексы лайков, попробуем в следующий раз", e);
+            if (similar) {
+                similarityIndex.markChanged();
+            }
+            if (recommendations) {
+                recommendationIndex.markChanged();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        rebuilder.shutdownNow();
+        rebuilder.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void rebuild(boolean similar, boolean recommendations) {
+        long start = System.nanoTime();
+        if (likeWriteBuffer.isEnabled()) {
+            likeWriteBuffer.flush();
+        }
+        LikeMatrix likes = LikeMatrix.load(filmStorage::forEachLike);
+        log.info("Загружено {} лайков за {} мс", likes.size(), (System.nanoTime() - start) / 1_000_000);
+        if (similar) {
+            start = System.nanoTime();
+            similarityIndex.rebuild(likes);
+            log.info("Похожие фильмы посчитаны за {} мс", (System.nanoTime() - start) / 1_000_000);
+        }
+        if (recommendations) {
+            start = System.nanoTime();
+            recommendationIndex.rebuild(likes);
+            log.info("Индекс рекомендаций построен за {} мс", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ServiceUnavailableException;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Отложенная запись лайков. Лайки и их отмены копятся в буфере, для каждой пары (фильм, пользователь)
+ * хранится только последняя операция, и раз в flush-interval-ms или по достижении batch-size
+ * буфер сбрасывается в хранилище пакетными запросами. Чтение фильмов накладывает еще не записанные операции
+ * через {@link #applyPending(Film)}.
+ * <p>
+ * Сбрасываемый пакет остается видимым ({@code flushing}), пока хранилище не закоммитит его: он убирается
+ * под блокировкой записи, а чтение отложенных операций и решение, меняет ли операция лайк, идут под
+ * блокировкой чтения. Поэтому операция видит лайк либо в пакете, либо уже в хранилище, но не теряет его
+ * между ними.
+ * <p>
+ * В буфере и сбрасываемом пакете вместе не больше capacity пар: место занимается до постановки в очередь
+ * и освобождается после записи, а переполненный буфер отвечает 503, не останавливая поток запроса на запись.
+ * Если пакет не записался, пары пишутся по одной: пара, которую хранилище отвергает (нет фильма
+ * или пользователя), отбрасывается в лог, а при сбое самого хранилища оставшиеся пары возвращаются в буфер.
+ * <p>
+ * Буфер сбрасывается при остановке приложения; при аварийном завершении теряются операции
+ * за последний интервал сброса.
+ */
+@Slf4j
+@Component
+public class LikeWriteBuffer {
+    private final FilmStorage filmStorage;
+    private final boolean enabled;
+    private final int batchSize;
+    // по месту на каждую пару в queued и flushing
+    private final Semaphore slots;
+    private final ScheduledExecutorService flusher;
+
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile Map<Long, Map<Long, Boolean>> queued = new ConcurrentHashMap<>();
+    private volatile Map<Long, Map<Long, Boolean>> flushing = Collections.emptyMap();
+
+    public LikeWriteBuffer(@Qualifier("filmStorage") FilmStorage filmStorage,
+                           @Value("${filmorate.likes.write-behind.enabled}") boolean enabled,
+                           @Value("${filmorate.likes.write-behind.flush-interval-ms}") long flushIntervalMs,
+                           @Value("${filmorate.likes.write-behind.batch-size}") int batchSize,
+                           @Value("${filmorate.likes.write-behind.capacity}") int capacity) {
+        this.filmStorage = filmStorage;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.slots = new Semaphore(capacity);
+        if (enabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "like-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public static LikeWriteBuffer disabled() {
+        return new LikeWriteBuffer(null, false, 0, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ставит операцию в очередь и возвращает true, если она меняет видимое состояние лайка.
+     *
+     * @param storedLike есть ли лайк в хранилище без учета буфера; читается, только если по паре
+     *                   нет отложенных операций
+     * @throws ServiceUnavailableException если буфер заполнен
+     */
+    public boolean enqueue(long filmId, long userId, boolean like, BooleanSupplier storedLike) {
+        if (!slots.tryAcquire()) {
+            throw new ServiceUnavailableException("Очередь лайков переполнена, повторите запрос позже");
+        }
+        boolean[] changed = new boolean[1];
+        boolean[] newPair = new boolean[1];
+        swapLock.readLock().lock();
+        try {
+            Boolean pending = pending(filmId, userId);
+            // хранилище читается до compute: пакет, который не виден в буфере, уже закоммичен
+            boolean stored = pending == null && storedLike.getAsBoolean();
+            queued.computeIfAbsent(filmId, id -> new ConcurrentHashMap<>())
+                    .compute(userId, (id, last) -> {
+                        boolean before = last != null ? last : pendingOrStored(flushing, filmId, userId, stored);
+                        changed[0] = before != like;
+                        newPair[0] = last == null;
+                        if (last == null) {
+                            size.incrementAndGet();
+                        }
+                        return like;
+                    });
+        } finally {
+            swapLock.readLock().unlock();
+            if (!newPair[0]) {
+                // пара уже стояла в очереди и место не заняла
+                slots.release();
+            }
+        }
+        if (size.get() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+        return changed[0];
+    }
+
+    public Film applyPending(Film film) {
+        if (!enabled) {
+            return film;
+        }
+        swapLock.readLock().lock();
+        try {
+            apply(flushing.get(film.getId()), film);
+            apply(queued.get(film.getId()), film);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        return film;
+    }
+
+    public synchronized void flush() {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, Map<Long, Boolean>> batch;
+        swapLock.writeLock().lock();
+        try {
+            batch = queued;
+            flushing = batch;
+            queued = new ConcurrentHashMap<>();
+            size.set(0);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        if (batch.isEmpty()) {
+            clearFlushing();
+            return;
+        }
+        List<Like> likes = new ArrayList<>();
+        List<Like> unlikes = new ArrayList<>();
+        batch.forEach((filmId, users) -> users.forEach((userId, like) ->
+                (like ? likes : unlikes).add(new Like(filmId, userId))));
+        try {
+            filmStorage.addLikes(likes);
+            filmStorage.removeLikes(unlikes);
+            slots.release(likes.size() + unlikes.size());
+        } catch (RuntimeException e) {
+            log.warn("Пакет из {} лайков не записался, пишем по одному", likes.size() + unlikes.size(), e);
+            writeOneByOne(batch);
+        } finally {
+            // пакет уже в хранилище или снова в очереди
+            clearFlushing();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // уже залогировано, операции остались в буфере до следующего сброса
+        }
+    }
+
+    private void clearFlushing() {
+        swapLock.writeLock().lock();
+        try {
+            flushing = Collections.emptyMap();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private Boolean pending(long filmId, long userId) {
+        var users = queued.get(filmId);
+        Boolean last = users == null ? null : users.get(userId);
+        if (last != null) {
+            return last;
+        }
+        users = flushing.get(filmId);
+        return users == null ? null : users.get(userId);
+    }
+
+    /**
+     * Пишет пакет по одной паре. Пары, которые хранилище отвергает, отбрасываются, а при любой другой ошибке
+     * оставшиеся пары возвращаются в буфер и ошибка пробрасывается.
+     */
+    private void writeOneByOne(Map<Long, Map<Long, Boolean>> batch) {
+        List<Like> pairs = new ArrayList<>();
+        List<Boolean> operations = new ArrayList<>();
+        batch.forEach((filmId, users) -> users.forEach((userId, like) -> {
+            pairs.add(new Like(filmId, userId));
+            operations.add(like);
+        }));
+        for (int i = 0; i < pairs.size(); i++) {
+            Like pair = pairs.get(i);
+            try {
+                if (operations.get(i)) {
+                    filmStorage.addLike(pair.getFilmId(), pair.getUserId());
+                } else {
+                    filmStorage.removeLike(pair.getFilmId(), pair.getUserId());
+                }
+            } catch (FilmNotFoundException | UserNotFoundException | DataIntegrityViolationException e) {
+                log.error("Лайк отброшен, хранилище его не принимает: {}", pair, e);
+            } catch (RuntimeException e) {
+                log.error("Не удалось записать {} лайков, они вернутся в буфер", pairs.size() - i, e);
+                slots.release(i);
+                Map<Long, Map<Long, Boolean>> rest = new HashMap<>();
+                for (int j = i; j < pairs.size(); j++) {
+                    rest.computeIfAbsent(pairs.get(j).getFilmId(), id -> new HashMap<>())
+                            .put(pairs.get(j).getUserId(), operations.get(j));
+                }
+                requeue(rest);
+                throw e;
+            }
+        }
+        slots.release(pairs.size());
+    }
+
+    /**
+     * Возвращает пары в очередь вместе с их местами; пара, по которой уже пришла новая операция, место отдает.
+     */
+    private void requeue(Map<Long, Map<Long, Boolean>> batch) {
+        swapLock.readLock().lock();
+        try {
+            batch.forEach((filmId, users) -> users.forEach((userId, like) -> {
+                var filmQueue = queued.computeIfAbsent(filmId, id -> new ConcurrentHashMap<>());
+                if (filmQueue.putIfAbsent(userId, like) == null) {
+                    size.incrementAndGet();
+                } else {
+                    slots.release();
+                }
+            }));
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private static boolean pendingOrStored(Map<Long, Map<Long, Boolean>> pending,
+                                           long filmId, long userId, boolean storedLike) {
+        var users = pending.get(filmId);
+        if (users == null) {
+            return storedLike;
+        }
+        return users.getOrDefault(userId, storedLike);
+    }
+
+    private static void apply(Map<Long, Boolean> users, Film film) {
+        if (users == null) {
+            return;
+        }
+        users.forEach((userId, like) -> {
+            if (like) {
+                film.addLike(userId);
+            } else {
+                film.removeLike(userId);
+            }
+        });
+    }
+}
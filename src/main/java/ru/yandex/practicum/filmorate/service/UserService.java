@@ -6,24 +6,40 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.model.Batch;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.time.chrono.ChronoLocalDate;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class UserService {
     private final UserStorage storage;
-    private long idCounter = 0;
+    private final FriendGraphIndex friendGraph;
 
     @Autowired
-    public UserService(@Qualifier("userDbStorage") UserStorage storage) {
+    public UserService(@Qualifier("userStorage") UserStorage storage, FriendGraphIndex friendGraph) {
         this.storage = storage;
+        this.friendGraph = friendGraph;
+    }
+
+    @PostConstruct
+    public void warmUpIndexes() {
+        friendGraph.rebuild(storage::forEachFriendship);
+        log.info("Граф дружбы загружен");
     }
 
     public User addUser(User user) {
@@ -31,12 +47,10 @@ public class UserService {
         if (validationMessage.isPresent()) {
             throw new ValidationException("Некорректный пользователь: " + validationMessage.get());
         }
-        User newUser;
-        newUser = user.withId(++idCounter);
         var name = user.getName() == null || user.getName().isBlank() ?
                 user.getLogin() : user.getName();
-        newUser.setName(name);
-        storage.put(newUser);
+        user.setName(name);
+        User newUser = user.withId(storage.put(user));
         log.info("Пользователь добавлен: {}", newUser);
         return newUser;
     }
@@ -46,13 +60,13 @@ public class UserService {
         if (validationMessage.isPresent()) {
             throw new ValidationException("Некорректный пользователь: " + validationMessage.get());
         }
-        if (!storage.indexExists(user.getId())) {
-            log.warn("Пользователь не найден: {}", user);
-            throw new UserNotFoundException();
-        } else {
+        try {
             storage.update(user);
-            log.info("Пользователь добавлен: {}", user);
+        } catch (UserNotFoundException e) {
+            log.warn("Пользователь не найден: {}", user);
+            throw e;
         }
+        log.info("Пользователь обновлен: {}", user);
         return user;
     }
 
@@ -60,57 +74,91 @@ public class UserService {
         return storage.getUsers();
     }
 
+    public void forEachUser(Consumer<User> consumer) {
+        storage.forEachUser(consumer);
+    }
+
+    public Page<User> getUsersPage(long afterId, int limit) {
+        return storage.getPage(afterId, limit);
+    }
+
+    public Batch<User> getUsers(List<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+        return Batch.of(distinctIds, storage.getUsers(distinctIds), User::getId);
+    }
+
     public Optional<User> getUser(Long id) {
         return storage.getUser(id);
     }
 
     public User addFriend(Long id, Long friendId) {
-        var user1 = storage.getUser(id);
-        var user2 = storage.getUser(friendId);
-        if (user1.isPresent() && user2.isPresent()) {
-            user1.get().addFriend(user2.get().getId());
-            storage.addFriend(id, friendId);
-            return user1.get();
+        var user = storage.getUser(id).orElseThrow(UserNotFoundException::new);
+        if (!storage.indexExists(friendId)) {
+            throw new UserNotFoundException();
         }
-        throw new UserNotFoundException();
+        storage.addFriend(id, friendId);
+        friendGraph.addFriend(id, friendId);
+        user.addFriend(friendId);
+        return user;
     }
 
     public User removeFriend(Long id, Long friendId) {
-        var user1 = storage.getUser(id);
-        var user2 = storage.getUser(friendId);
-        if (user1.isPresent() && user2.isPresent()) {
-            user1.get().removeFriend(user2.get().getId());
-            storage.removeFriend(id, friendId);
-            return user1.get();
+        var user = storage.getUser(id).orElseThrow(UserNotFoundException::new);
+        if (!storage.indexExists(friendId)) {
+            throw new UserNotFoundException();
         }
-        throw new UserNotFoundException();
+        storage.removeFriend(id, friendId);
+        friendGraph.removeFriend(id, friendId);
+        user.removeFriend(friendId);
+        return user;
     }
 
     public Collection<User> getFriends(Long id) {
-        var user = storage.getUser(id);
-        if (user.isPresent()) {
-            return user.get().getFriends().stream()
-                    .map(storage::getUser)
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .collect(Collectors.toUnmodifiableList());
+        List<User> friends = storage.getFriends(id);
+        // пустой список у несуществующего пользователя — 404, поэтому проверяем только его
+        if (friends.isEmpty()) {
+            requireUsers(List.of(id));
         }
-        throw new UserNotFoundException();
+        return Collections.unmodifiableList(friends);
     }
 
     public Collection<User> getCommonFriends(Long id, Long otherId) {
-        var userOpt = storage.getUser(id);
-        var otherOpt = storage.getUser(otherId);
-        if (userOpt.isEmpty() || otherOpt.isEmpty()) {
+        return getCommonFriends(List.of(id, otherId));
+    }
+
+    /**
+     * Общие друзья всех переданных пользователей. Если граф дружбы загружен, пересечение считается в памяти.
+     */
+    public Collection<User> getCommonFriends(List<Long> userIds) {
+        Collection<User> common = friendGraph.isWarm()
+                ? storage.getUsers(friendGraph.getCommonFriends(userIds))
+                : storage.getCommonFriends(userIds);
+        if (common.isEmpty()) {
+            requireUsers(userIds);
+        }
+        return common;
+    }
+
+    /**
+     * Друзья друзей пользователя, которых нет у него в друзьях, по убыванию числа общих друзей.
+     */
+    public Collection<User> getFriendSuggestions(long id, int count) {
+        List<User> suggestions = storage.getUsers(friendGraph.suggestFriends(id, count));
+        if (suggestions.isEmpty()) {
+            requireUsers(List.of(id));
+        }
+        return suggestions;
+    }
+
+    public int getMaxFriendSuggestions() {
+        return friendGraph.getMaxSuggestions();
+    }
+
+    private void requireUsers(Collection<Long> userIds) {
+        Set<Long> distinctIds = new HashSet<>(userIds);
+        if (storage.existingIds(distinctIds).size() < distinctIds.size()) {
             throw new UserNotFoundException();
         }
-        var otherFriends = storage.getUser(otherId).get().getFriends();
-        return userOpt.get().getFriends().stream()
-                .filter(otherFriends::contains)
-                .map(storage::getUser)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
     }
 
     public boolean userExists(Long id) {
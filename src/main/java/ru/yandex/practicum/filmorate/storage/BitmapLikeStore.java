@@ -0,0 +1,350 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import ru.yandex.practicum.filmorate.model.Like;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Лайки в формате "bitmap": строка FILM_LIKERS на фильм, в которой лайкнувшие пользователи лежат
+ * сериализованным битмапом Roaring. Лайк и его отмена не переписывают битмап, а ложатся в журнал
+ * FILM_LIKE_LOG — строка на пару (фильм, пользователь), пока ее состояние расходится с битмапом.
+ * Журнал сливается в битмап только в compact() (см. LikeCompactionScheduler).
+ * <p>
+ * Запись не трогает строку фильма в FILM_LIKERS и блокирует только строки журнала своих пар, поэтому лайки
+ * разных пользователей одного фильма пишутся параллельно. Слияние блокирует строку фильма и сливаемые строки
+ * журнала, удаляет ровно их и не мешает записи новых пар. Чтение ничего не блокирует: журнал читается раньше
+ * битмапа, и если между ними журнал слили в битмап, последняя операция по паре просто применяется второй раз.
+ * Битмапы для проверки лайка при записи кэшируются по версии строки, которая растет при каждом слиянии.
+ * Лайки удаляемого пользователя убирает LikeCounterTrigger, журнал чистится каскадом.
+ */
+class BitmapLikeStore implements LikeStore {
+    private static final int LIKED = 1;
+    private static final int UNLIKED = -1;
+    private static final int CACHED_FILMS = 256;
+    private static final String INSERT_LOG = "INSERT INTO PUBLIC.FILM_LIKE_LOG (FILM_ID, USER_ID, DELTA) "
+            + "values (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<Long, StoredLikers> storedLikers = Caffeine.newBuilder()
+            .maximumSize(CACHED_FILMS)
+            .build();
+
+    BitmapLikeStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void putAll(Map<Long, ? extends Collection<Long>> likersByFilm) {
+        List<Object[]> batchArgs = new ArrayList<>();
+        likersByFilm.forEach((filmId, userIds) -> {
+            if (!userIds.isEmpty()) {
+                RoaringBitmap likers = new RoaringBitmap();
+                userIds.forEach(userId -> likers.add(Math.toIntExact(userId)));
+                batchArgs.add(new Object[]{filmId, serialize(likers), likers.getCardinality()});
+            }
+        });
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.FILM_LIKERS (FILM_ID, LIKERS, LIKES_COUNT) values (?, ?, ?)",
+                batchArgs);
+    }
+
+    @Override
+    public boolean contains(long filmId, long userId) {
+        List<Integer> logged = jdbcTemplate.queryForList(
+                "select delta from PUBLIC.FILM_LIKE_LOG where film_id = ? and user_id = ?", Integer.class,
+                filmId, userId);
+        return logged.isEmpty() ? stored(filmId).contains(Math.toIntExact(userId)) : logged.get(0) == LIKED;
+    }
+
+    @Override
+    public boolean add(long filmId, long userId) {
+        return addAll(List.of(new Like(filmId, userId)))[0];
+    }
+
+    @Override
+    public boolean remove(long filmId, long userId) {
+        return removeAll(List.of(new Like(filmId, userId)))[0];
+    }
+
+    @Override
+    public boolean[] addAll(List<Like> likes) {
+        return apply(likes, LIKED);
+    }
+
+    @Override
+    public boolean[] removeAll(List<Like> likes) {
+        return apply(likes, UNLIKED);
+    }
+
+    @Override
+    public void forEachLike(Collection<Long> filmIds, IdPairConsumer consumer) {
+        for (List<Long> chunk : InClause.chunks(new TreeSet<>(filmIds))) {
+            forEachLike("film_id in (" + InClause.placeholders(chunk.size()) + ")", chunk.toArray(), consumer);
+        }
+    }
+
+    @Override
+    public void forEachLike(long afterFilmId, long lastFilmId, IdPairConsumer consumer) {
+        forEachLike("film_id > ? and film_id <= ?", new Object[]{afterFilmId, lastFilmId}, consumer);
+    }
+
+    private void forEachLike(String filmCondition, Object[] args, IdPairConsumer consumer) {
+        Map<Long, List<int[]>> log = new HashMap<>();
+        jdbcTemplate.query("select film_id, user_id, delta from PUBLIC.FILM_LIKE_LOG where " + filmCondition,
+                (RowCallbackHandler) rs -> log.computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>())
+                        .add(new int[]{rs.getInt("user_id"), rs.getInt("delta")}),
+                args);
+        // строку FILM_LIKERS создает первое слияние, до него лайки фильма есть только в журнале
+        TreeSet<Long> logOnly = new TreeSet<>(log.keySet());
+        jdbcTemplate.query("select film_id, likers from PUBLIC.FILM_LIKERS where " + filmCondition + " "
+                + "order by film_id", (RowCallbackHandler) rs -> {
+            long filmId = rs.getLong("film_id");
+            while (!logOnly.isEmpty() && logOnly.first() < filmId) {
+                long logged = logOnly.pollFirst();
+                accept(logged, new RoaringBitmap(), log.get(logged), consumer);
+            }
+            logOnly.remove(filmId);
+            accept(filmId, deserialize(rs.getBytes("likers")), log.getOrDefault(filmId, Collections.emptyList()),
+                    consumer);
+        }, args);
+        logOnly.forEach(filmId -> accept(filmId, new RoaringBitmap(), log.get(filmId), consumer));
+    }
+
+    private static void accept(long filmId, RoaringBitmap likers, List<int[]> log, IdPairConsumer consumer) {
+        log.forEach(entry -> apply(likers, entry[0], entry[1]));
+        likers.forEach((org.roaringbitmap.IntConsumer) userId -> consumer.accept(filmId, userId));
+    }
+
+    @Override
+    public void forEachLike(IdPairConsumer consumer) {
+        forEachLike(jdbcTemplate.queryForList("select film_id from PUBLIC.FILM_LIKERS "
+                + "union select film_id from PUBLIC.FILM_LIKE_LOG", Long.class), consumer);
+    }
+
+    @Override
+    public long count() {
+        // строка журнала есть только у пар, расходящихся с битмапом, поэтому ее DELTA и есть поправка к числу
+        Long count = jdbcTemplate.queryForObject("select (select coalesce(sum(likes_count), 0) "
+                + "from PUBLIC.FILM_LIKERS) + (select coalesce(sum(delta), 0) from PUBLIC.FILM_LIKE_LOG)", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public Map<Long, int[]> countBySlot(int slots) {
+        Map<Long, int[]> counts = new HashMap<>();
+        forEachLike((filmId, userId) -> counts.computeIfAbsent(filmId, id -> new int[slots])[(int) (userId % slots)]++);
+        return counts;
+    }
+
+    @Override
+    public void compact() {
+        for (Long filmId : jdbcTemplate.queryForList(
+                "select distinct film_id from PUBLIC.FILM_LIKE_LOG order by film_id", Long.class)) {
+            merge(filmId, null);
+        }
+    }
+
+    @Override
+    public void importLikes(LikeStore previous) {
+        long[] current = {-1};
+        RoaringBitmap[] likers = {new RoaringBitmap()};
+        previous.forEachLike((filmId, userId) -> {
+            if (filmId != current[0]) {
+                importFilm(current[0], likers[0]);
+                current[0] = filmId;
+                likers[0] = new RoaringBitmap();
+            }
+            likers[0].add(Math.toIntExact(userId));
+        });
+        importFilm(current[0], likers[0]);
+    }
+
+    @Override
+    public void clear() {
+        jdbcTemplate.execute("TRUNCATE TABLE PUBLIC.FILM_LIKE_LOG");
+        jdbcTemplate.execute("TRUNCATE TABLE PUBLIC.FILM_LIKERS");
+        storedLikers.invalidateAll();
+    }
+
+    private void importFilm(long filmId, RoaringBitmap likers) {
+        if (!likers.isEmpty()) {
+            merge(filmId, likers);
+        }
+    }
+
+    private boolean[] apply(List<Like> likes, int operation) {
+        boolean[] changed = new boolean[likes.size()];
+        // фильмы блокируются по возрастанию id, чтобы встречные пакеты не ждали друг друга по кругу
+        Map<Long, List<Integer>> positionsByFilm = new TreeMap<>();
+        for (int i = 0; i < likes.size(); i++) {
+            positionsByFilm.computeIfAbsent(likes.get(i).getFilmId(), id -> new ArrayList<>()).add(i);
+        }
+        positionsByFilm.forEach((filmId, positions) -> {
+            List<Long> userIds = new ArrayList<>(positions.size());
+            positions.forEach(i -> userIds.add(likes.get(i).getUserId()));
+            boolean[] filmChanged = apply(filmId, userIds, operation);
+            for (int i = 0; i < positions.size(); i++) {
+                changed[positions.get(i)] = filmChanged[i];
+            }
+        });
+        return changed;
+    }
+
+    private boolean[] apply(long filmId, List<Long> userIds, int operation) {
+        Map<Long, Integer> logged = new HashMap<>();
+        for (List<Long> chunk : InClause.chunks(new HashSet<>(userIds))) {
+            // блокируются только строки журнала этих пар: встречная запись той же пары и слияние ждут
+            String sql = "select user_id, delta from PUBLIC.FILM_LIKE_LOG where film_id = ? and user_id in ("
+                    + InClause.placeholders(chunk.size()) + ") for update";
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(filmId);
+            args.addAll(chunk);
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                    logged.put(rs.getLong("user_id"), rs.getInt("delta")), args.toArray());
+        }
+        // пары без строки журнала совпадают с битмапом; слияние меняет в нем только пары из журнала
+        ImmutableRoaringBitmap stored = stored(filmId);
+
+        Map<Long, Integer> log = new HashMap<>(logged);
+        boolean[] changed = new boolean[userIds.size()];
+        for (int i = 0; i < userIds.size(); i++) {
+            long userId = userIds.get(i);
+            Integer last = log.get(userId);
+            boolean liked = last != null ? last == LIKED : stored.contains(Math.toIntExact(userId));
+            if (liked == (operation == LIKED)) {
+                continue;
+            }
+            changed[i] = true;
+            if (last != null) {
+                // операция отменяет запись журнала: состояние снова совпадает с битмапом
+                log.remove(userId);
+            } else {
+                log.put(userId, operation);
+            }
+        }
+
+        List<Object[]> inserted = new ArrayList<>();
+        List<Object[]> deleted = new ArrayList<>();
+        for (Long userId : new HashSet<>(userIds)) {
+            Integer before = logged.get(userId);
+            Integer after = log.get(userId);
+            if (before == null && after != null) {
+                inserted.add(new Object[]{filmId, userId, after});
+            } else if (before != null && after == null) {
+                deleted.add(new Object[]{filmId, userId});
+            }
+        }
+        if (!deleted.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM PUBLIC.FILM_LIKE_LOG WHERE film_id = ? AND user_id = ?", deleted);
+        }
+        if (inserted.size() == 1 && userIds.size() == 1) {
+            try {
+                jdbcTemplate.update(INSERT_LOG, inserted.get(0));
+            } catch (DuplicateKeyException e) {
+                // ту же пару только что записал соседний запрос: его строка уже видна, решаем заново
+                return apply(filmId, userIds, operation);
+            }
+        } else if (!inserted.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_LOG, inserted);
+        }
+        return changed;
+    }
+
+    /**
+     * Битмап фильма без учета журнала: из кэша, если с его загрузки битмап не переписывали.
+     */
+    private ImmutableRoaringBitmap stored(long filmId) {
+        List<Long> versions = jdbcTemplate.queryForList(
+                "select version from PUBLIC.FILM_LIKERS where film_id = ?", Long.class, filmId);
+        if (versions.isEmpty()) {
+            return new MutableRoaringBitmap();
+        }
+        long version = versions.get(0);
+        StoredLikers cached = storedLikers.getIfPresent(filmId);
+        if (cached != null && cached.version == version) {
+            return cached.likers;
+        }
+        byte[] bytes = jdbcTemplate.queryForObject("select likers from PUBLIC.FILM_LIKERS where film_id = ?",
+                byte[].class, filmId);
+        ImmutableRoaringBitmap likers = new ImmutableRoaringBitmap(ByteBuffer.wrap(bytes));
+        storedLikers.put(filmId, new StoredLikers(version, likers));
+        return likers;
+    }
+
+    /**
+     * Сливает журнал фильма (и добавленных пользователей, если они есть) в битмап под блокировкой строки фильма.
+     * Удаляются только слитые строки журнала: их держит блокировка, а строки новых пар остаются до следующего раза.
+     */
+    private void merge(long filmId, RoaringBitmap added) {
+        RoaringBitmap likers = deserialize(lock(filmId));
+        List<Object[]> merged = new ArrayList<>();
+        jdbcTemplate.query("select user_id, delta from PUBLIC.FILM_LIKE_LOG where film_id = ? for update",
+                (RowCallbackHandler) rs -> {
+                    apply(likers, rs.getInt("user_id"), rs.getInt("delta"));
+                    merged.add(new Object[]{filmId, rs.getLong("user_id")});
+                }, filmId);
+        if (added != null) {
+            likers.or(added);
+        }
+        likers.runOptimize();
+        jdbcTemplate.update("UPDATE PUBLIC.FILM_LIKERS SET likers = ?, likes_count = ?, version = version + 1 "
+                + "WHERE film_id = ?", serialize(likers), likers.getCardinality(), filmId);
+        jdbcTemplate.batchUpdate("DELETE FROM PUBLIC.FILM_LIKE_LOG WHERE film_id = ? AND user_id = ?", merged);
+        storedLikers.invalidate(filmId);
+    }
+
+    /**
+     * Блокирует строку фильма до конца транзакции, при необходимости создавая ее с пустым битмапом,
+     * и возвращает битмап.
+     */
+    private byte[] lock(long filmId) {
+        String sql = "select likers from PUBLIC.FILM_LIKERS where film_id = ? for update";
+        List<byte[]> rows = jdbcTemplate.queryForList(sql, byte[].class, filmId);
+        if (!rows.isEmpty()) {
+            return rows.get(0);
+        }
+        try {
+            jdbcTemplate.update("INSERT INTO PUBLIC.FILM_LIKERS (FILM_ID, LIKERS) values (?, ?)",
+                    filmId, serialize(new RoaringBitmap()));
+        } catch (DuplicateKeyException e) {
+            // строку только что создало соседнее слияние
+        }
+        return jdbcTemplate.queryForObject(sql, byte[].class, filmId);
+    }
+
+    private static void apply(RoaringBitmap likers, int userId, int delta) {
+        if (delta == LIKED) {
+            likers.add(userId);
+        } else {
+            likers.remove(userId);
+        }
+    }
+
+    static byte[] serialize(RoaringBitmap bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        return buffer.array();
+    }
+
+    static RoaringBitmap deserialize(byte[] bytes) {
+        return new ImmutableRoaringBitmap(ByteBuffer.wrap(bytes)).toRoaringBitmap();
+    }
+
+    private static final class StoredLikers {
+        private final long version;
+        private final ImmutableRoaringBitmap likers;
+
+        private StoredLikers(long version, ImmutableRoaringBitmap likers) {
+            this.version = version;
+            this.likers = likers;
+        }
+    }
+}
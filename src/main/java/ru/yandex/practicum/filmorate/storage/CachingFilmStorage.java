@@ -0,0 +1,192 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Хранилище фильмов с кэшем чтения по id перед {@link FilmDbStorage}.
+ * Каждая запись сбрасывает из кэша затронутые фильмы после того, как хранилище ее выполнило; одиночный лайк
+ * вместо этого применяется к закэшированному фильму, чтобы ответ на него не перечитывал фильм из базы.
+ */
+@Slf4j
+@Component
+@Profile("!in-memory")
+@Qualifier("filmStorage")
+public class CachingFilmStorage implements FilmStorage {
+    private final FilmStorage delegate;
+    private final EntityCache<Film> cache;
+
+    public CachingFilmStorage(@Qualifier("filmDbStorage") FilmStorage delegate,
+                              @Value("${filmorate.cache.films.maximum-size}") long maximumSize,
+                              @Value("${filmorate.cache.expire-after-write}") Duration expireAfterWrite,
+                              @Value("${filmorate.cache.missing-expire-after-write}") Duration missingExpireAfterWrite) {
+        this.delegate = delegate;
+        this.cache = new EntityCache<>(maximumSize, expireAfterWrite, missingExpireAfterWrite, Film::getId, Film::copy);
+    }
+
+    @Override
+    public boolean indexExists(long id) {
+        return cache.contains(id).orElseGet(() -> delegate.indexExists(id));
+    }
+
+    @Override
+    public Optional<Film> getFilm(long id) {
+        return cache.get(id, delegate::getFilm);
+    }
+
+    @Override
+    public long put(Film film) {
+        long id = delegate.put(film);
+        cache.invalidate(id);
+        return id;
+    }
+
+    @Override
+    public List<Long> putAll(List<Film> films) {
+        List<Long> ids = delegate.putAll(films);
+        cache.invalidateAll(ids);
+        return ids;
+    }
+
+    @Override
+    public void updateFilm(Film film) {
+        try {
+            delegate.updateFilm(film);
+        } finally {
+            cache.invalidate(film.getId());
+        }
+    }
+
+    @Override
+    public Collection<Film> getAll() {
+        return delegate.getAll();
+    }
+
+    @Override
+    public void forEachFilm(Consumer<Film> consumer) {
+        delegate.forEachFilm(consumer);
+    }
+
+    @Override
+    public void forEachFilmMpa(IdPairConsumer consumer) {
+        delegate.forEachFilmMpa(consumer);
+    }
+
+    @Override
+    public void forEachFilmGenre(IdPairConsumer consumer) {
+        delegate.forEachFilmGenre(consumer);
+    }
+
+    @Override
+    public void forEachFilmReleaseDay(IdPairConsumer consumer) {
+        delegate.forEachFilmReleaseDay(consumer);
+    }
+
+    @Override
+    public void forEachFilmDuration(IdPairConsumer consumer) {
+        delegate.forEachFilmDuration(consumer);
+    }
+
+    @Override
+    public List<Film> getFilms(Collection<Long> ids) {
+        return cache.getAll(ids, delegate::getFilms);
+    }
+
+    @Override
+    public Set<Long> existingIds(Collection<Long> ids) {
+        return delegate.existingIds(ids);
+    }
+
+    @Override
+    public Page<Film> getPage(long afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public Collection<Film> getMostLiked(int count) {
+        return delegate.getMostLiked(count);
+    }
+
+    @Override
+    public FacetedPage<Long> filterFilms(FilmFilter filter, long afterId, int limit) {
+        return delegate.filterFilms(filter, afterId, limit);
+    }
+
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        return delegate.getLikeCounts();
+    }
+
+    @Override
+    public void forEachLike(IdPairConsumer consumer) {
+        delegate.forEachLike(consumer);
+    }
+
+    @Override
+    public boolean hasLike(long filmId, long userId) {
+        return delegate.hasLike(filmId, userId);
+    }
+
+    @Override
+    public boolean addLike(long filmId, long userId) {
+        return cache.write(filmId, () -> delegate.addLike(filmId, userId), (film, added) -> film.addLike(userId));
+    }
+
+    @Override
+    public boolean removeLike(long filmId, long userId) {
+        return cache.write(filmId, () -> delegate.removeLike(filmId, userId),
+                (film, removed) -> film.removeLike(userId));
+    }
+
+    @Override
+    public List<Like> addLikes(Collection<Like> likes) {
+        try {
+            return delegate.addLikes(likes);
+        } finally {
+            cache.invalidateAll(filmIds(likes));
+        }
+    }
+
+    @Override
+    public List<Like> removeLikes(Collection<Like> likes) {
+        try {
+            return delegate.removeLikes(likes);
+        } finally {
+            cache.invalidateAll(filmIds(likes));
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public CacheStats getMissingStats() {
+        return cache.missingStats();
+    }
+
+    @PreDestroy
+    public void logStats() {
+        log.info("Кэш фильмов: {}, отсутствующие id: {}", cache.stats(), cache.missingStats());
+    }
+
+    private static Set<Long> filmIds(Collection<Like> likes) {
+        return likes.stream()
+                .map(Like::getFilmId)
+                .collect(Collectors.toSet());
+    }
+}
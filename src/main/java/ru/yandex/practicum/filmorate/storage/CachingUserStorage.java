@@ -0,0 +1,171 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.model.User;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Хранилище пользователей с кэшем чтения по id перед {@link UserDbStorage}.
+ * Каждая запись сбрасывает из кэша затронутого пользователя после того, как хранилище ее выполнило.
+ */
+@Slf4j
+@Component
+@Profile("!in-memory")
+@Qualifier("userStorage")
+public class CachingUserStorage implements UserStorage {
+    private final UserStorage delegate;
+    private final EntityCache<User> cache;
+
+    public CachingUserStorage(@Qualifier("userDbStorage") UserStorage delegate,
+                              @Value("${filmorate.cache.users.maximum-size}") long maximumSize,
+                              @Value("${filmorate.cache.expire-after-write}") Duration expireAfterWrite,
+                              @Value("${filmorate.cache.missing-expire-after-write}") Duration missingExpireAfterWrite) {
+        this.delegate = delegate;
+        this.cache = new EntityCache<>(maximumSize, expireAfterWrite, missingExpireAfterWrite, User::getId, User::copy);
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        return delegate.getUsers();
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        delegate.forEachUser(consumer);
+    }
+
+    @Override
+    public Page<User> getPage(long afterId, int limit) {
+        return delegate.getPage(afterId, limit);
+    }
+
+    @Override
+    public boolean indexExists(long id) {
+        return cache.contains(id).orElseGet(() -> delegate.indexExists(id));
+    }
+
+    @Override
+    public Optional<User> getUser(long id) {
+        return cache.get(id, delegate::getUser);
+    }
+
+    @Override
+    public List<User> getUsers(Collection<Long> ids) {
+        return cache.getAll(ids, delegate::getUsers);
+    }
+
+    @Override
+    public long put(User user) {
+        try {
+            return delegate.put(user);
+        } finally {
+            // id нового пользователя заранее неизвестен
+            cache.invalidateMissing();
+        }
+    }
+
+    @Override
+    public List<Long> putAll(List<User> users) {
+        try {
+            return delegate.putAll(users);
+        } finally {
+            cache.invalidateMissing();
+        }
+    }
+
+    @Override
+    public Set<Long> existingIds(Collection<Long> ids) {
+        return delegate.existingIds(ids);
+    }
+
+    @Override
+    public Set<String> findTakenLogins(Collection<String> logins) {
+        return delegate.findTakenLogins(logins);
+    }
+
+    @Override
+    public Set<String> findTakenEmails(Collection<String> emails) {
+        return delegate.findTakenEmails(emails);
+    }
+
+    @Override
+    public void update(User user) {
+        try {
+            delegate.update(user);
+        } finally {
+            cache.invalidate(user.getId());
+        }
+    }
+
+    @Override
+    public void addFriend(long userId, long friendId) {
+        try {
+            delegate.addFriend(userId, friendId);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public void removeFriend(long userId, long friendId) {
+        try {
+            delegate.removeFriend(userId, friendId);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public List<Friendship> addFriends(Collection<Friendship> friendships) {
+        try {
+            return delegate.addFriends(friendships);
+        } finally {
+            cache.invalidateAll(friendships.stream()
+                    .map(Friendship::getUserId)
+                    .collect(Collectors.toSet()));
+        }
+    }
+
+    @Override
+    public void forEachFriendship(IdPairConsumer consumer) {
+        delegate.forEachFriendship(consumer);
+    }
+
+    @Override
+    public List<User> getFriends(long userId) {
+        return delegate.getFriends(userId);
+    }
+
+    @Override
+    public List<User> getCommonFriends(Collection<Long> userIds) {
+        return delegate.getCommonFriends(userIds);
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public CacheStats getMissingStats() {
+        return cache.missingStats();
+    }
+
+    @PreDestroy
+    public void logStats() {
+        log.info("Кэш пользователей: {}, отсутствующие id: {}", cache.stats(), cache.missingStats());
+    }
+}
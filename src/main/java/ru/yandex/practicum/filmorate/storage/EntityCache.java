@@ -0,0 +1,244 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Кэш сущностей по id поверх хранилища: ограничен по размеру (W-TinyLFU из Caffeine) и по времени жизни,
+ * отдельно помнит id, которых нет в хранилище. Наружу отдаются только копии.
+ * <p>
+ * Загруженное значение попадает в кэш, только если с начала загрузки этот id не инвалидировали: иначе чтение,
+ * начатое до записи, могло бы вернуть в кэш устаревшие данные. Версии ведутся по id и живут, пока id
+ * кто-то загружает или пишет, поэтому запись одного объекта не мешает кэшировать остальные.
+ */
+final class EntityCache<T> {
+    private final Cache<Long, T> entries;
+    private final Cache<Long, Boolean> missing;
+    private final ToLongFunction<T> idOf;
+    private final UnaryOperator<T> copier;
+    // версии id, которые сейчас загружаются; проверка версии и запись в кэш идут под блокировкой ключа
+    private final ConcurrentMap<Long, Stamp> stamps = new ConcurrentHashMap<>();
+    // растет при забывании всех отсутствующих id: загрузка, начатая раньше, не запоминает отсутствие
+    private final AtomicLong missingEpoch = new AtomicLong();
+
+    EntityCache(long maximumSize, Duration expireAfterWrite, Duration missingExpireAfterWrite,
+                ToLongFunction<T> idOf, UnaryOperator<T> copier) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.missing = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(missingExpireAfterWrite)
+                .recordStats()
+                .build();
+        this.idOf = idOf;
+        this.copier = copier;
+    }
+
+    Optional<T> get(long id, LongFunction<Optional<T>> loader) {
+        T cached = entries.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(copier.apply(cached));
+        }
+        if (missing.getIfPresent(id) != null) {
+            return Optional.empty();
+        }
+        long epoch = missingEpoch.get();
+        long version = startLoad(id);
+        Optional<T> loaded;
+        try {
+            loaded = loader.apply(id);
+        } catch (RuntimeException e) {
+            finishLoad(id, version, null, epoch, false);
+            throw e;
+        }
+        finishLoad(id, version, loaded.orElse(null), epoch, true);
+        return loaded;
+    }
+
+    /**
+     * Есть ли объект, если это известно по кэшу; пустой результат — кэш не знает.
+     */
+    Optional<Boolean> contains(long id) {
+        if (entries.getIfPresent(id) != null) {
+            return Optional.of(true);
+        }
+        if (missing.getIfPresent(id) != null) {
+            return Optional.of(false);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Объекты в порядке переданных id; отсутствующие в хранилище id пропускаются.
+     */
+    List<T> getAll(Collection<Long> ids, Function<Collection<Long>, List<T>> loader) {
+        Map<Long, T> found = new HashMap<>();
+        Set<Long> toLoad = new LinkedHashSet<>();
+        for (Long id : ids) {
+            T cached = entries.getIfPresent(id);
+            if (cached != null) {
+                found.put(id, copier.apply(cached));
+            } else if (missing.getIfPresent(id) == null) {
+                toLoad.add(id);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            long epoch = missingEpoch.get();
+            Map<Long, Long> versions = new HashMap<>();
+            toLoad.forEach(id -> versions.put(id, startLoad(id)));
+            List<T> loaded;
+            try {
+                loaded = loader.apply(toLoad);
+            } catch (RuntimeException e) {
+                versions.forEach((id, version) -> finishLoad(id, version, null, epoch, false));
+                throw e;
+            }
+            for (T item : loaded) {
+                long id = idOf.applyAsLong(item);
+                found.put(id, item);
+                toLoad.remove(id);
+                finishLoad(id, versions.get(id), item, epoch, true);
+            }
+            toLoad.forEach(id -> finishLoad(id, versions.get(id), null, epoch, true));
+        }
+        List<T> result = new ArrayList<>(found.size());
+        for (Long id : ids) {
+            T item = found.get(id);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Выполняет запись в хранилище и применяет ее к закэшированному объекту, а не сбрасывает его.
+     * Изменение должно быть идемпотентным: объект мог загрузиться уже после записи. Упавшая запись
+     * откатывается хранилищем и кэш не трогает. Если объект одновременно писал кто-то еще, объект
+     * сбрасывается: изменения могли лечь в кэш не в том порядке, что в хранилище.
+     */
+    <R> R write(long id, Supplier<R> writer, BiConsumer<T, R> change) {
+        stamps.compute(id, (key, stamp) -> {
+            Stamp current = stamp == null ? new Stamp() : stamp;
+            current.writes++;
+            return current;
+        });
+        R result;
+        try {
+            result = writer.get();
+        } catch (RuntimeException e) {
+            finishWrite(id, null, false);
+            throw e;
+        }
+        finishWrite(id, item -> change.accept(item, result), true);
+        return result;
+    }
+
+    /**
+     * Вызывается после записи в хранилище.
+     */
+    void invalidate(long id) {
+        stamps.compute(id, (key, stamp) -> {
+            invalidateEntry(key, stamp);
+            return stamp;
+        });
+    }
+
+    void invalidateAll(Collection<Long> ids) {
+        ids.forEach(this::invalidate);
+    }
+
+    /**
+     * Забывает все отсутствующие id, например после добавления объекта с заранее неизвестным id.
+     */
+    void invalidateMissing() {
+        missingEpoch.incrementAndGet();
+        missing.invalidateAll();
+    }
+
+    CacheStats stats() {
+        return entries.stats();
+    }
+
+    CacheStats missingStats() {
+        return missing.stats();
+    }
+
+    private void invalidateEntry(long id, Stamp stamp) {
+        entries.invalidate(id);
+        missing.invalidate(id);
+        if (stamp != null) {
+            stamp.version++;
+        }
+    }
+
+    private long startLoad(long id) {
+        return stamps.compute(id, (key, stamp) -> {
+            Stamp current = stamp == null ? new Stamp() : stamp;
+            current.loads++;
+            return current;
+        }).version;
+    }
+
+    /**
+     * Кладет результат загрузки в кэш, если id не инвалидировали с ее начала; item == null — объекта нет.
+     */
+    private void finishLoad(long id, long version, T item, long epoch, boolean loaded) {
+        stamps.computeIfPresent(id, (key, stamp) -> {
+            if (loaded && stamp.version == version) {
+                if (item != null) {
+                    entries.put(key, copier.apply(item));
+                } else if (missingEpoch.get() == epoch) {
+                    missing.put(key, Boolean.TRUE);
+                    // invalidateMissing мог пройти между проверкой и записью
+                    if (missingEpoch.get() != epoch) {
+                        missing.invalidate(key);
+                    }
+                }
+            }
+            return --stamp.loads == 0 && stamp.writes == 0 ? null : stamp;
+        });
+    }
+
+    private void finishWrite(long id, Consumer<T> change, boolean written) {
+        stamps.computeIfPresent(id, (key, stamp) -> {
+            if (stamp.writes > 1) {
+                invalidateEntry(key, stamp);
+            } else if (written) {
+                // загрузки, начатые до конца записи, могли прочитать старое состояние
+                stamp.version++;
+                T cached = entries.getIfPresent(key);
+                if (cached != null) {
+                    T updated = copier.apply(cached);
+                    change.accept(updated);
+                    entries.put(key, updated);
+                }
+                missing.invalidate(key);
+            }
+            return --stamp.writes == 0 && stamp.loads == 0 ? null : stamp;
+        });
+    }
+
+    private static final class Stamp {
+        private long version;
+        private int loads;
+        private int writes;
+    }
+}
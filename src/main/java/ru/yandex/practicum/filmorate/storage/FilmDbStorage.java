@@ -1,37 +1,69 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
 
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
+@Slf4j
 @Component
+@Profile("!in-memory")
 @Qualifier("filmDbStorage")
 public class FilmDbStorage implements FilmStorage {
+    static final int LIKE_COUNTER_SLOTS = 8;
+    static final String ROWS_FORMAT = "rows";
+    static final String BITMAP_FORMAT = "bitmap";
 
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert jdbcFilmInsert;
     private final MpaStorage mpaStorage;
     private final GenreStorage genreStorage;
-
+    private final int fetchSize;
+    private final String likesFormat;
+    private final LikeStore likeStore;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
     public FilmDbStorage(JdbcTemplate jdbcTemplate,
-                         @Qualifier("mpaDbStorage") MpaStorage mpaStorage,
-                         @Qualifier("genreDbStorage") GenreStorage genreStorage) {
+                         TransactionTemplate transactionTemplate,
+                         @Qualifier("mpaStorage") MpaStorage mpaStorage,
+                         @Qualifier("genreStorage") GenreStorage genreStorage,
+                         @Value("${filmorate.streaming.fetch-size}") int fetchSize,
+                         @Value("${filmorate.likes.storage-format}") String likesFormat) {
         this.mpaStorage = mpaStorage;
         this.genreStorage = genreStorage;
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.fetchSize = fetchSize;
+        this.likesFormat = likesFormat;
+        this.likeStore = likeStore(likesFormat);
         this.jdbcFilmInsert = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("PUBLIC.FILMS")
                 .usingColumns("FILM_NAME", "DESCRIPTION", "RELEASE_DATE", "DURATION", "MPA_ID")
@@ -49,20 +81,12 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public Optional<Film> getFilm(long id) {
-        if (!indexExists(id)) {
-            return Optional.empty();
-        }
-        String sql = "select * from PUBLIC.FILMS where film_id = ?";
-        try {
-            Film film = jdbcTemplate.queryForObject(sql, new FilmRowMapper(), id);
-            return Optional.ofNullable(film);
-        } catch (Exception e) {
-            throw new FilmNotFoundException();
-        }
+        return loadFilms(List.of(id)).stream().findFirst();
     }
 
 
     @Override
+    @Transactional
     public long put(Film film) {
 
         long filmIndex = jdbcFilmInsert.executeAndReturnKey(Map.of(
@@ -74,14 +98,9 @@ public class FilmDbStorage implements FilmStorage {
         )).longValue();
 
         if (film.getLikesCount() > 0) {
-            String sql = "INSERT INTO PUBLIC.LIKES (FILM_ID, USER_ID) values (?, ?)";
-            List<Object[]> batchArgs = new ArrayList<>();
-            for (Long id : film.getLikes()) {
-                Object[] args = {filmIndex, id};
-                batchArgs.add(args);
-            }
-            jdbcTemplate.batchUpdate(sql, batchArgs);
+            likeStore.putAll(Map.of(filmIndex, film.getLikes()));
         }
+        createLikeCounters(filmIndex, film.getLikes());
 
         if (film.getGenres() != null && film.getGenres().size() > 0) {
             String sql = "INSERT INTO PUBLIC.FILMS_GENRES (FILM_ID, GENRE_ID) values (?, ?)";
@@ -96,13 +115,60 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     @Override
-    public void updateFilm(Film film) {
-        if (!indexExists(film.getId())) {
-            throw new FilmNotFoundException();
+    @Transactional
+    public List<Long> putAll(List<Film> films) {
+        if (films.isEmpty()) {
+            return Collections.emptyList();
         }
+        String sql = "INSERT INTO PUBLIC.FILMS (FILM_NAME, DESCRIPTION, RELEASE_DATE, DURATION, MPA_ID) "
+                + "values (?, ?, ?, ?, ?)";
+        List<Long> ids = jdbcTemplate.execute((ConnectionCallback<List<Long>>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(sql, new String[]{"FILM_ID"})) {
+                for (Film film : films) {
+                    ps.setString(1, film.getName());
+                    ps.setString(2, film.getDescription());
+                    ps.setObject(3, film.getReleaseDate());
+                    ps.setInt(4, film.getDuration());
+                    ps.setInt(5, film.getMpa().getId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return generatedKeys(ps);
+            }
+        });
+        if (ids == null || ids.size() != films.size()) {
+            throw new IllegalStateException("База вернула не все id добавленных фильмов");
+        }
+
+        Map<Long, Collection<Long>> likes = new LinkedHashMap<>();
+        List<Object[]> counters = new ArrayList<>();
+        List<Object[]> genres = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            long filmId = ids.get(i);
+            // ячейки счетчика фильма без лайков создаются при первом лайке: при загрузке каталога
+            // это в разы сокращает число вставляемых строк
+            if (!film.getLikes().isEmpty()) {
+                likes.put(filmId, film.getLikes());
+                addLikeCounterRows(counters, filmId, film.getLikes());
+            }
+            if (film.getGenres() != null) {
+                film.getGenres().forEach(genre -> genres.add(new Object[]{filmId, genre.getId()}));
+            }
+        }
+        likeStore.putAll(likes);
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO PUBLIC.FILM_LIKE_COUNTERS (FILM_ID, SLOT, LIKES_COUNT) values (?, ?, ?)", counters);
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.FILMS_GENRES (FILM_ID, GENRE_ID) values (?, ?)", genres);
+        return ids;
+    }
+
+    @Override
+    @Transactional
+    public void updateFilm(Film film) {
         String sql = "UPDATE PUBLIC.FILMS SET "
                 + "film_name = ?, description = ?, release_date = ?, duration = ?, mpa_id = ? WHERE film_id = ?";
-        jdbcTemplate.update(sql,
+        int updated = jdbcTemplate.update(sql,
                 film.getName(),
                 film.getDescription(),
                 film.getReleaseDate(),
@@ -110,6 +176,9 @@ public class FilmDbStorage implements FilmStorage {
                 film.getMpa().getId(),
                 film.getId()
         );
+        if (updated == 0) {
+            throw new FilmNotFoundException();
+        }
         sql = "DELETE FROM PUBLIC.FILMS_GENRES where film_id = ?";
         jdbcTemplate.update(sql, film.getId());
         if (film.getGenres() != null && film.getGenres().size() > 0) {
@@ -125,20 +194,482 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public Collection<Film> getAll() {
-        String sql = "select * from films";
-        return jdbcTemplate.query(sql, new FilmRowMapper());
+        String sql = "select * from PUBLIC.FILMS order by film_id";
+        List<Film> films = jdbcTemplate.query(sql, new FilmRowMapper());
+        if (films.isEmpty()) {
+            return films;
+        }
+        Map<Long, Film> filmsById = indexById(films);
+        likeStore.forEachLike(likeAttacher(filmsById));
+        attachGenres(filmsById, "select film_id, genre_id from PUBLIC.FILMS_GENRES order by film_id, genre_id");
+        return films;
+    }
+
+    /**
+     * Обходит каталог страницами по fetch-size фильмов по возрастанию id. Лайки и жанры страницы читаются
+     * после того, как запрос самой страницы закрыт, поэтому выгрузка занимает одно соединение за раз
+     * и держит в памяти одну страницу.
+     */
+    @Override
+    public void forEachFilm(Consumer<Film> consumer) {
+        Long afterId = 0L;
+        while (afterId != null) {
+            Page<Film> page = getPage(afterId, fetchSize);
+            page.getItems().forEach(consumer);
+            afterId = page.getNextCursor();
+        }
+    }
+
+    @Override
+    public void forEachFilmMpa(IdPairConsumer consumer) {
+        forEachIdPair("select film_id, mpa_id from PUBLIC.FILMS", consumer);
+    }
+
+    @Override
+    public void forEachFilmGenre(IdPairConsumer consumer) {
+        forEachIdPair("select film_id, genre_id from PUBLIC.FILMS_GENRES", consumer);
+    }
+
+    @Override
+    public void forEachFilmReleaseDay(IdPairConsumer consumer) {
+        forEachIdPair("select film_id, DATEDIFF(DAY, DATE '1970-01-01', release_date) from PUBLIC.FILMS "
+                + "where release_date is not null", consumer);
+    }
+
+    @Override
+    public void forEachFilmDuration(IdPairConsumer consumer) {
+        forEachIdPair("select film_id, coalesce(duration, 0) from PUBLIC.FILMS", consumer);
+    }
+
+    private void forEachIdPair(String sql, IdPairConsumer consumer) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getLong(1), rs.getLong(2)));
+    }
+
+    @Override
+    public List<Film> getFilms(Collection<Long> ids) {
+        List<Long> orderedIds = new ArrayList<>(ids);
+        return inOrderOf(orderedIds, loadFilms(new LinkedHashSet<>(orderedIds)));
+    }
+
+    @Override
+    public Set<Long> existingIds(Collection<Long> ids) {
+        Set<Long> existing = new HashSet<>();
+        for (List<Long> chunk : InClause.chunks(ids)) {
+            String sql = "select film_id from PUBLIC.FILMS where film_id in (" + InClause.placeholders(chunk.size()) + ")";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> existing.add(rs.getLong("film_id")), chunk.toArray());
+        }
+        return existing;
+    }
+
+    @Override
+    public Page<Film> getPage(long afterId, int limit) {
+        String sql = "select * from PUBLIC.FILMS where film_id > ? order by film_id limit ?";
+        List<Film> films = jdbcTemplate.query(sql, new FilmRowMapper(), afterId, limit + 1);
+        Long nextCursor = null;
+        if (films.size() > limit) {
+            films = new ArrayList<>(films.subList(0, limit));
+            nextCursor = films.get(limit - 1).getId();
+        }
+        hydratePage(films, afterId);
+        return new Page<>(films, nextCursor);
+    }
+
+    @Override
+    public Collection<Film> getMostLiked(int count) {
+        String sql = "select f.film_id from PUBLIC.FILMS f "
+                + "left join PUBLIC.FILM_LIKE_COUNTERS c on f.film_id = c.film_id "
+                + "group by f.film_id "
+                + "order by coalesce(sum(c.likes_count), 0) desc, f.film_id "
+                + "limit ?";
+        List<Long> ids = jdbcTemplate.queryForList(sql, Long.class, count);
+        return inOrderOf(ids, loadFilms(ids));
+    }
+
+    /**
+     * Границы даты выхода и продолжительности проверяются по индексам FILMS_RELEASE_DATE_IDX
+     * и FILMS_DURATION_IDX. Страница, общее число и счетчики жанров и рейтингов — четыре запроса.
+     */
+    @Override
+    public FacetedPage<Long> filterFilms(FilmFilter filter, long afterId, int limit) {
+        List<Object> args = new ArrayList<>();
+        String where = filterConditions(filter, args);
+        // счетчики рейтингов считаются без условия на рейтинг, как в FilmFacetIndex
+        List<Object> anyMpaArgs = new ArrayList<>();
+        String anyMpa = filterConditions(filter.withoutMpa(), anyMpaArgs);
+
+        List<Object> pageArgs = new ArrayList<>(args);
+        pageArgs.add(afterId);
+        pageArgs.add(limit + 1);
+        List<Long> ids = jdbcTemplate.queryForList("select f.film_id from PUBLIC.FILMS f where " + where
+                + " and f.film_id > ? order by f.film_id limit ?", Long.class, pageArgs.toArray());
+        Long nextCursor = null;
+        if (ids.size() > limit) {
+            ids = ids.subList(0, limit);
+            nextCursor = ids.get(limit - 1);
+        }
+        Long total = jdbcTemplate.queryForObject("select count(*) from PUBLIC.FILMS f where " + where,
+                Long.class, args.toArray());
+        Map<Integer, Integer> genres = countFilms("select g.genre_id, count(*) from PUBLIC.FILMS_GENRES g "
+                + "join PUBLIC.FILMS f on f.film_id = g.film_id where " + where + " group by g.genre_id", args);
+        Map<Integer, Integer> mpa = countFilms("select f.mpa_id, count(*) from PUBLIC.FILMS f where " + anyMpa
+                + " group by f.mpa_id", anyMpaArgs);
+        return new FacetedPage<>(ids, nextCursor, total == null ? 0 : total, genres, mpa);
+    }
+
+    private static String filterConditions(FilmFilter filter, List<Object> args) {
+        List<String> conditions = new ArrayList<>();
+        conditions.add("true");
+        if (filter.getReleasedFrom() != null) {
+            conditions.add("f.release_date >= ?");
+            args.add(filter.getReleasedFrom());
+        }
+        if (filter.getReleasedTo() != null) {
+            conditions.add("f.release_date <= ?");
+            args.add(filter.getReleasedTo());
+        }
+        if (filter.getMinDuration() != null) {
+            conditions.add("f.duration >= ?");
+            args.add(filter.getMinDuration());
+        }
+        if (filter.getMaxDuration() != null) {
+            conditions.add("f.duration <= ?");
+            args.add(filter.getMaxDuration());
+        }
+        if (!filter.getMpa().isEmpty()) {
+            conditions.add("f.mpa_id in (" + InClause.placeholders(filter.getMpa().size()) + ")");
+            args.addAll(filter.getMpa());
+        }
+        for (Integer genreId : filter.getGenre()) {
+            conditions.add("exists (select 1 from PUBLIC.FILMS_GENRES fg where fg.film_id = f.film_id "
+                    + "and fg.genre_id = ?)");
+            args.add(genreId);
+        }
+        return String.join(" and ", conditions);
+    }
+
+    private Map<Integer, Integer> countFilms(String sql, List<Object> args) {
+        Map<Integer, Integer> counts = new TreeMap<>();
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> counts.put(rs.getInt(1), rs.getInt(2)), args.toArray());
+        return counts;
+    }
+
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        String sql = "select f.film_id, coalesce(sum(c.likes_count), 0) likes_count from PUBLIC.FILMS f "
+                + "left join PUBLIC.FILM_LIKE_COUNTERS c on f.film_id = c.film_id "
+                + "group by f.film_id";
+        Map<Long, Integer> counts = new HashMap<>();
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                counts.put(rs.getLong("film_id"), rs.getInt("likes_count")));
+        return counts;
+    }
+
+    @Override
+    public void forEachLike(IdPairConsumer consumer) {
+        likeStore.forEachLike(consumer);
+    }
+
+    @Override
+    public boolean hasLike(long filmId, long userId) {
+        return likeStore.contains(filmId, userId);
+    }
+
+    /**
+     * Фильм и пользователь заранее не проверяются: их отсутствие видно по внешним ключам при вставке.
+     */
+    @Override
+    @Transactional
+    public boolean addLike(long filmId, long userId) {
+        boolean added;
+        try {
+            added = likeStore.add(filmId, userId);
+        } catch (DataIntegrityViolationException e) {
+            requireLikeTarget(filmId, userId);
+            throw e;
+        }
+        if (!added) {
+            return false;
+        }
+        adjustLikeCounter(filmId, userId, 1);
+        return true;
     }
 
     @Override
-    public void addLike(long filmId, long userId) {
-        String sql = "INSERT INTO PUBLIC.LIKES(film_id, user_id) values (?, ?)";
-        jdbcTemplate.update(sql, filmId, userId);
+    @Transactional
+    public boolean removeLike(long filmId, long userId) {
+        if (!likeStore.remove(filmId, userId)) {
+            // удалять было нечего: возможно, нет самого фильма или пользователя
+            requireLikeTarget(filmId, userId);
+            return false;
+        }
+        adjustLikeCounter(filmId, userId, -1);
+        return true;
     }
 
     @Override
-    public void removeLike(long filmId, long userId) {
-        String sql = "DELETE FROM PUBLIC.LIKES where film_id = ? and user_id = ?";
-        jdbcTemplate.update(sql, filmId, userId);
+    @Transactional
+    public List<Like> addLikes(Collection<Like> likes) {
+        if (likes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Like> batch = new ArrayList<>(likes);
+        return adjustLikeCounters(changed(batch, likeStore.addAll(batch)), 1);
+    }
+
+    @Override
+    @Transactional
+    public List<Like> removeLikes(Collection<Like> likes) {
+        if (likes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Like> batch = new ArrayList<>(likes);
+        return adjustLikeCounters(changed(batch, likeStore.removeAll(batch)), -1);
+    }
+
+    public int getLikesCount(long filmId) {
+        String sql = "select coalesce(sum(likes_count), 0) from PUBLIC.FILM_LIKE_COUNTERS where film_id = ?";
+        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, filmId);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Пересчитывает счетчики лайков по самим лайкам. Нужен после изменений лайков в обход хранилища
+     * и при переходе со старой схемы без счетчиков; каскадное удаление пользователей учитывает
+     * {@link LikeCounterTrigger}.
+     */
+    @Transactional
+    public void recountLikes() {
+        jdbcTemplate.update("DELETE FROM PUBLIC.FILM_LIKE_COUNTERS");
+        List<Object[]> batchArgs = new ArrayList<>();
+        likeStore.countBySlot(LIKE_COUNTER_SLOTS).forEach((filmId, counts) -> {
+            for (int slot = 0; slot < LIKE_COUNTER_SLOTS; slot++) {
+                batchArgs.add(new Object[]{filmId, slot, counts[slot]});
+            }
+        });
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO PUBLIC.FILM_LIKE_COUNTERS (FILM_ID, SLOT, LIKES_COUNT) values (?, ?, ?)", batchArgs);
+    }
+
+    /**
+     * Сливает накопившийся журнал лайков в битмапы; для формата rows ничего не делает.
+     */
+    @Transactional
+    public void compactLikes() {
+        likeStore.compact();
+    }
+
+    /**
+     * Вызывается в обход транзакционного прокси, поэтому каждый шаг идет в своей явной транзакции:
+     * прерванный запуск не оставляет, например, удаленные, но не пересчитанные счетчики.
+     */
+    @PostConstruct
+    void prepareLikes() {
+        transactionTemplate.executeWithoutResult(status ->
+                migrateLikes(likeStore(likesFormat.equals(ROWS_FORMAT) ? BITMAP_FORMAT : ROWS_FORMAT)));
+        transactionTemplate.executeWithoutResult(status -> likeStore.compact());
+        transactionTemplate.executeWithoutResult(status -> ensureLikeCounters());
+    }
+
+    /**
+     * Переносит лайки, оставшиеся в таблицах другого формата после смены filmorate.likes.storage-format.
+     * Перенос идемпотентен, поэтому прерванный запуск просто повторяет его.
+     */
+    private void migrateLikes(LikeStore previous) {
+        long likes = previous.count();
+        if (likes == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        likeStore.importLikes(previous);
+        previous.clear();
+        log.info("Лайки перенесены в формат {}: {} шт. за {} мс", likesFormat, likes,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void ensureLikeCounters() {
+        long likes = likeStore.count();
+        Long counted = jdbcTemplate.queryForObject(
+                "select coalesce(sum(likes_count), 0) from PUBLIC.FILM_LIKE_COUNTERS", Long.class);
+        if (counted == null || likes != counted) {
+            recountLikes();
+        }
+    }
+
+    private LikeStore likeStore(String format) {
+        switch (format) {
+            case ROWS_FORMAT:
+                return new RowLikeStore(jdbcTemplate);
+            case BITMAP_FORMAT:
+                return new BitmapLikeStore(jdbcTemplate);
+            default:
+                throw new IllegalArgumentException("Неизвестный формат хранения лайков: " + format);
+        }
+    }
+
+    private void createLikeCounters(long filmId, Collection<Long> likes) {
+        List<Object[]> batchArgs = new ArrayList<>();
+        addLikeCounterRows(batchArgs, filmId, likes);
+        String sql = "INSERT INTO PUBLIC.FILM_LIKE_COUNTERS (FILM_ID, SLOT, LIKES_COUNT) values (?, ?, ?)";
+        jdbcTemplate.batchUpdate(sql, batchArgs);
+    }
+
+    private static void addLikeCounterRows(List<Object[]> batchArgs, long filmId, Collection<Long> likes) {
+        int[] counts = new int[LIKE_COUNTER_SLOTS];
+        likes.forEach(userId -> counts[slotOf(userId)]++);
+        for (int slot = 0; slot < LIKE_COUNTER_SLOTS; slot++) {
+            batchArgs.add(new Object[]{filmId, slot, counts[slot]});
+        }
+    }
+
+    private void requireLikeTarget(long filmId, long userId) {
+        String sql = "select (select count(*) from PUBLIC.FILMS where film_id = ?), "
+                + "(select count(*) from PUBLIC.USERS where user_id = ?)";
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            if (rs.getInt(1) == 0) {
+                throw new FilmNotFoundException();
+            }
+            if (rs.getInt(2) == 0) {
+                throw new UserNotFoundException();
+            }
+        }, filmId, userId);
+    }
+
+    private void adjustLikeCounter(long filmId, long userId, int delta) {
+        String sql = "UPDATE PUBLIC.FILM_LIKE_COUNTERS SET likes_count = likes_count + ? "
+                + "WHERE film_id = ? AND slot = ?";
+        if (jdbcTemplate.update(sql, delta, filmId, slotOf(userId)) == 0) {
+            insertLikeCounterCell(filmId, slotOf(userId), delta);
+        }
+    }
+
+    /**
+     * Создает недостающую ячейку счетчика: фильмы из пакетной загрузки и старой схемы получают ячейки
+     * только при первом лайке. Если ячейку одновременно создал другой запрос, прибавляет к ней.
+     */
+    private void insertLikeCounterCell(long filmId, long slot, int delta) {
+        try {
+            jdbcTemplate.update("INSERT INTO PUBLIC.FILM_LIKE_COUNTERS (FILM_ID, SLOT, LIKES_COUNT) "
+                    + "values (?, ?, ?)", filmId, slot, delta);
+        } catch (DuplicateKeyException e) {
+            jdbcTemplate.update("UPDATE PUBLIC.FILM_LIKE_COUNTERS SET likes_count = likes_count + ? "
+                    + "WHERE film_id = ? AND slot = ?", delta, filmId, slot);
+        }
+    }
+
+    private List<Like> adjustLikeCounters(List<Like> likes, int delta) {
+        Map<List<Long>, Integer> deltas = new LinkedHashMap<>();
+        likes.forEach(like -> deltas.merge(List.of(like.getFilmId(), (long) slotOf(like.getUserId())), delta, Integer::sum));
+        List<Object[]> batchArgs = new ArrayList<>();
+        deltas.forEach((cell, cellDelta) -> batchArgs.add(new Object[]{cellDelta, cell.get(0), cell.get(1)}));
+        String sql = "UPDATE PUBLIC.FILM_LIKE_COUNTERS SET likes_count = likes_count + ? "
+                + "WHERE film_id = ? AND slot = ?";
+        int[] updated = jdbcTemplate.batchUpdate(sql, batchArgs);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                Object[] args = batchArgs.get(i);
+                insertLikeCounterCell((Long) args[1], (Long) args[2], (Integer) args[0]);
+            }
+        }
+        return likes;
+    }
+
+    static List<Long> generatedKeys(PreparedStatement ps) throws SQLException {
+        List<Long> keys = new ArrayList<>();
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            while (rs.next()) {
+                keys.add(rs.getLong(1));
+            }
+        }
+        return keys;
+    }
+
+    private static List<Like> changed(List<Like> likes, boolean[] changedFlags) {
+        List<Like> changed = new ArrayList<>();
+        for (int i = 0; i < changedFlags.length; i++) {
+            if (changedFlags[i]) {
+                changed.add(likes.get(i));
+            }
+        }
+        return changed;
+    }
+
+    private static int slotOf(long userId) {
+        return (int) (userId % LIKE_COUNTER_SLOTS);
+    }
+
+    private List<Film> loadFilms(Collection<Long> ids) {
+        List<Film> films = new ArrayList<>();
+        for (List<Long> chunk : InClause.chunks(ids)) {
+            String sql = "select * from PUBLIC.FILMS where film_id in (" + InClause.placeholders(chunk.size()) + ")";
+            films.addAll(jdbcTemplate.query(sql, new FilmRowMapper(), chunk.toArray()));
+        }
+        hydrate(films);
+        return films;
+    }
+
+    private void hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return;
+        }
+        Map<Long, Film> filmsById = indexById(films);
+        likeStore.forEachLike(filmsById.keySet(), likeAttacher(filmsById));
+        genreStorage.genresForFilms(filmsById.keySet())
+                .forEach((filmId, genres) -> filmsById.get(filmId).getGenres().addAll(genres));
+    }
+
+    /**
+     * Страница идет подряд по id, поэтому ее лайки и жанры читаются по диапазону id, а не списком:
+     * страница любого размера, в том числе GET /films без limit, обходится тремя запросами.
+     */
+    private void hydratePage(List<Film> films, long afterId) {
+        if (films.isEmpty()) {
+            return;
+        }
+        long lastId = films.get(films.size() - 1).getId();
+        Map<Long, Film> filmsById = indexById(films);
+        likeStore.forEachLike(afterId, lastId, likeAttacher(filmsById));
+        attachGenres(filmsById, "select film_id, genre_id from PUBLIC.FILMS_GENRES "
+                + "where film_id > ? and film_id <= ? order by film_id, genre_id", afterId, lastId);
+    }
+
+    private static List<Film> inOrderOf(List<Long> ids, List<Film> films) {
+        Map<Long, Film> filmsById = indexById(films);
+        List<Film> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Film film = filmsById.get(id);
+            if (film != null) {
+                ordered.add(film);
+            }
+        }
+        return ordered;
+    }
+
+    private static Map<Long, Film> indexById(List<Film> films) {
+        Map<Long, Film> filmsById = new LinkedHashMap<>();
+        films.forEach(film -> filmsById.put(film.getId(), film));
+        return filmsById;
+    }
+
+    private static IdPairConsumer likeAttacher(Map<Long, Film> filmsById) {
+        return (filmId, userId) -> {
+            Film film = filmsById.get(filmId);
+            if (film != null) {
+                film.addLike(userId);
+            }
+        };
+    }
+
+    private void attachGenres(Map<Long, Film> filmsById, String sql, Object... args) {
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            Film film = filmsById.get(rs.getLong("film_id"));
+            if (film != null) {
+                film.addGenre(genreStorage.resolve(rs.getInt("genre_id")));
+            }
+        }, args);
     }
 
     private class FilmRowMapper implements RowMapper<Film> {
@@ -159,13 +690,8 @@ public class FilmDbStorage implements FilmStorage {
                     .releaseDate(releaseDate)
                     .duration(duration)
                     .mpa(mpa)
+                    .genres(new ArrayList<>())
                     .build();
-            String sql = "select user_id from PUBLIC.LIKES where film_id = ?";
-            jdbcTemplate.queryForList(sql, Long.class, film.getId())
-                    .forEach(film::addLike);
-
-            film.setGenres(new ArrayList<>());
-            genreStorage.getGenresForFilm(id).forEach(film::addGenre);
             return film;
         }
     }
@@ -1,9 +1,17 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import ru.yandex.practicum.filmorate.model.FacetedPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     boolean indexExists(long id);
@@ -12,11 +20,81 @@ public interface FilmStorage {
 
     long put(Film film);
 
+    /**
+     * Добавляет фильмы одной пачкой и возвращает их id в том же порядке.
+     */
+    List<Long> putAll(List<Film> films);
+
     void updateFilm(Film film);
 
     Collection<Film> getAll();
 
-    void addLike(long filmId, long userId);
+    void forEachFilm(Consumer<Film> consumer);
+
+    /**
+     * Обходит пары (фильм, рейтинг MPA) без загрузки самих фильмов.
+     */
+    void forEachFilmMpa(IdPairConsumer consumer);
+
+    /**
+     * Обходит пары (фильм, жанр) без загрузки самих фильмов.
+     */
+    void forEachFilmGenre(IdPairConsumer consumer);
+
+    /**
+     * Обходит пары (фильм, день выхода от 1970-01-01) фильмов с датой выхода.
+     */
+    void forEachFilmReleaseDay(IdPairConsumer consumer);
+
+    /**
+     * Обходит пары (фильм, продолжительность).
+     */
+    void forEachFilmDuration(IdPairConsumer consumer);
+
+    List<Film> getFilms(Collection<Long> ids);
+
+    Set<Long> existingIds(Collection<Long> ids);
+
+    Page<Film> getPage(long afterId, int limit);
+
+    Collection<Film> getMostLiked(int count);
+
+    /**
+     * До limit id фильмов больше afterId, подходящих под фильтр, со счетчиками по жанрам и рейтингам,
+     * как у FilmFacetIndex. Запасной путь, пока индексы фильтров не построены.
+     */
+    FacetedPage<Long> filterFilms(FilmFilter filter, long afterId, int limit);
+
+    Map<Long, Integer> getLikeCounts();
+
+    /**
+     * Обходит все лайки парами (фильм, пользователь) без загрузки фильмов.
+     */
+    void forEachLike(IdPairConsumer consumer);
+
+    boolean hasLike(long filmId, long userId);
+
+    /**
+     * @return false, если лайк уже стоит
+     * @throws ru.yandex.practicum.filmorate.exception.FilmNotFoundException если фильма нет
+     * @throws ru.yandex.practicum.filmorate.exception.UserNotFoundException если пользователя нет
+     */
+    boolean addLike(long filmId, long userId);
+
+    /**
+     * @return false, если лайка не было
+     * @throws ru.yandex.practicum.filmorate.exception.FilmNotFoundException если фильма нет
+     * @throws ru.yandex.practicum.filmorate.exception.UserNotFoundException если пользователя нет
+     */
+    boolean removeLike(long filmId, long userId);
+
+    /**
+     * Добавляет лайки пачкой и возвращает те, которых раньше не было.
+     */
+    List<Like> addLikes(Collection<Like> likes);
 
-    void removeLike(long filmId, long userId);
+    /**
+     * Убирает лайки пачкой и возвращает те, которые действительно были.
+     */
+    List<Like> removeLikes(Collection<Like> likes);
 }
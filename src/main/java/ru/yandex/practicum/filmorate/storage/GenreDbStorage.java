@@ -1,58 +1,89 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
 
 @Component
-@Qualifier("genreDbStorage")
+@Profile("!in-memory")
+@Qualifier("genreStorage")
 public class GenreDbStorage implements GenreStorage {
 
     private final JdbcTemplate jdbcTemplate;
+    // жанры по id; массив заменяется целиком при обновлении справочника
+    private volatile Genre[] genresById;
 
     public GenreDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        refresh();
     }
 
-    @Override
-    public Collection<Genre> getAllGenres() {
-        String sql = "select * from PUBLIC.GENRES";
-        return jdbcTemplate.query(sql, new GenreRowMapper());
+    /**
+     * Перечитывает справочник жанров из базы.
+     */
+    public void refresh() {
+        String sql = "select * from PUBLIC.GENRES order by genre_id";
+        List<Genre> genres = jdbcTemplate.query(sql, new GenreRowMapper());
+        int maxId = genres.stream().mapToInt(Genre::getId).max().orElse(0);
+        Genre[] loaded = new Genre[maxId + 1];
+        genres.forEach(genre -> loaded[genre.getId()] = genre);
+        genresById = loaded;
     }
 
-
-
-    private boolean indexExists(long id) {
-        String sql = "select count(*) from genres where genre_id = ?";
-        Integer number = jdbcTemplate.queryForObject(sql, Integer.class, id);
-        return (number != null && number > 0);
+    @Override
+    public Collection<Genre> getAllGenres() {
+        List<Genre> genres = new ArrayList<>();
+        for (Genre genre : genresById) {
+            if (genre != null) {
+                genres.add(genre);
+            }
+        }
+        return genres;
     }
 
     @Override
     public Optional<Genre> getGenre(int id) {
-        if (!indexExists(id)) {
+        Genre[] genres = genresById;
+        if (id < 0 || id >= genres.length) {
             return Optional.empty();
         }
-        String sql = "select * from PUBLIC.GENRES where genre_id = ?";
-        Genre genre = jdbcTemplate.queryForObject(sql, new GenreRowMapper(), id);
-        return Optional.ofNullable(genre);
+        return Optional.ofNullable(genres[id]);
     }
 
     @Override
     public Collection<Genre> getGenresForFilm(long filmId) {
-        String sql = "SELECT g.genre_id, g.genre_name "
-                + "FROM films f "
-                + "JOIN films_genres fg ON f.film_id = fg.film_id "
-                + "JOIN genres g ON fg.genre_id = g.genre_id "
-                + "WHERE f.film_id = ?;";
-        return jdbcTemplate.query(sql, new GenreRowMapper(), filmId);
+        return genresForFilms(List.of(filmId)).getOrDefault(filmId, Collections.emptyList());
+    }
+
+    @Override
+    public Map<Long, List<Genre>> genresForFilms(Collection<Long> filmIds) {
+        Map<Long, List<Genre>> genres = new HashMap<>();
+        for (List<Long> chunk : InClause.chunks(filmIds)) {
+            String sql = "select film_id, genre_id from PUBLIC.FILMS_GENRES "
+                    + "where film_id in (" + InClause.placeholders(chunk.size()) + ") "
+                    + "order by film_id, genre_id";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> genres
+                    .computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>())
+                    .add(resolve(rs.getInt("genre_id"))), chunk.toArray());
+        }
+        return genres;
+    }
+
+    @Override
+    public Genre resolve(int id) {
+        return getGenre(id).orElseGet(() -> {
+            // жанр добавили в базу после загрузки справочника
+            refresh();
+            return getGenre(id).orElseThrow();
+        });
     }
 
     private static class GenreRowMapper implements RowMapper<Genre> {
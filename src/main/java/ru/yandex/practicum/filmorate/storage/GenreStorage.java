@@ -3,6 +3,8 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface GenreStorage {
@@ -11,4 +13,14 @@ public interface GenreStorage {
     Optional<Genre> getGenre(int id);
 
     Collection<Genre> getGenresForFilm(long filmId);
+
+    /**
+     * Жанры сразу для многих фильмов; фильмы без жанров в результат не попадают.
+     */
+    Map<Long, List<Genre>> genresForFilms(Collection<Long> filmIds);
+
+    /**
+     * Жанр по id из справочника; для неизвестного id бросает {@link java.util.NoSuchElementException}.
+     */
+    Genre resolve(int id);
 }
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage;
+
+/**
+ * Получатель пар идентификаторов без упаковки в {@link Long}, например строк таблицы FRIENDS.
+ */
+@FunctionalInterface
+public interface IdPairConsumer {
+    void accept(long first, long second);
+}
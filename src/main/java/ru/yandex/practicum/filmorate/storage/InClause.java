@@ -0,0 +1,33 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Помощник для запросов вида {@code where id in (?, ?, ...)}.
+ * Разбивает список идентификаторов на порции, чтобы не упираться в лимиты драйвера.
+ */
+final class InClause {
+    static final int CHUNK_SIZE = 500;
+
+    private InClause() {
+    }
+
+    static List<List<Long>> chunks(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> all = new ArrayList<>(ids);
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += CHUNK_SIZE) {
+            chunks.add(all.subList(from, Math.min(all.size(), from + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
@@ -1,18 +1,54 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ResourceNotFoundException;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.CompactIdSet;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Page;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * Потокобезопасное хранилище фильмов в памяти для запуска без базы (профиль in-memory).
+ * <p>
+ * Фильмы лежат в упорядоченной по id карте без лайков и жанров, лайки каждого фильма — в отдельном
+ * {@link CompactIdSet} со своей блокировкой, как друзья в {@link InMemoryUserStorage}, жанры —
+ * в {@link InMemoryGenreStorage}. Лайки разных фильмов не мешают друг другу. Наружу отдаются только копии.
+ */
 @Component
+@Profile("in-memory")
+@Qualifier("filmStorage")
 public class InMemoryFilmStorage implements FilmStorage {
-    private final Map<Long, Film> films = new HashMap<>();
+    private final ConcurrentNavigableMap<Long, Film> films = new ConcurrentSkipListMap<>();
+    // множества лайков изменяются и читаются под блокировкой самого множества
+    private final Map<Long, CompactIdSet> likes = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final MpaStorage mpaStorage;
+    private final InMemoryGenreStorage genreStorage;
+    private final InMemoryUserStorage userStorage;
 
-    private long filmId = 0;
+    @Autowired
+    public InMemoryFilmStorage(@Qualifier("mpaStorage") InMemoryMpaStorage mpaStorage,
+                               @Qualifier("genreStorage") InMemoryGenreStorage genreStorage,
+                               @Qualifier("userStorage") InMemoryUserStorage userStorage) {
+        this.mpaStorage = mpaStorage;
+        this.genreStorage = genreStorage;
+        this.userStorage = userStorage;
+    }
 
     @Override
     public boolean indexExists(long id) {
@@ -21,31 +57,287 @@ public class InMemoryFilmStorage implements FilmStorage {
 
     @Override
     public Optional<Film> getFilm(long id) {
-        return Optional.ofNullable(films.getOrDefault(id, null));
+        return Optional.ofNullable(films.get(id)).map(this::hydrate);
     }
 
+    @Override
     public long put(Film film) {
-        var newFilm = film.withId(filmId++);
-        films.put(newFilm.getId(), newFilm);
-        return newFilm.getId();
+        requireLikers(film);
+        return store(film);
+    }
+
+    @Override
+    public List<Long> putAll(List<Film> films) {
+        // как и в базе, порция не сохраняется частично: сначала проверяются все фильмы
+        films.forEach(this::requireLikers);
+        return films.stream()
+                .map(this::store)
+                .collect(Collectors.toList());
     }
 
     @Override
     public void updateFilm(Film film) {
-        films.put(film.getId(), film);
+        if (!films.containsKey(film.getId())) {
+            throw new FilmNotFoundException();
+        }
+        Film stored = record(film, film.getId());
+        genreStorage.setFilmGenres(film.getId(), film.getGenres());
+        films.put(film.getId(), stored);
     }
 
+    @Override
     public Collection<Film> getAll() {
-        return films.values();
+        return films.values()
+                .stream()
+                .map(this::hydrate)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachFilm(Consumer<Film> consumer) {
+        films.values().forEach(film -> consumer.accept(hydrate(film)));
+    }
+
+    @Override
+    public void forEachFilmMpa(IdPairConsumer consumer) {
+        films.values().stream()
+                .filter(film -> film.getMpa() != null)
+                .forEach(film -> consumer.accept(film.getId(), film.getMpa().getId()));
+    }
+
+    @Override
+    public void forEachFilmGenre(IdPairConsumer consumer) {
+        films.keySet().forEach(filmId -> genreStorage.getGenresForFilm(filmId)
+                .forEach(genre -> consumer.accept(filmId, genre.getId())));
+    }
+
+    @Override
+    public void forEachFilmReleaseDay(IdPairConsumer consumer) {
+        films.values().stream()
+                .filter(film -> film.getReleaseDate() != null)
+                .forEach(film -> consumer.accept(film.getId(), film.getReleaseDate().toEpochDay()));
+    }
+
+    @Override
+    public void forEachFilmDuration(IdPairConsumer consumer) {
+        films.values().forEach(film -> consumer.accept(film.getId(), film.getDuration()));
+    }
+
+    @Override
+    public List<Film> getFilms(Collection<Long> ids) {
+        List<Film> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Film film = films.get(id);
+            if (film != null) {
+                result.add(hydrate(film));
+            }
+        }
+        return result;
     }
 
     @Override
-    public void addLike(long filmId, long userId) {
+    public Set<Long> existingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(films::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Page<Film> getPage(long afterId, int limit) {
+        List<Film> page = new ArrayList<>(limit);
+        Long nextCursor = null;
+        for (Film film : films.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                nextCursor = page.get(limit - 1).getId();
+                break;
+            }
+            page.add(hydrate(film));
+        }
+        return new Page<>(page, nextCursor);
+    }
 
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        films.keySet().forEach(id -> counts.put(id, likesCount(id)));
+        return counts;
+    }
+
+    @Override
+    public void forEachLike(IdPairConsumer consumer) {
+        likes.keySet().forEach(filmId -> snapshot(filmId).forEach(userId -> consumer.accept(filmId, userId)));
     }
 
     @Override
-    public void removeLike(long filmId, long userId) {
+    public Collection<Film> getMostLiked(int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        // держим count лучших в куче, где на вершине худший из них
+        Comparator<long[]> byPopularity = Comparator.<long[]>comparingLong(entry -> entry[1]).reversed()
+                .thenComparingLong(entry -> entry[0]);
+        PriorityQueue<long[]> top = new PriorityQueue<>(count + 1, byPopularity.reversed());
+        for (Long id : films.keySet()) {
+            top.add(new long[]{id, likesCount(id)});
+            if (top.size() > count) {
+                top.poll();
+            }
+        }
+        List<long[]> best = new ArrayList<>(top);
+        best.sort(byPopularity);
+        return getFilms(best.stream().map(entry -> entry[0]).collect(Collectors.toList()));
+    }
+
+    @Override
+    public FacetedPage<Long> filterFilms(FilmFilter filter, long afterId, int limit) {
+        FilmFilter anyMpa = filter.withoutMpa();
+        List<Long> ids = new ArrayList<>(limit);
+        Long nextCursor = null;
+        long total = 0;
+        Map<Integer, Integer> genres = new TreeMap<>();
+        Map<Integer, Integer> mpa = new TreeMap<>();
+        for (Film stored : films.values()) {
+            Film film = hydrate(stored);
+            if (!anyMpa.matches(film)) {
+                continue;
+            }
+            mpa.merge(film.getMpa().getId(), 1, Integer::sum);
+            if (!filter.matches(film)) {
+                continue;
+            }
+            total++;
+            film.getGenres().forEach(genre -> genres.merge(genre.getId(), 1, Integer::sum));
+            if (film.getId() > afterId) {
+                if (ids.size() < limit) {
+                    ids.add(film.getId());
+                } else if (nextCursor == null) {
+                    nextCursor = ids.get(ids.size() - 1);
+                }
+            }
+        }
+        return new FacetedPage<>(ids, nextCursor, total, genres, mpa);
+    }
+
+    @Override
+    public boolean hasLike(long filmId, long userId) {
+        CompactIdSet filmLikes = likes.get(filmId);
+        if (filmLikes == null) {
+            return false;
+        }
+        synchronized (filmLikes) {
+            return filmLikes.contains(userId);
+        }
+    }
+
+    @Override
+    public boolean addLike(long filmId, long userId) {
+        CompactIdSet filmLikes = requireLikeTarget(filmId, userId);
+        synchronized (filmLikes) {
+            return filmLikes.add(userId);
+        }
+    }
+
+    @Override
+    public boolean removeLike(long filmId, long userId) {
+        CompactIdSet filmLikes = requireLikeTarget(filmId, userId);
+        synchronized (filmLikes) {
+            return filmLikes.remove(userId);
+        }
+    }
+
+    @Override
+    public List<Like> addLikes(Collection<Like> likes) {
+        return likes.stream()
+                .filter(like -> addLike(like.getFilmId(), like.getUserId()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Like> removeLikes(Collection<Like> likes) {
+        return likes.stream()
+                .filter(like -> removeLike(like.getFilmId(), like.getUserId()))
+                .collect(Collectors.toList());
+    }
+
+    private long store(Film film) {
+        long id = lastId.incrementAndGet();
+        Film stored = record(film, id);
+        genreStorage.setFilmGenres(id, film.getGenres());
+        CompactIdSet filmLikes = new CompactIdSet();
+        film.getLikes().forEach(filmLikes::add);
+        likes.put(id, filmLikes);
+        films.put(id, stored);
+        return id;
+    }
+
+    /**
+     * Лайки нового фильма могут ставить только существующие пользователи, как и через {@link #addLike}.
+     */
+    private void requireLikers(Film film) {
+        Collection<Long> likers = film.getLikes();
+        if (!likers.isEmpty() && userStorage.existingIds(likers).size() != likers.size()) {
+            throw new UserNotFoundException();
+        }
+    }
+
+    private CompactIdSet requireLikeTarget(long filmId, long userId) {
+        CompactIdSet filmLikes = likes.get(filmId);
+        if (filmLikes == null) {
+            throw new FilmNotFoundException();
+        }
+        if (!userStorage.indexExists(userId)) {
+            throw new UserNotFoundException();
+        }
+        return filmLikes;
+    }
+
+    /**
+     * Копия множества лайков; для неизвестного фильма — пустое множество.
+     */
+    private CompactIdSet snapshot(long filmId) {
+        CompactIdSet copy = new CompactIdSet();
+        CompactIdSet filmLikes = likes.get(filmId);
+        if (filmLikes != null) {
+            synchronized (filmLikes) {
+                copy.addAll(filmLikes);
+            }
+        }
+        return copy;
+    }
+
+    private int likesCount(long filmId) {
+        CompactIdSet filmLikes = likes.get(filmId);
+        if (filmLikes == null) {
+            return 0;
+        }
+        synchronized (filmLikes) {
+            return filmLikes.size();
+        }
+    }
+
+    private Film record(Film film, long id) {
+        return Film.builder()
+                .id(id)
+                .name(film.getName())
+                .description(film.getDescription())
+                .releaseDate(film.getReleaseDate())
+                .duration(film.getDuration())
+                .mpa(mpaStorage.getMpa(film.getMpa().getId())
+                        .orElseThrow(() -> new ResourceNotFoundException("Рейтинг MPA не найден")))
+                .build();
+    }
 
+    private Film hydrate(Film stored) {
+        Film film = Film.builder()
+                .id(stored.getId())
+                .name(stored.getName())
+                .description(stored.getDescription())
+                .releaseDate(stored.getReleaseDate())
+                .duration(stored.getDuration())
+                .mpa(stored.getMpa())
+                .genres(new ArrayList<>(genreStorage.getGenresForFilm(stored.getId())))
+                .build();
+        snapshot(stored.getId()).forEach(userId -> film.addLike((long) userId));
+        return film;
     }
 }
@@ -1,23 +1,95 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.ResourceNotFoundException;
 import ru.yandex.practicum.filmorate.model.Genre;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Справочник жанров в памяти с теми же записями, что и data.sql, и связи фильмов с жанрами
+ * (аналог таблицы FILMS_GENRES). Связи фильма заменяются целиком, поэтому читатель видит
+ * либо старый, либо новый набор жанров.
+ */
+@Component
+@Profile("in-memory")
+@Qualifier("genreStorage")
 public class InMemoryGenreStorage implements GenreStorage {
+    private static final List<String> NAMES = List.of(
+            "Комедия", "Драма", "Мультфильм", "Триллер", "Документальный", "Боевик");
+    private static final Genre[] NO_GENRES = new Genre[0];
+
+    private final Genre[] genresById;
+    private final Map<Long, Genre[]> filmGenres = new ConcurrentHashMap<>();
+
+    public InMemoryGenreStorage() {
+        genresById = new Genre[NAMES.size() + 1];
+        for (int i = 0; i < NAMES.size(); i++) {
+            Genre genre = new Genre();
+            genre.setId(i + 1);
+            genre.setName(NAMES.get(i));
+            genresById[i + 1] = genre;
+        }
+    }
+
     @Override
     public Collection<Genre> getAllGenres() {
-        return null;
+        List<Genre> genres = new ArrayList<>();
+        for (Genre genre : genresById) {
+            if (genre != null) {
+                genres.add(genre);
+            }
+        }
+        return genres;
     }
 
     @Override
     public Optional<Genre> getGenre(int id) {
-        return Optional.empty();
+        if (id < 0 || id >= genresById.length) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(genresById[id]);
     }
 
     @Override
     public Collection<Genre> getGenresForFilm(long filmId) {
-        return null;
+        return List.of(filmGenres.getOrDefault(filmId, NO_GENRES));
+    }
+
+    @Override
+    public Map<Long, List<Genre>> genresForFilms(Collection<Long> filmIds) {
+        Map<Long, List<Genre>> result = new HashMap<>();
+        for (Long filmId : filmIds) {
+            Genre[] genres = filmGenres.get(filmId);
+            if (genres != null) {
+                result.put(filmId, List.of(genres));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Genre resolve(int id) {
+        return getGenre(id).orElseThrow();
+    }
+
+    /**
+     * Заменяет жанры фильма; для неизвестного жанра бросает {@link ResourceNotFoundException}, ничего не меняя.
+     */
+    void setFilmGenres(long filmId, Collection<Genre> genres) {
+        Genre[] resolved = genres == null ? NO_GENRES : genres.stream()
+                .map(genre -> getGenre(genre.getId())
+                        .orElseThrow(() -> new ResourceNotFoundException("Жанр не найден")))
+                .distinct()
+                .sorted(Comparator.comparingInt(Genre::getId))
+                .toArray(Genre[]::new);
+        if (resolved.length == 0) {
+            filmGenres.remove(filmId);
+        } else {
+            filmGenres.put(filmId, resolved);
+        }
     }
 }
@@ -1,18 +1,38 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Mpa;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
 
+/**
+ * Справочник рейтингов MPA в памяти с теми же записями, что и data.sql.
+ */
+@Component
+@Profile("in-memory")
+@Qualifier("mpaStorage")
 public class InMemoryMpaStorage implements MpaStorage {
+    private static final List<String> NAMES = List.of("G", "PG", "PG-13", "R", "NC-17");
+
+    private final Map<Integer, Mpa> mpas;
+
+    public InMemoryMpaStorage() {
+        Map<Integer, Mpa> loaded = new LinkedHashMap<>();
+        for (int i = 0; i < NAMES.size(); i++) {
+            loaded.put(i + 1, Mpa.builder().id(i + 1).name(NAMES.get(i)).build());
+        }
+        mpas = Collections.unmodifiableMap(loaded);
+    }
+
     @Override
     public Optional<Mpa> getMpa(int id) {
-        return Optional.empty();
+        return Optional.ofNullable(mpas.get(id));
     }
 
     @Override
     public Collection<Mpa> getAllMpas() {
-        return null;
+        return mpas.values();
     }
 }
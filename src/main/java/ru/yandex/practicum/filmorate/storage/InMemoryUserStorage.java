@@ -1,20 +1,67 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.CompactIdSet;
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+/**
+ * Потокобезопасное хранилище пользователей в памяти для запуска без базы (профиль in-memory).
+ * <p>
+ * Пользователи лежат в упорядоченной по id карте без друзей, друзья каждого пользователя — в отдельном
+ * {@link CompactIdSet} со своей блокировкой. Уникальность логина и email проверяется по индексам под одной блокировкой,
+ * которую берут только добавление и изменение пользователя. Наружу отдаются только копии.
+ */
 @Component
+@Profile("in-memory")
+@Qualifier("userStorage")
 public class InMemoryUserStorage implements UserStorage {
-    private final Map<Long, User> users = new HashMap<>();
+    private final ConcurrentNavigableMap<Long, User> users = new ConcurrentSkipListMap<>();
+    // множества друзей изменяются и читаются под блокировкой самого множества
+    private final Map<Long, CompactIdSet> friends = new ConcurrentHashMap<>();
+    private final Map<String, Long> logins = new ConcurrentHashMap<>();
+    private final Map<String, Long> emails = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final Object identityLock = new Object();
 
     @Override
     public Collection<User> getUsers() {
-        return users.values();
+        return users.values()
+                .stream()
+                .map(this::hydrate)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        users.values().forEach(user -> consumer.accept(hydrate(user)));
+    }
+
+    @Override
+    public Page<User> getPage(long afterId, int limit) {
+        List<User> page = new ArrayList<>(limit);
+        Long nextCursor = null;
+        for (User user : users.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                nextCursor = page.get(limit - 1).getId();
+                break;
+            }
+            page.add(hydrate(user));
+        }
+        return new Page<>(page, nextCursor);
     }
 
     @Override
@@ -24,25 +71,207 @@ public class InMemoryUserStorage implements UserStorage {
 
     @Override
     public Optional<User> getUser(long id) {
-        return Optional.ofNullable(users.getOrDefault(id, null));
+        return Optional.ofNullable(users.get(id)).map(this::hydrate);
+    }
+
+    @Override
+    public List<User> getUsers(Collection<Long> ids) {
+        return ids.stream()
+                .distinct()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(this::hydrate)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long put(User user) {
+        requireFriends(user);
+        return store(user);
     }
 
     @Override
-    public void put(User user) {
-        users.put(user.getId(), user);
+    public List<Long> putAll(List<User> users) {
+        // как и в базе, порция не сохраняется частично: сначала проверяются все друзья
+        users.forEach(this::requireFriends);
+        return users.stream()
+                .map(this::store)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Long> existingIds(Collection<Long> ids) {
+        return ids.stream()
+                .filter(users::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<String> findTakenLogins(Collection<String> logins) {
+        return logins.stream()
+                .filter(this.logins::containsKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<String> findTakenEmails(Collection<String> emails) {
+        return emails.stream()
+                .filter(this.emails::containsKey)
+                .collect(Collectors.toSet());
     }
 
     @Override
     public void update(User user) {
-        put(user);
+        long id = user.getId();
+        synchronized (identityLock) {
+            User old = users.get(id);
+            if (old == null) {
+                throw new UserNotFoundException();
+            }
+            if (!Objects.equals(logins.getOrDefault(user.getLogin(), id), id)) {
+                throw new ValidationException("Логин уже существует.");
+            }
+            if (!Objects.equals(emails.getOrDefault(user.getEmail(), id), id)) {
+                throw new ValidationException("Email уже существует.");
+            }
+            logins.remove(old.getLogin());
+            emails.remove(old.getEmail());
+            logins.put(user.getLogin(), id);
+            emails.put(user.getEmail(), id);
+            users.put(id, record(user, id));
+        }
     }
 
     @Override
     public void addFriend(long userId, long friendId) {
+        if (!users.containsKey(friendId)) {
+            throw new UserNotFoundException();
+        }
+        CompactIdSet userFriends = friendsOf(userId);
+        synchronized (userFriends) {
+            userFriends.add(friendId);
+        }
     }
 
     @Override
     public void removeFriend(long userId, long friendId) {
+        CompactIdSet userFriends = friendsOf(userId);
+        synchronized (userFriends) {
+            userFriends.remove(friendId);
+        }
+    }
+
+    @Override
+    public List<Friendship> addFriends(Collection<Friendship> friendships) {
+        List<Friendship> added = new ArrayList<>();
+        for (Friendship friendship : friendships) {
+            CompactIdSet userFriends = friends.get(friendship.getUserId());
+            if (userFriends == null || !users.containsKey(friendship.getFriendId())) {
+                continue;
+            }
+            synchronized (userFriends) {
+                if (userFriends.add(friendship.getFriendId())) {
+                    added.add(friendship);
+                }
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public void forEachFriendship(IdPairConsumer consumer) {
+        friends.keySet().forEach(userId -> snapshot(userId).forEach(friendId -> consumer.accept(userId, friendId)));
+    }
+
+    @Override
+    public List<User> getFriends(long userId) {
+        return getUsers(toIds(snapshot(userId)));
+    }
+
+    @Override
+    public List<User> getCommonFriends(Collection<Long> userIds) {
+        CompactIdSet common = null;
+        for (Long userId : userIds) {
+            CompactIdSet userFriends = snapshot(userId);
+            common = common == null ? userFriends : CompactIdSet.intersection(common, userFriends);
+            if (common.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        return common == null ? Collections.emptyList() : getUsers(toIds(common));
+    }
+
+    /**
+     * Копия множества друзей; для неизвестного пользователя — пустое множество.
+     */
+    private CompactIdSet snapshot(long userId) {
+        CompactIdSet copy = new CompactIdSet();
+        CompactIdSet userFriends = friends.get(userId);
+        if (userFriends != null) {
+            synchronized (userFriends) {
+                copy.addAll(userFriends);
+            }
+        }
+        return copy;
     }
 
+    private static List<Long> toIds(CompactIdSet ids) {
+        List<Long> list = new ArrayList<>(ids.size());
+        ids.forEach(id -> list.add((long) id));
+        return list;
+    }
+
+    private CompactIdSet friendsOf(long userId) {
+        CompactIdSet userFriends = friends.get(userId);
+        if (userFriends == null) {
+            throw new UserNotFoundException();
+        }
+        return userFriends;
+    }
+
+    private long store(User user) {
+        long id;
+        synchronized (identityLock) {
+            if (logins.containsKey(user.getLogin())) {
+                throw new ValidationException("Логин уже существует.");
+            }
+            if (emails.containsKey(user.getEmail())) {
+                throw new ValidationException("Email уже существует.");
+            }
+            id = lastId.incrementAndGet();
+            logins.put(user.getLogin(), id);
+            emails.put(user.getEmail(), id);
+        }
+        CompactIdSet userFriends = new CompactIdSet();
+        user.forEachFriend(userFriends::add);
+        friends.put(id, userFriends);
+        users.put(id, record(user, id));
+        return id;
+    }
+
+    /**
+     * Друзьями нового пользователя могут быть только существующие пользователи, как и через {@link #addFriend}.
+     */
+    private void requireFriends(User user) {
+        Collection<Long> friendIds = user.getFriends();
+        if (!friendIds.isEmpty() && existingIds(friendIds).size() != friendIds.size()) {
+            throw new UserNotFoundException();
+        }
+    }
+
+    private static User record(User user, long id) {
+        return User.builder()
+                .id(id)
+                .email(user.getEmail())
+                .login(user.getLogin())
+                .name(user.getName())
+                .birthday(user.getBirthday())
+                .build();
+    }
+
+    private User hydrate(User stored) {
+        User user = stored.copy();
+        snapshot(stored.getId()).forEach(friendId -> user.addFriend((long) friendId));
+        return user;
+    }
 }
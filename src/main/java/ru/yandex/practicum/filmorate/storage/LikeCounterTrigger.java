@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.h2.api.Trigger;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Триггер H2 перед удалением пользователя: лайки из LIKES и FILM_LIKE_LOG удаляются каскадом в обход хранилища,
+ * поэтому ячейки FILM_LIKE_COUNTERS уменьшаются здесь же, в той же транзакции. Из битмапов FILM_LIKERS
+ * (формат bitmap) пользователя убирает сам триггер: для этого он просматривает все битмапы, но удаление
+ * пользователя редкое, а в формате rows таблица пуста.
+ */
+public class LikeCounterTrigger implements Trigger {
+    private static final String DECREMENT = "UPDATE PUBLIC.FILM_LIKE_COUNTERS SET likes_count = likes_count - 1 "
+            + "WHERE slot = ? AND film_id = ?";
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        long userId = ((Number) oldRow[0]).longValue();
+        int slot = (int) (userId % FilmDbStorage.LIKE_COUNTER_SLOTS);
+        // в журнале строка с DELTA = 1 — лайк, которого еще нет в битмапе
+        String sql = "UPDATE PUBLIC.FILM_LIKE_COUNTERS SET likes_count = likes_count - 1 "
+                + "WHERE slot = ? AND film_id IN (SELECT film_id FROM PUBLIC.LIKES WHERE user_id = ? "
+                + "UNION SELECT film_id FROM PUBLIC.FILM_LIKE_LOG WHERE user_id = ? AND delta = 1)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, slot);
+            ps.setLong(2, userId);
+            ps.setLong(3, userId);
+            ps.executeUpdate();
+        }
+        for (long filmId : filmsWithLiker(conn, userId)) {
+            removeLiker(conn, filmId, userId, slot);
+        }
+    }
+
+    private static List<Long> filmsWithLiker(Connection conn, long userId) throws SQLException {
+        List<Long> filmIds = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("select film_id, likers from PUBLIC.FILM_LIKERS");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (new ImmutableRoaringBitmap(ByteBuffer.wrap(rs.getBytes("likers"))).contains((int) userId)) {
+                    filmIds.add(rs.getLong("film_id"));
+                }
+            }
+        }
+        return filmIds;
+    }
+
+    /**
+     * Переписывает битмап фильма без пользователя под блокировкой строки, как слияние журнала.
+     * Строка журнала у пары из битмапа может быть только отменой, и тогда лайк уже не учтен в счетчике.
+     */
+    private static void removeLiker(Connection conn, long filmId, long userId, int slot) throws SQLException {
+        RoaringBitmap likers;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "select likers from PUBLIC.FILM_LIKERS where film_id = ? for update")) {
+            ps.setLong(1, filmId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+                likers = BitmapLikeStore.deserialize(rs.getBytes("likers"));
+            }
+        }
+        if (!likers.checkedRemove((int) userId)) {
+            return;
+        }
+        likers.runOptimize();
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE PUBLIC.FILM_LIKERS SET likers = ?, "
+                + "likes_count = ?, version = version + 1 WHERE film_id = ?")) {
+            ps.setBytes(1, BitmapLikeStore.serialize(likers));
+            ps.setInt(2, likers.getCardinality());
+            ps.setLong(3, filmId);
+            ps.executeUpdate();
+        }
+        boolean unliked;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "select 1 from PUBLIC.FILM_LIKE_LOG where film_id = ? and user_id = ?")) {
+            ps.setLong(1, filmId);
+            ps.setLong(2, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                unliked = rs.next();
+            }
+        }
+        if (!unliked) {
+            try (PreparedStatement ps = conn.prepareStatement(DECREMENT)) {
+                ps.setInt(1, slot);
+                ps.setLong(2, filmId);
+                ps.executeUpdate();
+            }
+        }
+    }
+}
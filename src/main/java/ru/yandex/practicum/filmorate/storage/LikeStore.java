@@ -0,0 +1,82 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import ru.yandex.practicum.filmorate.model.Like;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Формат хранения лайков фильмов в базе: {@link RowLikeStore} — строка на лайк в LIKES,
+ * {@link BitmapLikeStore} — сжатый битмап на фильм с журналом изменений. Формат выбирается свойством
+ * filmorate.likes.storage-format; счетчики лайков FILM_LIKE_COUNTERS {@link FilmDbStorage} ведет сам.
+ * <p>
+ * Методы записи вызываются из транзакций {@link FilmDbStorage}.
+ */
+interface LikeStore {
+
+    /**
+     * Сохраняет лайки только что добавленных фильмов.
+     */
+    void putAll(Map<Long, ? extends Collection<Long>> likersByFilm);
+
+    boolean contains(long filmId, long userId);
+
+    /**
+     * @return false, если лайк уже стоит
+     */
+    boolean add(long filmId, long userId);
+
+    /**
+     * @return false, если лайка не было
+     */
+    boolean remove(long filmId, long userId);
+
+    /**
+     * Для каждого лайка пакета — изменил ли он что-то; повторы внутри пакета учитываются по порядку.
+     */
+    boolean[] addAll(List<Like> likes);
+
+    boolean[] removeAll(List<Like> likes);
+
+    /**
+     * Обходит лайки перечисленных фильмов по возрастанию id фильма и пользователя.
+     */
+    void forEachLike(Collection<Long> filmIds, IdPairConsumer consumer);
+
+    /**
+     * Обходит лайки фильмов с id больше afterFilmId и не больше lastFilmId по возрастанию id фильма
+     * и пользователя: страница фильмов читается одним запросом при любом размере.
+     */
+    void forEachLike(long afterFilmId, long lastFilmId, IdPairConsumer consumer);
+
+    /**
+     * Обходит все лайки по возрастанию id фильма и пользователя.
+     */
+    void forEachLike(IdPairConsumer consumer);
+
+    long count();
+
+    /**
+     * Число лайков каждого фильма по ячейкам счетчика: ячейка — id пользователя по модулю slots.
+     * Фильмы без лайков в результат не попадают.
+     */
+    Map<Long, int[]> countBySlot(int slots);
+
+    /**
+     * Сливает накопившиеся изменения в основной формат, если формат их копит.
+     */
+    void compact();
+
+    /**
+     * Добавляет лайки из хранилища другого формата. Повторный перенос тех же лайков ничего не меняет,
+     * поэтому прерванный перенос можно запустить заново.
+     */
+    void importLikes(LikeStore previous);
+
+    /**
+     * Удаляет все лайки этого формата без журнала отмены (TRUNCATE), поэтому вызывается только
+     * после переноса в другой формат.
+     */
+    void clear();
+}
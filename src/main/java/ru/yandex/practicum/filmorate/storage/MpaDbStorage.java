@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
@@ -14,7 +15,8 @@ import java.util.Map;
 import java.util.Optional;
 
 @Component
-@Qualifier("mpaDbStorage")
+@Profile("!in-memory")
+@Qualifier("mpaStorage")
 public class MpaDbStorage implements MpaStorage {
 
     private final JdbcTemplate jdbcTemplate;
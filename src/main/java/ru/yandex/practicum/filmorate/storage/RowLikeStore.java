@@ -0,0 +1,142 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import ru.yandex.practicum.filmorate.model.Like;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Лайки в формате "rows": строка (FILM_ID, USER_ID) таблицы LIKES на каждый лайк.
+ */
+class RowLikeStore implements LikeStore {
+    private static final String INSERT_IF_ABSENT = "INSERT INTO PUBLIC.LIKES(film_id, user_id) "
+            + "SELECT ?, ? WHERE NOT EXISTS "
+            + "(SELECT 1 FROM PUBLIC.LIKES WHERE film_id = ? AND user_id = ?)";
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    RowLikeStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void putAll(Map<Long, ? extends Collection<Long>> likersByFilm) {
+        List<Object[]> batchArgs = new ArrayList<>();
+        likersByFilm.forEach((filmId, userIds) -> userIds.forEach(userId -> batchArgs.add(new Object[]{filmId, userId})));
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.LIKES (FILM_ID, USER_ID) values (?, ?)", batchArgs);
+    }
+
+    @Override
+    public boolean contains(long filmId, long userId) {
+        Integer count = jdbcTemplate.queryForObject(
+                "select count(*) from PUBLIC.LIKES where film_id = ? and user_id = ?", Integer.class, filmId, userId);
+        return count != null && count > 0;
+    }
+
+    @Override
+    public boolean add(long filmId, long userId) {
+        try {
+            return jdbcTemplate.update(INSERT_IF_ABSENT, filmId, userId, filmId, userId) > 0;
+        } catch (DuplicateKeyException e) {
+            // тот же лайк только что поставили в соседнем запросе
+            return false;
+        }
+    }
+
+    @Override
+    public boolean remove(long filmId, long userId) {
+        return jdbcTemplate.update("DELETE FROM PUBLIC.LIKES where film_id = ? and user_id = ?", filmId, userId) > 0;
+    }
+
+    @Override
+    public boolean[] addAll(List<Like> likes) {
+        return changed(jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, likes.stream()
+                .map(like -> new Object[]{like.getFilmId(), like.getUserId(), like.getFilmId(), like.getUserId()})
+                .collect(Collectors.toList())));
+    }
+
+    @Override
+    public boolean[] removeAll(List<Like> likes) {
+        return changed(jdbcTemplate.batchUpdate("DELETE FROM PUBLIC.LIKES where film_id = ? and user_id = ?",
+                likes.stream()
+                        .map(like -> new Object[]{like.getFilmId(), like.getUserId()})
+                        .collect(Collectors.toList())));
+    }
+
+    @Override
+    public void forEachLike(Collection<Long> filmIds, IdPairConsumer consumer) {
+        for (List<Long> chunk : InClause.chunks(new TreeSet<>(filmIds))) {
+            String sql = "select film_id, user_id from PUBLIC.LIKES where film_id in ("
+                    + InClause.placeholders(chunk.size()) + ") order by film_id, user_id";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                    consumer.accept(rs.getLong("film_id"), rs.getLong("user_id")), chunk.toArray());
+        }
+    }
+
+    @Override
+    public void forEachLike(long afterFilmId, long lastFilmId, IdPairConsumer consumer) {
+        jdbcTemplate.query("select film_id, user_id from PUBLIC.LIKES where film_id > ? and film_id <= ? "
+                        + "order by film_id, user_id",
+                (RowCallbackHandler) rs -> consumer.accept(rs.getLong("film_id"), rs.getLong("user_id")),
+                afterFilmId, lastFilmId);
+    }
+
+    @Override
+    public void forEachLike(IdPairConsumer consumer) {
+        jdbcTemplate.query("select film_id, user_id from PUBLIC.LIKES order by film_id, user_id",
+                (RowCallbackHandler) rs -> consumer.accept(rs.getLong("film_id"), rs.getLong("user_id")));
+    }
+
+    @Override
+    public long count() {
+        Long count = jdbcTemplate.queryForObject("select count(*) from PUBLIC.LIKES", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public Map<Long, int[]> countBySlot(int slots) {
+        // число ячеек подставляется в текст: с двумя параметрами H2 не считает выражения группировки одинаковыми
+        String sql = "select film_id, MOD(user_id, " + slots + ") slot, count(*) likes_count from PUBLIC.LIKES "
+                + "group by film_id, MOD(user_id, " + slots + ")";
+        Map<Long, int[]> counts = new HashMap<>();
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs ->
+                counts.computeIfAbsent(rs.getLong("film_id"), id -> new int[slots])[rs.getInt("slot")] =
+                        rs.getInt("likes_count"));
+        return counts;
+    }
+
+    @Override
+    public void compact() {
+        // строкам нечего сливать
+    }
+
+    @Override
+    public void importLikes(LikeStore previous) {
+        List<Object[]> batchArgs = new ArrayList<>(IMPORT_BATCH_SIZE);
+        previous.forEachLike((filmId, userId) -> {
+            batchArgs.add(new Object[]{filmId, userId, filmId, userId});
+            if (batchArgs.size() == IMPORT_BATCH_SIZE) {
+                jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, batchArgs);
+                batchArgs.clear();
+            }
+        });
+        jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, batchArgs);
+    }
+
+    @Override
+    public void clear() {
+        jdbcTemplate.execute("TRUNCATE TABLE PUBLIC.LIKES");
+    }
+
+    private static boolean[] changed(int[] updateCounts) {
+        boolean[] changed = new boolean[updateCounts.length];
+        for (int i = 0; i < updateCounts.length; i++) {
+            changed[i] = updateCounts[i] > 0;
+        }
+        return changed;
+    }
+}
@@ -1,30 +1,41 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
+@Profile("!in-memory")
 @Qualifier("userDbStorage")
 public class UserDbStorage implements UserStorage {
 
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert jdbcUserInsert;
+    private final int fetchSize;
 
-    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(JdbcTemplate jdbcTemplate,
+                         @Value("${filmorate.streaming.fetch-size}") int fetchSize) {
         this.jdbcTemplate = jdbcTemplate;
+        this.fetchSize = fetchSize;
         this.jdbcUserInsert = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("PUBLIC.USERS")
                 .usingColumns("EMAIL", "LOGIN", "NAME", "BIRTHDAY")
@@ -33,8 +44,44 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Collection<User> getUsers() {
-        String sql = "select * from PUBLIC.USERS";
-        return jdbcTemplate.query(sql, new UserRawMapper());
+        String sql = "select * from PUBLIC.USERS order by user_id";
+        List<User> users = jdbcTemplate.query(sql, new UserRawMapper());
+        if (users.isEmpty()) {
+            return users;
+        }
+        attachFriends(indexById(users), "select user_id, friend_id from PUBLIC.FRIENDS");
+        return users;
+    }
+
+    /**
+     * Обходит пользователей страницами по fetch-size по возрастанию id. Друзья страницы читаются после того,
+     * как запрос самой страницы закрыт, поэтому выгрузка занимает одно соединение за раз.
+     */
+    @Override
+    public void forEachUser(Consumer<User> consumer) {
+        Long afterId = 0L;
+        while (afterId != null) {
+            Page<User> page = getPage(afterId, fetchSize);
+            page.getItems().forEach(consumer);
+            afterId = page.getNextCursor();
+        }
+    }
+
+    @Override
+    public Page<User> getPage(long afterId, int limit) {
+        String sql = "select * from PUBLIC.USERS where user_id > ? order by user_id limit ?";
+        List<User> users = jdbcTemplate.query(sql, new UserRawMapper(), afterId, limit + 1);
+        Long nextCursor = null;
+        if (users.size() > limit) {
+            users = new ArrayList<>(users.subList(0, limit));
+            nextCursor = users.get(limit - 1).getId();
+        }
+        if (!users.isEmpty()) {
+            // страница идет подряд по id: друзья читаются одним запросом по диапазону
+            attachFriends(indexById(users), "select user_id, friend_id from PUBLIC.FRIENDS "
+                    + "where user_id > ? and user_id <= ?", afterId, users.get(users.size() - 1).getId());
+        }
+        return new Page<>(users, nextCursor);
     }
 
     @Override
@@ -46,20 +93,21 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Optional<User> getUser(long id) {
-        String sql = "select * from users where user_id = ?";
-        if (!indexExists(id)) {
-            return Optional.empty();
-        }
-        try {
-            User user = jdbcTemplate.queryForObject(sql, new UserRawMapper(), id);
-            return Optional.ofNullable(user);
-        } catch (Exception e) {
-            throw new UserNotFoundException();
-        }
+        return loadUsers(List.of(id)).stream().findFirst();
+    }
+
+    @Override
+    public List<User> getUsers(Collection<Long> ids) {
+        Map<Long, User> usersById = indexById(loadUsers(ids));
+        return ids.stream()
+                .distinct()
+                .map(usersById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     @Override
-    public void put(User user) {
+    public long put(User user) {
         String sql = "select count(*) from users where login = ?";
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class, user.getLogin());
         if (count != null && count > 0) {
@@ -78,7 +126,7 @@ public class UserDbStorage implements UserStorage {
         )).longValue();
 
         if (user.getFriends().size() == 0) {
-            return;
+            return userIndex;
         }
 
         sql = "INSERT INTO PUBLIC.FRIENDS (USER_ID, FRIEND_ID) values (?, ?)";
@@ -89,18 +137,74 @@ public class UserDbStorage implements UserStorage {
                         .map(id -> new Object[]{userIndex, id})
                         .collect(Collectors.toList())
         );
+        return userIndex;
+    }
+
+    @Override
+    @Transactional
+    public List<Long> putAll(List<User> users) {
+        if (users.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String sql = "INSERT INTO PUBLIC.USERS (EMAIL, LOGIN, NAME, BIRTHDAY) values (?, ?, ?, ?)";
+        List<Long> ids = jdbcTemplate.execute((ConnectionCallback<List<Long>>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(sql, new String[]{"USER_ID"})) {
+                for (User user : users) {
+                    ps.setString(1, user.getEmail());
+                    ps.setString(2, user.getLogin());
+                    ps.setString(3, user.getName());
+                    ps.setObject(4, user.getBirthday());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return FilmDbStorage.generatedKeys(ps);
+            }
+        });
+        if (ids == null || ids.size() != users.size()) {
+            throw new IllegalStateException("База вернула не все id добавленных пользователей");
+        }
+        List<Object[]> friendships = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            long userId = ids.get(i);
+            users.get(i).getFriends().forEach(friendId -> friendships.add(new Object[]{userId, friendId}));
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.FRIENDS (USER_ID, FRIEND_ID) values (?, ?)", friendships);
+        return ids;
+    }
+
+    @Override
+    public Set<Long> existingIds(Collection<Long> ids) {
+        Set<Long> existing = new HashSet<>();
+        for (List<Long> chunk : InClause.chunks(ids)) {
+            String sql = "select user_id from PUBLIC.USERS where user_id in (" + InClause.placeholders(chunk.size()) + ")";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> existing.add(rs.getLong("user_id")), chunk.toArray());
+        }
+        return existing;
+    }
+
+    @Override
+    public Set<String> findTakenLogins(Collection<String> logins) {
+        return findTaken("login", logins);
+    }
+
+    @Override
+    public Set<String> findTakenEmails(Collection<String> emails) {
+        return findTaken("email", emails);
     }
 
     @Override
     public void update(User user) {
         String sql = "UPDATE PUBLIC.USERS SET email = ?, login = ?, name = ?, birthday = ? WHERE user_id = ?";
-        jdbcTemplate.update(sql,
+        int updated = jdbcTemplate.update(sql,
                 user.getEmail(),
                 user.getLogin(),
                 user.getName(),
                 user.getBirthday(),
                 user.getId()
         );
+        if (updated == 0) {
+            throw new UserNotFoundException();
+        }
     }
 
     @Override
@@ -115,21 +219,127 @@ public class UserDbStorage implements UserStorage {
         jdbcTemplate.update(sql, userId, friendId);
     }
 
-    private class UserRawMapper implements RowMapper<User> {
+    @Override
+    @Transactional
+    public List<Friendship> addFriends(Collection<Friendship> friendships) {
+        if (friendships.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Friendship> batch = new ArrayList<>(friendships);
+        String sql = "INSERT INTO PUBLIC.FRIENDS(user_id, friend_id) "
+                + "SELECT ?, ? WHERE NOT EXISTS "
+                + "(SELECT 1 FROM PUBLIC.FRIENDS WHERE user_id = ? AND friend_id = ?)";
+        int[] inserted = jdbcTemplate.batchUpdate(sql, batch.stream()
+                .map(f -> new Object[]{f.getUserId(), f.getFriendId(), f.getUserId(), f.getFriendId()})
+                .collect(Collectors.toList()));
+        List<Friendship> added = new ArrayList<>();
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] > 0) {
+                added.add(batch.get(i));
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public void forEachFriendship(IdPairConsumer consumer) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select user_id, friend_id from PUBLIC.FRIENDS",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getLong("user_id"), rs.getLong("friend_id")));
+    }
+
+    @Override
+    public List<User> getFriends(long userId) {
+        return loadUsersIn("select friend_id from PUBLIC.FRIENDS where user_id = ?", userId);
+    }
+
+    @Override
+    public List<User> getCommonFriends(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String subquery = String.join(" intersect ",
+                Collections.nCopies(userIds.size(), "select friend_id from PUBLIC.FRIENDS where user_id = ?"));
+        return loadUsersIn(subquery, userIds.toArray());
+    }
+
+    /**
+     * Загружает пользователей, чьи id возвращает подзапрос, вместе с их друзьями — всего два запроса.
+     */
+    private List<User> loadUsersIn(String idSubquery, Object... args) {
+        String sql = "select * from PUBLIC.USERS where user_id in (" + idSubquery + ") order by user_id";
+        List<User> users = jdbcTemplate.query(sql, new UserRawMapper(), args);
+        if (users.isEmpty()) {
+            return users;
+        }
+        attachFriends(indexById(users),
+                "select user_id, friend_id from PUBLIC.FRIENDS where user_id in (" + idSubquery + ")", args);
+        return users;
+    }
+
+    private Set<String> findTaken(String column, Collection<String> values) {
+        Set<String> taken = new HashSet<>();
+        List<String> all = new ArrayList<>(new HashSet<>(values));
+        for (int from = 0; from < all.size(); from += InClause.CHUNK_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(all.size(), from + InClause.CHUNK_SIZE));
+            String sql = "select " + column + " from PUBLIC.USERS where " + column + " in ("
+                    + InClause.placeholders(chunk.size()) + ")";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> taken.add(rs.getString(1)), chunk.toArray());
+        }
+        return taken;
+    }
+
+    private List<User> loadUsers(Collection<Long> ids) {
+        List<User> users = new ArrayList<>();
+        for (List<Long> chunk : InClause.chunks(ids)) {
+            String sql = "select * from PUBLIC.USERS where user_id in (" + InClause.placeholders(chunk.size()) + ")";
+            users.addAll(jdbcTemplate.query(sql, new UserRawMapper(), chunk.toArray()));
+        }
+        hydrate(users);
+        return users;
+    }
+
+    private void hydrate(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        Map<Long, User> usersById = indexById(users);
+        for (List<Long> chunk : InClause.chunks(usersById.keySet())) {
+            attachFriends(usersById,
+                    "select user_id, friend_id from PUBLIC.FRIENDS where user_id in ("
+                            + InClause.placeholders(chunk.size()) + ")",
+                    chunk.toArray());
+        }
+    }
+
+    private static Map<Long, User> indexById(List<User> users) {
+        Map<Long, User> usersById = new LinkedHashMap<>();
+        users.forEach(user -> usersById.put(user.getId(), user));
+        return usersById;
+    }
+
+    private void attachFriends(Map<Long, User> usersById, String sql, Object... args) {
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+            User user = usersById.get(rs.getLong("user_id"));
+            if (user != null) {
+                user.addFriend(rs.getLong("friend_id"));
+            }
+        }, args);
+    }
+
+    private static class UserRawMapper implements RowMapper<User> {
         @Override
         public User mapRow(ResultSet rs, int rowNum) throws SQLException {
-            User user =  User.builder()
+            return User.builder()
                     .id(rs.getInt("user_id"))
                     .email(rs.getString("email"))
                     .login(rs.getString("login"))
                     .name(rs.getString("name"))
                     .birthday(rs.getDate("birthday").toLocalDate())
                     .build();
-
-            String sql = "select friend_id from PUBLIC.FRIENDS where user_id = ? ";
-            jdbcTemplate.queryForList(sql, Long.class, user.getId())
-                    .forEach(user::addFriend);
-            return user;
         }
     }
 }
@@ -1,18 +1,46 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import ru.yandex.practicum.filmorate.model.Friendship;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     Collection<User> getUsers();
 
+    void forEachUser(Consumer<User> consumer);
+
+    Page<User> getPage(long afterId, int limit);
+
     boolean indexExists(long id);
 
     Optional<User> getUser(long id);
 
-    void put(User user);
+    /**
+     * Пользователи в порядке переданных id; отсутствующие id пропускаются.
+     */
+    List<User> getUsers(Collection<Long> ids);
+
+    /**
+     * Добавляет пользователя и возвращает присвоенный ему id.
+     */
+    long put(User user);
+
+    /**
+     * Добавляет пользователей одной пачкой и возвращает их id в том же порядке.
+     */
+    List<Long> putAll(List<User> users);
+
+    Set<Long> existingIds(Collection<Long> ids);
+
+    Set<String> findTakenLogins(Collection<String> logins);
+
+    Set<String> findTakenEmails(Collection<String> emails);
 
     void update(User user);
 
@@ -20,4 +48,18 @@ public interface UserStorage {
 
     void removeFriend(long userId, long friendId);
 
+    /**
+     * Добавляет дружбу пачкой и возвращает записи, которых раньше не было.
+     */
+    List<Friendship> addFriends(Collection<Friendship> friendships);
+
+    void forEachFriendship(IdPairConsumer consumer);
+
+    List<User> getFriends(long userId);
+
+    /**
+     * Друзья, общие для всех переданных пользователей, в порядке возрастания id.
+     */
+    List<User> getCommonFriends(Collection<Long> userIds);
+
 }
@@ -16,6 +16,10 @@ CREATE TABLE IF NOT EXISTS PUBLIC.FILMS (
 	CONSTRAINT FILMS_FK FOREIGN KEY (MPA_ID) REFERENCES PUBLIC.MPA(MPA_ID) ON DELETE CASCADE ON UPDATE RESTRICT
 );
 
+-- выборки по диапазону дат и продолжительности в обход индекса в памяти (FilmRangeIndex)
+CREATE INDEX IF NOT EXISTS FILMS_RELEASE_DATE_IDX ON PUBLIC.FILMS (RELEASE_DATE);
+CREATE INDEX IF NOT EXISTS FILMS_DURATION_IDX ON PUBLIC.FILMS (DURATION);
+
 CREATE TABLE IF NOT EXISTS PUBLIC.USERS (
 	USER_ID INTEGER NOT NULL AUTO_INCREMENT,
 	EMAIL CHARACTER VARYING(100) NOT NULL,
@@ -54,5 +58,42 @@ CREATE TABLE IF NOT EXISTS PUBLIC.FILMS_GENRES (
 	CONSTRAINT FILMS_GENRES_FK   FOREIGN KEY (FILM_ID) REFERENCES PUBLIC.FILMS(FILM_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
 	CONSTRAINT FILMS_GENRES_FK_1 FOREIGN KEY (GENRE_ID) REFERENCES PUBLIC.GENRES(GENRE_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
 	CONSTRAINT FILMS_GENRES_PK   PRIMARY KEY (FILM_ID, GENRE_ID)
-)
+);
+
+-- Счетчик лайков фильма разбит на несколько ячеек (SLOT = USER_ID mod число ячеек),
+-- чтобы одновременные лайки популярного фильма не ждали блокировку одной строки.
+CREATE TABLE IF NOT EXISTS PUBLIC.FILM_LIKE_COUNTERS (
+    FILM_ID     INTEGER NOT NULL,
+    SLOT        INTEGER NOT NULL,
+    LIKES_COUNT INTEGER DEFAULT 0 NOT NULL,
+	CONSTRAINT FILM_LIKE_COUNTERS_FK FOREIGN KEY (FILM_ID) REFERENCES PUBLIC.FILMS(FILM_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT FILM_LIKE_COUNTERS_PK PRIMARY KEY (FILM_ID, SLOT)
+);
+
+-- лайки удаляемого пользователя уходят из LIKES каскадом, счетчики уменьшает триггер (см. LikeCounterTrigger)
+CREATE TRIGGER IF NOT EXISTS PUBLIC.USERS_LIKE_COUNTERS_TRG BEFORE DELETE ON PUBLIC.USERS FOR EACH ROW
+    CALL 'ru.yandex.practicum.filmorate.storage.LikeCounterTrigger';
 
+
+-- Формат лайков "bitmap" (filmorate.likes.storage-format, см. BitmapLikeStore): лайкнувшие фильм пользователи
+-- лежат одним сериализованным битмапом Roaring, свежие лайки и отмены - в журнале FILM_LIKE_LOG
+-- (строка на пару фильм-пользователь, пока она расходится с битмапом), который сливается в битмап фоном.
+-- LIKES_COUNT - число лайков в битмапе без учета журнала, VERSION растет при каждой перезаписи битмапа.
+-- Удаляемого пользователя из битмапов убирает LikeCounterTrigger, из журнала - каскад.
+CREATE TABLE IF NOT EXISTS PUBLIC.FILM_LIKERS (
+    FILM_ID     INTEGER NOT NULL,
+    LIKERS      BLOB NOT NULL,
+    LIKES_COUNT INTEGER DEFAULT 0 NOT NULL,
+    VERSION     BIGINT DEFAULT 0 NOT NULL,
+	CONSTRAINT FILM_LIKERS_FK FOREIGN KEY (FILM_ID) REFERENCES PUBLIC.FILMS(FILM_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT FILM_LIKERS_PK PRIMARY KEY (FILM_ID)
+);
+
+CREATE TABLE IF NOT EXISTS PUBLIC.FILM_LIKE_LOG (
+    FILM_ID INTEGER NOT NULL,
+    USER_ID INTEGER NOT NULL,
+    DELTA   SMALLINT NOT NULL,
+	CONSTRAINT FILM_LIKE_LOG_FK FOREIGN KEY (FILM_ID) REFERENCES PUBLIC.FILMS(FILM_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT FILM_LIKE_LOG_FK_1 FOREIGN KEY (USER_ID) REFERENCES PUBLIC.USERS(USER_ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT FILM_LIKE_LOG_PK PRIMARY KEY (FILM_ID, USER_ID)
+);
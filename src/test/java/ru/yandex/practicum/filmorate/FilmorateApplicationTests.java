@@ -1,21 +1,30 @@
 package ru.yandex.practicum.filmorate;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ResourceNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ServiceUnavailableException;
 import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.index.FilmRangeIndex;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.LikeWriteBuffer;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.CachingFilmStorage;
 import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
 import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
 import ru.yandex.practicum.filmorate.storage.MpaDbStorage;
@@ -25,11 +34,22 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 
+@Slf4j
 @SpringBootTest
 @AutoConfigureTestDatabase
+@Import(StatementCounter.class)
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class FilmorateApplicationTests {
 
@@ -41,10 +61,16 @@ public class FilmorateApplicationTests {
 
     private final GenreDbStorage genreDbStorage;
 
+    private final CachingFilmStorage cachedFilmStorage;
+
     private final FilmService filmService;
 
     private final UserService userService;
 
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StatementCounter statementCounter;
+
     @Test
     @DirtiesContext
     public void getAllUsers() {
@@ -328,6 +354,353 @@ public class FilmorateApplicationTests {
     }
 
 
+    @Test
+    @DirtiesContext
+    public void likeCounterStaysConsistent() {
+        addTestUser();
+        addTestFilm();
+        filmStorage.addLike(1, 1);
+        assertFalse(filmStorage.addLike(1, 1), "Повторный лайк не должен учитываться.");
+        assertEquals(1, filmStorage.getLikesCount(1));
+        assertTrue(filmStorage.removeLike(1, 1));
+        assertFalse(filmStorage.removeLike(1, 1), "Повторное удаление лайка не должно учитываться.");
+        assertEquals(0, filmStorage.getLikesCount(1));
+    }
+
+    @Test
+    @DirtiesContext
+    public void streamsFilmsAndUsersPageByPage() {
+        // больше двух страниц по filmorate.streaming.fetch-size
+        int count = 1201;
+        List<User> users = new ArrayList<>();
+        List<Film> films = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            users.add(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+            Genre genre = new Genre();
+            genre.setId(1);
+            films.add(Film.builder()
+                    .name("Movie " + i)
+                    .description("Test description")
+                    .releaseDate(LocalDate.of(2012, 3, 10))
+                    .duration(115)
+                    .mpa(Mpa.builder().id(1).build())
+                    .genres(new ArrayList<>(List.of(genre)))
+                    .build());
+        }
+        userStorage.putAll(users);
+        filmStorage.putAll(films);
+        // лайки и дружба на границе страниц
+        filmStorage.addLike(500, 1);
+        filmStorage.addLike(501, 2);
+        filmStorage.addLike(count, 3);
+        userStorage.addFriend(500, 501);
+        userStorage.addFriend(501, 1);
+
+        List<Film> streamedFilms = new ArrayList<>();
+        filmStorage.forEachFilm(streamedFilms::add);
+        assertEquals(count, streamedFilms.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, streamedFilms.get(i).getId());
+            assertEquals(1, streamedFilms.get(i).getGenres().size());
+        }
+        assertEquals(Set.of(1L), streamedFilms.get(499).getLikes());
+        assertEquals(Set.of(2L), streamedFilms.get(500).getLikes());
+        assertEquals(Set.of(3L), streamedFilms.get(count - 1).getLikes());
+        assertEquals(3, streamedFilms.stream().mapToInt(Film::getLikesCount).sum());
+
+        List<User> streamedUsers = new ArrayList<>();
+        userStorage.forEachUser(streamedUsers::add);
+        assertEquals(count, streamedUsers.size());
+        assertEquals(Set.of(501L), streamedUsers.get(499).getFriends());
+        assertEquals(Set.of(1L), streamedUsers.get(500).getFriends());
+        assertEquals(2, streamedUsers.stream().mapToInt(user -> user.getFriends().size()).sum());
+    }
+
+    @Test
+    @DirtiesContext
+    public void likeCounterFollowsCascadeDelete() {
+        addTestFilm();
+        addTestFilm();
+        for (int i = 1; i <= 3; i++) {
+            userStorage.put(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+            filmStorage.addLike(1, i);
+        }
+        filmStorage.addLike(2, 2);
+
+        // удаление в обход хранилища: лайки уходят каскадом
+        jdbcTemplate.update("DELETE FROM PUBLIC.USERS WHERE user_id = ?", 2);
+        assertEquals(2, filmStorage.getLikesCount(1));
+        assertEquals(0, filmStorage.getLikesCount(2));
+        filmStorage.recountLikes();
+        assertEquals(2, filmStorage.getLikesCount(1));
+        assertEquals(0, filmStorage.getLikesCount(2));
+    }
+
+    @Test
+    @DirtiesContext
+    public void concurrentLikesOnOneFilm() throws Exception {
+        addTestFilm();
+        int users = 200;
+        for (int i = 1; i <= users; i++) {
+            userStorage.put(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            long userId = i;
+            // каждый пользователь лайкает дважды, каждый третий потом убирает лайк
+            tasks.add(executor.submit(() -> filmStorage.addLike(1, userId)));
+            tasks.add(executor.submit(() -> filmStorage.addLike(1, userId)));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        tasks.clear();
+        for (int i = 3; i <= users; i += 3) {
+            long userId = i;
+            tasks.add(executor.submit(() -> filmStorage.removeLike(1, userId)));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        int expected = users - users / 3;
+        assertEquals(expected, filmStorage.getFilm(1).get().getLikesCount());
+        assertEquals(expected, filmStorage.getLikesCount(1));
+        filmStorage.recountLikes();
+        assertEquals(expected, filmStorage.getLikesCount(1));
+    }
+
+    @Test
+    @DirtiesContext
+    public void writeBehindLikesMatchDirectWrites() throws Exception {
+        int users = 2000;
+        addTestFilm();
+        addTestFilm();
+        for (int i = 1; i <= users; i++) {
+            userStorage.put(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+        }
+
+        statementCounter.reset();
+        long start = System.nanoTime();
+        for (long userId = 1; userId <= users; userId++) {
+            filmStorage.addLike(1, userId);
+        }
+        long direct = System.nanoTime() - start;
+        int directStatements = statementCounter.get();
+
+        var buffer = new LikeWriteBuffer(filmStorage, true, 5, 500, 10_000);
+        statementCounter.reset();
+        start = System.nanoTime();
+        for (long userId = 1; userId <= users; userId++) {
+            buffer.enqueue(2, userId, true, () -> false);
+        }
+        // лайк и его отмена до сброса буфера не доходят до базы
+        buffer.enqueue(2, 1, false, () -> false);
+        buffer.enqueue(2, 1, true, () -> false);
+        buffer.enqueue(2, 2, false, () -> false);
+        buffer.shutdown();
+        long buffered = System.nanoTime() - start;
+        int bufferedStatements = statementCounter.get();
+        log.info("{} лайков: по одному — {} мс и {} запросов, через буфер — {} мс и {} запросов",
+                users, direct / 1_000_000, directStatements, buffered / 1_000_000, bufferedStatements);
+
+        assertTrue(bufferedStatements * 20 < directStatements,
+                "запросов через буфер " + bufferedStatements + ", по одному " + directStatements);
+        assertTrue(buffered < direct, "через буфер " + buffered / 1_000_000 + " мс, по одному " + direct / 1_000_000);
+
+        assertEquals(users, filmStorage.getLikesCount(1));
+        assertEquals(users - 1, filmStorage.getLikesCount(2));
+        assertEquals(users - 1, filmStorage.getFilm(2).get().getLikesCount());
+        assertFalse(filmStorage.getFilm(2).get().getLikes().contains(2L));
+        filmStorage.recountLikes();
+        assertEquals(users - 1, filmStorage.getLikesCount(2));
+    }
+
+    @Test
+    @DirtiesContext
+    public void writeBehindReportsEachLikeOnceWhileFlushing() throws Exception {
+        int users = 300;
+        addTestFilm();
+        for (int i = 1; i <= users; i++) {
+            userStorage.put(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+        }
+        // маленький пакет: сбросы идут все время, пока ставятся лайки
+        var buffer = new LikeWriteBuffer(filmStorage, true, 1, 10, 10_000);
+        AtomicInteger changes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            long userId = i;
+            for (int repeat = 0; repeat < 3; repeat++) {
+                tasks.add(executor.submit(() -> {
+                    if (buffer.enqueue(1, userId, true,
+                            () -> filmStorage.getFilm(1).orElseThrow().getLikes().contains(userId))) {
+                        changes.incrementAndGet();
+                    }
+                }));
+            }
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        buffer.shutdown();
+
+        assertEquals(users, changes.get(), "каждый лайк должен менять состояние один раз");
+        assertEquals(users, filmStorage.getLikesCount(1));
+    }
+
+    @Test
+    @DirtiesContext
+    public void pendingLikesAreVisibleBeforeFlush() throws Exception {
+        addTestFilm();
+        addTestUser();
+        var buffer = new LikeWriteBuffer(filmStorage, true, 60_000, 500, 10_000);
+
+        assertTrue(buffer.enqueue(1, 1, true, () -> false));
+        assertFalse(buffer.enqueue(1, 1, true, () -> false));
+        assertEquals(0, filmStorage.getLikesCount(1));
+        assertEquals(1, buffer.applyPending(filmStorage.getFilm(1).get()).getLikesCount());
+
+        buffer.flush();
+        assertEquals(1, filmStorage.getLikesCount(1));
+        assertTrue(buffer.enqueue(1, 1, false, () -> true));
+        assertEquals(0, buffer.applyPending(filmStorage.getFilm(1).get()).getLikesCount());
+        buffer.shutdown();
+        assertEquals(0, filmStorage.getLikesCount(1));
+    }
+
+    @Test
+    @DirtiesContext
+    public void writeBehindDropsOnlyRejectedLikesAndIsBounded() throws Exception {
+        addTestFilm();
+        addTestUser();
+        var buffer = new LikeWriteBuffer(filmStorage, true, 60_000, 500, 2);
+
+        assertTrue(buffer.enqueue(1, 1, true, () -> false));
+        assertTrue(buffer.enqueue(1, 999, true, () -> false));
+        assertThrows(ServiceUnavailableException.class, () -> buffer.enqueue(1, 2, true, () -> false));
+        // место берется до проверки очереди, поэтому отказ получает и пара, которая уже в ней стоит
+        assertThrows(ServiceUnavailableException.class, () -> buffer.enqueue(1, 1, false, () -> false));
+
+        // пакет падает на внешнем ключе, после чего пары пишутся по одной и отбрасывается только чужая
+        buffer.flush();
+        assertEquals(1, filmStorage.getLikesCount(1));
+        assertTrue(buffer.enqueue(1, 1, false, () -> true));
+        assertTrue(buffer.enqueue(1, 999, true, () -> false));
+        buffer.shutdown();
+        assertEquals(0, filmStorage.getLikesCount(1));
+    }
+
+    @Test
+    @DirtiesContext
+    public void cachedLikeCountsAreFreshAfterWrites() throws Exception {
+        addTestFilm();
+        int users = 100;
+        for (int i = 1; i <= users; i++) {
+            userStorage.put(User.builder()
+                    .email("user" + i + "@email.ru")
+                    .login("user" + i)
+                    .name("User " + i)
+                    .birthday(LocalDate.of(1990, 3, 2))
+                    .build());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            long userId = i;
+            tasks.add(executor.submit(() -> {
+                cachedFilmStorage.getFilm(1);
+                cachedFilmStorage.addLike(1, userId);
+                // после возврата из записи кэш не может отдать фильм без этого лайка
+                assertTrue(cachedFilmStorage.getFilm(1).get().getLikes().contains(userId));
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        assertEquals(users, cachedFilmStorage.getFilm(1).get().getLikesCount());
+        assertTrue(cachedFilmStorage.getStats().requestCount() > 0);
+        assertTrue(cachedFilmStorage.getFilm(999).isEmpty());
+        assertTrue(cachedFilmStorage.getFilm(999).isEmpty());
+        assertEquals(1, cachedFilmStorage.getMissingStats().hitCount());
+    }
+
+    @Test
+    @DirtiesContext
+    public void storageFilterMatchesFilterIndexes() {
+        Random random = new Random(22);
+        for (int i = 0; i < 300; i++) {
+            Film film = makeTestFilm();
+            film.setReleaseDate(LocalDate.of(1980, 1, 1).plusDays(random.nextInt(15_000)));
+            film.setDuration(60 + random.nextInt(120));
+            film.setMpa(Mpa.builder().id(1 + random.nextInt(5)).build());
+            film.setGenres(random.ints(1, 7).distinct().limit(random.nextInt(4)).mapToObj(id -> {
+                Genre genre = new Genre();
+                genre.setId(id);
+                return genre;
+            }).collect(Collectors.toList()));
+            filmStorage.put(film);
+        }
+        var rangeIndex = new FilmRangeIndex();
+        var facetIndex = new FilmFacetIndex(rangeIndex);
+        rangeIndex.rebuild(filmStorage::forEachFilmReleaseDay, filmStorage::forEachFilmDuration);
+        facetIndex.rebuild(filmStorage::forEachFilmMpa, filmStorage::forEachFilmGenre);
+
+        // база отбирает то же, что индексы, пока они не построены
+        for (int i = 0; i < 100; i++) {
+            FilmFilter filter = new FilmFilter();
+            if (random.nextBoolean()) {
+                filter.setGenre(List.of(1 + random.nextInt(6)));
+            }
+            if (random.nextBoolean()) {
+                filter.setMpa(List.of(1 + random.nextInt(5), 1 + random.nextInt(5)));
+            }
+            if (random.nextBoolean()) {
+                LocalDate from = LocalDate.of(1980, 1, 1).plusDays(random.nextInt(15_000));
+                filter.setReleasedFrom(from);
+                filter.setReleasedTo(from.plusDays(random.nextInt(8_000)));
+            }
+            if (random.nextBoolean()) {
+                filter.setMaxDuration(60 + random.nextInt(120));
+            }
+            long afterId = random.nextInt(200);
+            assertEquals(facetIndex.filter(filter, afterId, 10), filmStorage.filterFilms(filter, afterId, 10),
+                    filter.toString());
+        }
+    }
+
     private static Film makeTestFilm() {
         return Film.builder()
                 .name("Test Movie")
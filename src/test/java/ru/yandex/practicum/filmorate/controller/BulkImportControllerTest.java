@@ -0,0 +1,184 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@Slf4j
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureTestDatabase
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class BulkImportControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void importFilmsReportsErrorsPerLine() throws Exception {
+        String body = String.join("\n",
+                makeMovie("Movie 1", 1),
+                "{not json",
+                "",
+                makeMovie("Movie 2", 99),
+                "{\"name\": \"\", \"description\": \"d\", \"duration\": 22, \"mpa\": {\"id\": 1}, "
+                        + "\"releaseDate\": \"2012-04-23\"}",
+                makeMovie("Movie 3", 2));
+
+        importNdjson("/films/bulk", body)
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.ids.length()").value(6))
+                .andExpect(jsonPath("$.ids[0]").value(1))
+                .andExpect(jsonPath("$.ids[1]").value(Matchers.nullValue()))
+                .andExpect(jsonPath("$.ids[5]").value(2))
+                .andExpect(jsonPath("$.errors.length()").value(3))
+                .andExpect(jsonPath("$.errors[0].line").value(2))
+                .andExpect(jsonPath("$.errors[1].line").value(4))
+                .andExpect(jsonPath("$.errors[2].line").value(5));
+
+        mockMvc.perform(get("/films/2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Movie 3"))
+                .andExpect(jsonPath("$.genres.length()").value(1));
+    }
+
+    @Test
+    public void importUsersLikesAndFriends() throws Exception {
+        importNdjson("/users/bulk", String.join("\n",
+                makeUser("user1"), makeUser("user2"), makeUser("user3"), makeUser("user1")))
+                .andExpect(jsonPath("$.accepted").value(3))
+                .andExpect(jsonPath("$.ids[2]").value(3))
+                .andExpect(jsonPath("$.errors[0].line").value(4));
+        importNdjson("/films/bulk", String.join("\n", makeMovie("Movie 1", 1), makeMovie("Movie 2", 1)));
+
+        importNdjson("/likes/bulk", String.join("\n",
+                "{\"filmId\": 2, \"userId\": 1}",
+                "{\"filmId\": 2, \"userId\": 2}",
+                "{\"filmId\": 2, \"userId\": 2}",
+                "{\"filmId\": 1, \"userId\": 3}",
+                "{\"filmId\": 7, \"userId\": 3}"))
+                .andExpect(jsonPath("$.accepted").value(4))
+                .andExpect(jsonPath("$.ids").doesNotExist())
+                .andExpect(jsonPath("$.errors[0].line").value(5));
+        mockMvc.perform(get("/films/popular?count=1"))
+                .andExpect(jsonPath("$[0].id").value(2))
+                .andExpect(jsonPath("$[0].likesCount").value(2));
+
+        importNdjson("/friends/bulk", String.join("\n",
+                "{\"userId\": 1, \"friendId\": 3}",
+                "{\"userId\": 2, \"friendId\": 3}",
+                "{\"userId\": 2, \"friendId\": 2}",
+                "{\"userId\": 2, \"friendId\": 9}"))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.errors.length()").value(2));
+        mockMvc.perform(get("/users/1/friends/common/2"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(3));
+    }
+
+    @Test
+    public void importsInlineLikesAndFriends() throws Exception {
+        importNdjson("/users/bulk", String.join("\n", makeUser("user1"), makeUser("user2")));
+        importNdjson("/users/bulk", String.join("\n",
+                makeUser("user3").replace("}", ", \"friends\": [1, 2]}"),
+                makeUser("user4").replace("}", ", \"friends\": [1, 9]}"),
+                makeUser("user5").replace("}", ", \"friends\": [1]}")))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.ids[2]").value(4))
+                .andExpect(jsonPath("$.errors[0].line").value(2))
+                .andExpect(jsonPath("$.errors[0].error").value("пользователь 9 не найден"));
+        mockMvc.perform(get("/users/3/friends/common/4"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(1));
+
+        importNdjson("/films/bulk", String.join("\n",
+                makeMovie("Movie 1", 1).replaceFirst("\\}$", ", \"likes\": [1]}"),
+                makeMovie("Movie 2", 1).replaceFirst("\\}$", ", \"likes\": [1, 7]}"),
+                makeMovie("Movie 3", 1).replaceFirst("\\}$", ", \"likes\": [1, 2, 3]}")))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.errors[0].line").value(2))
+                .andExpect(jsonPath("$.errors[0].error").value("пользователь 7 не найден"));
+        mockMvc.perform(get("/films/popular?count=1"))
+                .andExpect(jsonPath("$[0].id").value(2))
+                .andExpect(jsonPath("$[0].likesCount").value(3));
+    }
+
+    @Test
+    public void bulkImportIsFasterThanSingleRequests() throws Exception {
+        int films = 300;
+        int bulkFilms = films * 10;
+        String body = IntStream.range(0, bulkFilms)
+                .mapToObj(i -> makeMovie("Bulk " + i, 1))
+                .collect(Collectors.joining("\n"));
+        // прогрев обоих путей, чтобы сравнивать не время JIT-компиляции
+        for (int i = 0; i < films; i++) {
+            postFilm("Warm-up " + i);
+        }
+        importNdjson("/films/bulk", body);
+        int existing = films + bulkFilms;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < films; i++) {
+            postFilm("Single " + i);
+        }
+        long single = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        importNdjson("/films/bulk", body)
+                .andExpect(jsonPath("$.accepted").value(bulkFilms))
+                .andExpect(jsonPath("$.ids[" + (bulkFilms - 1) + "]").value(existing + films + bulkFilms));
+        long bulk = System.nanoTime() - start;
+        log.info("Фильмов в секунду: по одному — {}, пакетом — {}",
+                films * 1_000_000_000L / single, bulkFilms * 1_000_000_000L / bulk);
+
+        mockMvc.perform(get("/films?limit=1&after=" + (existing + films + bulkFilms - 1)))
+                .andExpect(jsonPath("$.items[0].name").value("Bulk " + (bulkFilms - 1)));
+    }
+
+    private void postFilm(String name) throws Exception {
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(makeMovie(name, 1)))
+                .andExpect(status().isCreated());
+    }
+
+    private ResultActions importNdjson(String url, String body) throws Exception {
+        return mockMvc.perform(post(url)
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(status().isOk());
+    }
+
+    private static String makeMovie(String name, int genreId) {
+        return String.format(
+                "{\"name\": \"%s\","
+                + "\"description\": \"descriptionItem\","
+                + "\"duration\": 22,"
+                + "\"mpa\": { \"id\": 1}, "
+                + "\"genres\": [{ \"id\": %d}], "
+                + "\"releaseDate\": \"2012-04-23\"}", name, genreId);
+    }
+
+    private static String makeUser(String login) {
+        return String.format(
+                "{\"login\": \"%s\","
+                + "\"name\": \"\","
+                + "\"email\": \"email%s@mail.ru\","
+                + "\"birthday\": \"1990-04-23\"}",
+                login, login);
+    }
+}
@@ -8,11 +8,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.yandex.practicum.filmorate.StatementCounter;
+import ru.yandex.practicum.filmorate.service.LikeIndexRefresher;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -21,11 +35,18 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Import(StatementCounter.class)
 class FilmControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Autowired
+    private LikeIndexRefresher likeIndexRefresher;
+
     @AfterEach
     public void restartMockMvc() {
         MockMvcBuilders.standaloneSetup().build();
@@ -212,6 +233,406 @@ class FilmControllerTest {
 
         mockMvc.perform(get("/films/popular?count=100"))
                 .andExpect(jsonPath("$.length()").value(11));
+
+        mockMvc.perform(get("/films/popular?count=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films/popular?count=10000000")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getSimilarFilms() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content(makeMovieWithName("Movie " + i)))
+                    .andExpect(status().isCreated());
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserWithLogin("login" + i)))
+                    .andExpect(status().isCreated());
+        }
+        // фильм 1 лайкали пользователи 1-3; с ним фильм 3 лайкали двое из них, фильм 2 — один
+        for (String like : new String[]{"1/like/1", "1/like/2", "1/like/3", "3/like/1", "3/like/2",
+                "2/like/3", "4/like/4"}) {
+            mockMvc.perform(put("/films/" + like)).andExpect(status().isOk());
+        }
+
+        mockMvc.perform(get("/films/1/similar"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        likeIndexRefresher.rebuildIfStale();
+
+        mockMvc.perform(get("/films/1/similar"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name").value(Matchers.contains("Movie 3", "Movie 2")))
+                .andExpect(jsonPath("$[0].likesCount").value(2));
+        mockMvc.perform(get("/films/1/similar?count=1"))
+                .andExpect(jsonPath("$.length()").value(1));
+        mockMvc.perform(get("/films/4/similar"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/films/200/similar")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/films/1/similar?count=0")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getFilmsUsesConstantNumberOfStatements() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserWithLogin("login" + i)))
+                    .andExpect(status().isCreated());
+        }
+
+        addLikedFilmsWithGenres(1, 3);
+        statementCounter.reset();
+        mockMvc.perform(get("/films"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].genres.length()").value(2))
+                .andExpect(jsonPath("$[0].likesCount").value(3));
+        int smallCatalogStatements = statementCounter.get();
+
+        addLikedFilmsWithGenres(4, 30);
+        statementCounter.reset();
+        mockMvc.perform(get("/films"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(30))
+                .andExpect(jsonPath("$[29].genres.length()").value(2))
+                .andExpect(jsonPath("$[29].likesCount").value(3));
+        int largeCatalogStatements = statementCounter.get();
+
+        assertEquals(3, smallCatalogStatements, "Фильмы, лайки и жанры должны читаться тремя запросами.");
+        assertEquals(smallCatalogStatements, largeCatalogStatements, "Число запросов зависит от размера каталога.");
+
+        // фильмов больше, чем id в одном списке IN
+        mockMvc.perform(post("/films/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(IntStream.rangeClosed(31, 1200)
+                                .mapToObj(i -> makeMovie("Bulk " + i, 1, 1))
+                                .collect(Collectors.joining("\n"))))
+                .andExpect(status().isOk());
+        statementCounter.reset();
+        mockMvc.perform(get("/films"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1200))
+                .andExpect(jsonPath("$[1199].genres.length()").value(1));
+        assertEquals(smallCatalogStatements, statementCounter.get(), "Число запросов зависит от размера каталога.");
+    }
+
+    @Test
+    public void getPopularDoesNotDependOnCatalogSize() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserWithLogin("login" + i)))
+                    .andExpect(status().isCreated());
+        }
+        addLikedFilmsWithGenres(1, 5);
+        statementCounter.reset();
+        mockMvc.perform(get("/films/popular?count=2"))
+                .andExpect(jsonPath("$.length()").value(2));
+        int smallCatalogStatements = statementCounter.get();
+
+        addLikedFilmsWithGenres(6, 40);
+        mockMvc.perform(post("/films")
+                        .contentType("application/json")
+                        .content(makeMovieWithName("Unliked movie")))
+                .andExpect(status().isCreated());
+        statementCounter.reset();
+        mockMvc.perform(get("/films/popular?count=2"))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[1].id").value(2));
+
+        // первые фильмы уже в кэше, поэтому запросов может стать только меньше
+        assertTrue(statementCounter.get() <= smallCatalogStatements, "Число запросов зависит от размера каталога.");
+        mockMvc.perform(get("/films/popular?count=100"))
+                .andExpect(jsonPath("$.length()").value(41))
+                .andExpect(jsonPath("$[40].name").value("Unliked movie"));
+    }
+
+    @Test
+    public void getFilmsByPages() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content(makeMovieWithName("Movie " + i)))
+                    .andExpect(status().isCreated());
+        }
+
+        mockMvc.perform(get("/films?limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].id").value(1))
+                .andExpect(jsonPath("$.nextCursor").value(2));
+        mockMvc.perform(get("/films?after=2&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value(3))
+                .andExpect(jsonPath("$.items[1].id").value(4))
+                .andExpect(jsonPath("$.nextCursor").value(4));
+        mockMvc.perform(get("/films?after=4&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.nextCursor").value(Matchers.nullValue()));
+
+        mockMvc.perform(get("/films?limit=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films?limit=100000")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films?after=-1&limit=2")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films?after=2")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getFilmsByIds() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserWithLogin("login" + i)))
+                    .andExpect(status().isCreated());
+        }
+        addLikedFilmsWithGenres(1, 3);
+
+        statementCounter.reset();
+        mockMvc.perform(get("/films").param("ids", "3,99,1,3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].id").value(3))
+                .andExpect(jsonPath("$.items[0].genres.length()").value(2))
+                .andExpect(jsonPath("$.items[0].likesCount").value(3))
+                .andExpect(jsonPath("$.items[1].id").value(1))
+                .andExpect(jsonPath("$.missingIds.length()").value(1))
+                .andExpect(jsonPath("$.missingIds[0]").value(99));
+        // фильмы с лайками уже в кэше, но и без него страница грузится тремя запросами
+        assertTrue(statementCounter.get() <= 3, "запросов к базе: " + statementCounter.get());
+
+        mockMvc.perform(get("/films").param("ids", "")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void filterFilmsByGenreAndMpa() throws Exception {
+        String[] films = {
+                makeMovie("Movie 1", 1, 1, 2),
+                makeMovie("Movie 2", 2, 1),
+                makeMovie("Movie 3", 1, 2),
+                makeMovie("Movie 4", 3, 1, 2),
+                makeMovie("Movie 5", 1, 1, 2, 3)
+        };
+        for (String film : films) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content(film))
+                    .andExpect(status().isCreated());
+        }
+
+        mockMvc.perform(get("/films?genre=1&genre=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(1, 4, 5)))
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.genres").value(Matchers.equalTo(Map.of("1", 3, "2", 3, "3", 1))))
+                .andExpect(jsonPath("$.mpa").value(Matchers.equalTo(Map.of("1", 2, "3", 1))));
+
+        // счетчики рейтингов не зависят от выбранного рейтинга
+        statementCounter.reset();
+        mockMvc.perform(get("/films?genre=1&genre=2&mpa=1&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.items[0].genres.length()").value(2))
+                .andExpect(jsonPath("$.nextCursor").value(1))
+                .andExpect(jsonPath("$.total").value(2))
+                .andExpect(jsonPath("$.mpa").value(Matchers.equalTo(Map.of("1", 2, "3", 1))));
+        assertTrue(statementCounter.get() <= 3, "Читается только страница фильмов.");
+        mockMvc.perform(get("/films?genre=1&genre=2&mpa=1&after=1&limit=1"))
+                .andExpect(jsonPath("$.items[0].id").value(5))
+                .andExpect(jsonPath("$.nextCursor").value(Matchers.nullValue()));
+        mockMvc.perform(get("/films?mpa=2&mpa=3"))
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(2, 4)));
+
+        mockMvc.perform(put("/films")
+                        .contentType("application/json")
+                        .content(makeMovie("Movie 2", 1, 2).replace("{\"name\"", "{\"id\": 2, \"name\"")))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/films?genre=2&mpa=1"))
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(1, 2, 3, 5)));
+        mockMvc.perform(get("/films?mpa=2"))
+                .andExpect(jsonPath("$.total").value(0));
+
+        mockMvc.perform(get("/films?genre=1&limit=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films?mpa=1&after=-1")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void filterFilmsByReleaseDateAndDuration() throws Exception {
+        String[][] films = {{"1985-07-03", "116"}, {"1999-03-31", "136"}, {"2003-05-15", "138"}, {"2010-07-16", "88"}};
+        for (String[] film : films) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content(makeMovie("Movie", 1, 1)
+                                    .replace("2012-04-23", film[0])
+                                    .replace("\"duration\": 22", "\"duration\": " + film[1])))
+                    .andExpect(status().isCreated());
+        }
+
+        mockMvc.perform(get("/films?releasedFrom=1999-03-31&releasedTo=2003-05-15"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(2, 3)));
+        mockMvc.perform(get("/films?maxDuration=90"))
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(4)));
+        mockMvc.perform(get("/films?releasedTo=2005-01-01&minDuration=120&genre=1&limit=1"))
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(2)))
+                .andExpect(jsonPath("$.nextCursor").value(2))
+                .andExpect(jsonPath("$.total").value(2));
+
+        mockMvc.perform(put("/films")
+                        .contentType("application/json")
+                        .content(makeMovie("Movie", 1, 1)
+                                .replace("{\"name\"", "{\"id\": 2, \"name\"")
+                                .replace("\"duration\": 22", "\"duration\": 80")))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/films?maxDuration=90"))
+                .andExpect(jsonPath("$.items[*].id").value(Matchers.contains(2, 4)));
+        mockMvc.perform(get("/films?releasedFrom=1999-01-01&releasedTo=2000-01-01"))
+                .andExpect(jsonPath("$.total").value(0));
+
+        mockMvc.perform(get("/films?releasedFrom=31.03.1999")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films")).andExpect(jsonPath("$.length()").value(4));
+        mockMvc.perform(get("/films?limit=2")).andExpect(jsonPath("$.items.length()").value(2));
+    }
+
+    @Test
+    public void genresAreServedFromReferenceCache() throws Exception {
+        statementCounter.reset();
+        mockMvc.perform(get("/genres"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(6))
+                .andExpect(jsonPath("$[0].id").value(1));
+        mockMvc.perform(get("/genres/2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(2));
+        mockMvc.perform(get("/genres/100"))
+                .andExpect(status().isNotFound());
+        assertEquals(0, statementCounter.get(), "Справочник жанров читается из базы");
+    }
+
+    @Test
+    public void streamFilms() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserWithLogin("login" + i)))
+                    .andExpect(status().isCreated());
+        }
+        addLikedFilmsWithGenres(1, 3);
+
+        MvcResult ndjson = mockMvc.perform(get("/films?stream=ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[2].contains("\"name\":\"Movie 3\""));
+        assertTrue(lines[2].contains("\"likesCount\":3"));
+
+        MvcResult json = mockMvc.perform(get("/films?stream=json"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].genres.length()").value(2))
+                .andExpect(jsonPath("$[2].likes.length()").value(3));
+    }
+
+    @Test
+    public void statementsPerRequest() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType("application/json")
+                        .content(makeUserWithLogin("login")))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/films")
+                        .contentType("application/json")
+                        .content(makeMovieWithName("Movie")))
+                .andExpect(status().isCreated());
+
+        assertStatements(3, get("/films/1"), status().isOk());
+        assertStatements(1, get("/films/999"), status().isNotFound());
+        assertStatements(2, put("/films/1/like/1"), status().isOk());
+        assertStatements(2, put("/films/1/like/999"), status().isNotFound());
+        assertStatements(2, delete("/films/1/like/1"), status().isOk());
+        assertStatements(3, get("/films/popular?count=1"), status().isOk());
+        assertStatements(0, get("/films/popular?count=1"), status().isOk());
+    }
+
+    @Test
+    public void likesAndFriendsInRequestBodyAreIgnored() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType("application/json")
+                        .content(makeUserWithLogin("first")))
+                .andExpect(status().isCreated());
+        String second = makeUserWithLogin("second");
+        // лайки и друзья меняются только своими запросами: из тела они не пишутся, даже с чужими id
+        mockMvc.perform(post("/users")
+                        .contentType("application/json")
+                        .content(second.substring(0, second.length() - 1) + ", \"friends\": [1, 999]}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.friends.length()").value(0));
+        String movie = makeMovieWithName("Movie");
+        mockMvc.perform(post("/films")
+                        .contentType("application/json")
+                        .content(movie.substring(0, movie.length() - 1) + ", \"likes\": [1, 999]}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.likes.length()").value(0));
+
+        mockMvc.perform(get("/users/2/friends"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/films/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.likesCount").value(0));
+        mockMvc.perform(get("/films/popular?count=1"))
+                .andExpect(jsonPath("$[0].likesCount").value(0));
+    }
+
+    private void assertStatements(int max, MockHttpServletRequestBuilder request, ResultMatcher expectedStatus)
+            throws Exception {
+        statementCounter.reset();
+        MvcResult result = mockMvc.perform(request).andExpect(expectedStatus).andReturn();
+        int used = statementCounter.get();
+        assertTrue(used <= max, String.format("%s %s: запросов к базе %d, ожидалось не больше %d",
+                result.getRequest().getMethod(), result.getRequest().getRequestURI(), used, max));
+    }
+
+    private void addLikedFilmsWithGenres(int from, int to) throws Exception {
+        for (int i = from; i <= to; i++) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content(String.format(
+                                    "{\"name\": \"Movie %d\","
+                                    + "\"description\": \"descriptionItem\","
+                                    + "\"duration\": 22,"
+                                    + "\"mpa\": { \"id\": 1}, "
+                                    + "\"genres\": [{ \"id\": 1}, { \"id\": 2}], "
+                                    + "\"releaseDate\": \"2012-04-23\"}", i)))
+                    .andExpect(status().isCreated());
+            for (int userId = 1; userId <= 3; userId++) {
+                mockMvc.perform(put("/films/" + i + "/like/" + userId)).andExpect(status().isOk());
+            }
+        }
+    }
+
+    private static String makeMovie(String name, int mpaId, int... genreIds) {
+        StringJoiner genres = new StringJoiner(", ", "[", "]");
+        for (int genreId : genreIds) {
+            genres.add("{ \"id\": " + genreId + "}");
+        }
+        return String.format(
+                "{\"name\": \"%s\","
+                + "\"description\": \"descriptionItem\","
+                + "\"duration\": 22,"
+                + "\"mpa\": { \"id\": %d}, "
+                + "\"genres\": %s, "
+                + "\"releaseDate\": \"2012-04-23\"}", name, mpaId, genres);
     }
 
     private static String makeMovieWithName(String name) {
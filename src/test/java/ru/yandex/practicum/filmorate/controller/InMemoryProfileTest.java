@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("in-memory")
+class InMemoryProfileTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void servesApiWithoutDatabase() throws Exception {
+        assertEquals(0, context.getBeanNamesForType(DataSource.class).length);
+
+        for (String login : new String[]{"user1", "user2", "user3"}) {
+            mockMvc.perform(post("/users")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(String.format("{\"login\": \"%s\", \"name\": \"\", "
+                                    + "\"email\": \"%s@mail.ru\", \"birthday\": \"1990-04-23\"}", login, login)))
+                    .andExpect(status().isCreated());
+        }
+        mockMvc.perform(post("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\": \"Movie\", \"description\": \"d\", \"duration\": 22, "
+                                + "\"mpa\": {\"id\": 3}, \"genres\": [{\"id\": 2}], \"releaseDate\": \"2012-04-23\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(1));
+
+        mockMvc.perform(put("/films/1/like/2")).andExpect(status().isOk());
+        mockMvc.perform(put("/users/1/friends/3")).andExpect(status().isOk());
+        mockMvc.perform(put("/users/2/friends/3")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/films/1"))
+                .andExpect(jsonPath("$.mpa.name").value("PG-13"))
+                .andExpect(jsonPath("$.genres[0].name").value("Драма"))
+                .andExpect(jsonPath("$.likesCount").value(1));
+        mockMvc.perform(get("/films/popular?count=1"))
+                .andExpect(jsonPath("$[0].id").value(1));
+        mockMvc.perform(get("/users/1/friends/common/2"))
+                .andExpect(jsonPath("$[0].id").value(3));
+        mockMvc.perform(get("/genres"))
+                .andExpect(jsonPath("$.length()").value(6));
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\": \"user1\", \"name\": \"\", "
+                                + "\"email\": \"other@mail.ru\", \"birthday\": \"1990-04-23\"}"))
+                .andExpect(status().isBadRequest());
+    }
+}
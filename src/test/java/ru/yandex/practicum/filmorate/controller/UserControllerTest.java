@@ -2,16 +2,32 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.yandex.practicum.filmorate.StatementCounter;
+import ru.yandex.practicum.filmorate.service.LikeIndexRefresher;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -20,11 +36,27 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Import(StatementCounter.class)
 class UserControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private LikeIndexRefresher likeIndexRefresher;
+
+    @Autowired
+    private UserDbStorage userStorage;
+
+    @Autowired
+    private UserService userService;
+
     @AfterEach
     public void restartMockMvc() {
         MockMvcBuilders.standaloneSetup().build();
@@ -164,6 +196,219 @@ class UserControllerTest {
                 .andExpect(jsonPath("$.length()").value(0));
     }
 
+    @Test
+    public void getFriendSuggestions() throws Exception {
+        createUserWithFriends();
+
+        mockMvc.perform(get("/users/1/friends/suggestions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(4));
+        mockMvc.perform(get("/users/4/friends/suggestions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(put("/users/1/friends/4")).andExpect(status().isOk());
+        mockMvc.perform(get("/users/1/friends/suggestions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(get("/users/99/friends/suggestions")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/users/1/friends/suggestions?count=0")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getCommonFriendsOfSeveralUsers() throws Exception {
+        createUserWithFriends();
+        mockMvc.perform(put("/users/4/friends/3")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/users/1/friends/common").param("others", "2,4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(3));
+        mockMvc.perform(get("/users/1/friends/common").param("others", "2,4,3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/users/1/friends/common").param("others", "2,99"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/users/1/friends/common").param("others", ""))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getRecommendations() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserString("login" + i, "User " + i, "email" + i + "@mail.ru")))
+                    .andExpect(status().isCreated());
+        }
+        for (int i = 1; i <= 4; i++) {
+            mockMvc.perform(post("/films")
+                            .contentType("application/json")
+                            .content("{\"name\": \"Movie " + i + "\","
+                                    + "\"description\": \"descriptionItem\","
+                                    + "\"duration\": 22,"
+                                    + "\"mpa\": { \"id\": 1}, "
+                                    + "\"releaseDate\": \"2012-04-23\"}"))
+                    .andExpect(status().isCreated());
+        }
+        for (String like : new String[]{"1/like/1", "2/like/1", "1/like/2", "2/like/2", "3/like/2", "4/like/3"}) {
+            mockMvc.perform(put("/films/" + like)).andExpect(status().isOk());
+        }
+
+        // вкусы других пользователей индекс узнает при пересборке
+        mockMvc.perform(get("/users/1/recommendations"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        likeIndexRefresher.rebuildIfStale();
+        mockMvc.perform(get("/users/1/recommendations"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value("Movie 3"));
+
+        // свой лайк сбрасывает кэш рекомендаций сразу
+        mockMvc.perform(put("/films/3/like/1")).andExpect(status().isOk());
+        mockMvc.perform(get("/users/1/recommendations"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(get("/users/99/recommendations")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/users/1/recommendations?count=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users/1/recommendations?count=101")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/actuator/metrics/filmorate.recommendations.index.users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(3.0));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void friendListsUseConstantNumberOfStatements() throws Exception {
+        int friends = 5_000;
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 1; i <= friends + 2; i++) {
+            users.add(new Object[]{"email" + i + "@mail.ru", "Login" + i, "Name", LocalDate.of(1990, 1, 1)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.USERS (EMAIL, LOGIN, NAME, BIRTHDAY) values (?, ?, ?, ?)", users);
+        List<Object[]> friendships = new ArrayList<>();
+        for (int i = 3; i <= friends + 2; i++) {
+            friendships.add(new Object[]{1, i});
+            if (i % 2 == 0) {
+                friendships.add(new Object[]{2, i});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO PUBLIC.FRIENDS (USER_ID, FRIEND_ID) values (?, ?)", friendships);
+        userService.warmUpIndexes();
+
+        assertStatements(3, get("/users/1/friends"), status().isOk());
+        mockMvc.perform(get("/users/1/friends"))
+                .andExpect(jsonPath("$.length()").value(friends));
+
+        statementCounter.reset();
+        assertEquals(friends / 2, userStorage.getCommonFriends(List.of(1L, 2L)).size());
+        assertEquals(2, statementCounter.get(), "Общие друзья должны загружаться двумя запросами");
+
+        // из графа в памяти пользователи загружаются порциями по 500 id
+        assertStatements(2 + 2 * (friends / 2 / 500), get("/users/1/friends/common/2"), status().isOk());
+        mockMvc.perform(get("/users/1/friends/common/2"))
+                .andExpect(jsonPath("$.length()").value(friends / 2));
+    }
+
+    @Test
+    public void getUsersByIds() throws Exception {
+        createUserWithFriends();
+
+        mockMvc.perform(get("/users").param("ids", "4,7,2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].id").value(4))
+                .andExpect(jsonPath("$.items[1].id").value(2))
+                .andExpect(jsonPath("$.items[1].friends.length()").value(2))
+                .andExpect(jsonPath("$.missingIds[0]").value(7));
+        mockMvc.perform(get("/users").param("ids", "")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getUsersLoadsFriendsWithSingleQuery() throws Exception {
+        createUserWithFriends();
+        statementCounter.reset();
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[0].friends.length()").value(2))
+                .andExpect(jsonPath("$[1].friends.length()").value(2));
+        int fourUsersStatements = statementCounter.get();
+
+        for (int i = 5; i <= 20; i++) {
+            mockMvc.perform(post("/users")
+                            .contentType("application/json")
+                            .content(makeUserString("Login" + i, "Name", "email" + i + "@mail.ru")))
+                    .andExpect(status().isCreated());
+            mockMvc.perform(put("/users/" + i + "/friends/1")).andExpect(status().isOk());
+        }
+        statementCounter.reset();
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(20))
+                .andExpect(jsonPath("$[19].friends[0]").value(1));
+
+        assertEquals(2, fourUsersStatements, "Пользователи и друзья должны читаться двумя запросами.");
+        assertEquals(fourUsersStatements, statementCounter.get(), "Число запросов зависит от числа пользователей.");
+    }
+
+    @Test
+    public void getUsersByPages() throws Exception {
+        createUserWithFriends();
+
+        mockMvc.perform(get("/users?limit=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(3))
+                .andExpect(jsonPath("$.items[0].friends.length()").value(2))
+                .andExpect(jsonPath("$.nextCursor").value(3));
+        mockMvc.perform(get("/users?after=3&limit=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(1))
+                .andExpect(jsonPath("$.items[0].id").value(4))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+        mockMvc.perform(get("/users?limit=-1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users?after=2")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void streamUsers() throws Exception {
+        createUserWithFriends();
+        MvcResult result = mockMvc.perform(get("/users?stream=json"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$[1].friends.length()").value(2));
+    }
+
+    @Test
+    public void statementsPerRequest() throws Exception {
+        createUserWithFriends();
+
+        assertStatements(2, get("/users/1"), status().isOk());
+        assertStatements(1, get("/users/99"), status().isNotFound());
+        assertStatements(4, put("/users/1/friends/4"), status().isOk());
+        assertStatements(3, put("/users/1/friends/99"), status().isNotFound());
+        assertStatements(4, delete("/users/1/friends/4"), status().isOk());
+        assertStatements(2, put("/users").contentType("application/json")
+                .content("{\"id\": 1, \"login\": \"NewLogin\", \"email\": \"new@mail.ru\", "
+                        + "\"birthday\": \"1990-04-23\"}"), status().isOk());
+    }
+
+    private void assertStatements(int max, MockHttpServletRequestBuilder request, ResultMatcher expectedStatus)
+            throws Exception {
+        statementCounter.reset();
+        MvcResult result = mockMvc.perform(request).andExpect(expectedStatus).andReturn();
+        int used = statementCounter.get();
+        assertTrue(used <= max, String.format("%s %s: запросов к базе %d, ожидалось не больше %d",
+                result.getRequest().getMethod(), result.getRequest().getRequestURI(), used, max));
+    }
+
     private void createUserWithFriends() throws Exception {
         mockMvc.perform(post("/users")
                         .contentType("application/json")
@@ -0,0 +1,99 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.FacetedPage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilmFacetIndexTest {
+
+    @Test
+    void filterAndCount() {
+        var index = new FilmFacetIndex(new FilmRangeIndex());
+        assertFalse(index.isWarm());
+        index.rebuild(mpas -> {
+            mpas.accept(1, 1);
+            mpas.accept(2, 2);
+            mpas.accept(3, 1);
+            mpas.accept(4, 3);
+        }, genres -> {
+            genres.accept(1, 1);
+            genres.accept(1, 2);
+            genres.accept(2, 1);
+            genres.accept(3, 2);
+            genres.accept(4, 1);
+            genres.accept(4, 2);
+        });
+        assertTrue(index.isWarm());
+
+        FacetedPage<Long> page = index.filter(filter(List.of(1, 2), List.of()), 0, 10);
+        assertEquals(List.of(1L, 4L), page.getItems());
+        assertNull(page.getNextCursor());
+        assertEquals(2, page.getTotal());
+        assertEquals(Map.of(1, 2, 2, 2), page.getGenres());
+        assertEquals(Map.of(1, 1, 3, 1), page.getMpa());
+
+        page = index.filter(filter(List.of(), List.of(1, 2)), 0, 2);
+        assertEquals(List.of(1L, 2L), page.getItems());
+        assertEquals(2L, page.getNextCursor());
+        assertEquals(3, page.getTotal());
+        assertEquals(Map.of(1, 2, 2, 1, 3, 1), page.getMpa(), "рейтинги считаются без фильтра по рейтингу");
+        assertEquals(List.of(3L), index.filter(filter(List.of(), List.of(1, 2)), 2, 2).getItems());
+
+        assertTrue(index.filter(filter(List.of(7), List.of()), 0, 10).getItems().isEmpty());
+        assertTrue(index.filter(filter(List.of(), List.of(1)), Long.MAX_VALUE, 10).getItems().isEmpty());
+    }
+
+    @Test
+    void updateReplacesGenresAndMpa() {
+        var index = new FilmFacetIndex(new FilmRangeIndex());
+        index.rebuild(mpas -> mpas.accept(1, 1), genres -> genres.accept(1, 1));
+
+        index.update(film(1, 2, 3));
+        index.update(film(2, 2));
+        assertTrue(index.filter(filter(List.of(1), List.of()), 0, 10).getItems().isEmpty());
+        assertTrue(index.filter(filter(List.of(), List.of(1)), 0, 10).getItems().isEmpty());
+        assertEquals(List.of(1L), index.filter(filter(List.of(3), List.of(2)), 0, 10).getItems());
+        assertEquals(List.of(1L, 2L), index.filter(filter(List.of(), List.of(2)), 0, 10).getItems());
+    }
+
+    @Test
+    void addAllAddsNewFilms() {
+        var index = new FilmFacetIndex(new FilmRangeIndex());
+        index.rebuild(mpas -> mpas.accept(1, 1), genres -> genres.accept(1, 1));
+
+        index.addAll(List.of(film(2, 1, 1, 2), film(3, 2)));
+        assertEquals(List.of(1L, 2L), index.filter(filter(List.of(1), List.of()), 0, 10).getItems());
+        assertEquals(List.of(2L), index.filter(filter(List.of(2), List.of(1)), 0, 10).getItems());
+        assertEquals(List.of(3L), index.filter(filter(List.of(), List.of(2)), 0, 10).getItems());
+    }
+
+    private static FilmFilter filter(List<Integer> genreIds, List<Integer> mpaIds) {
+        FilmFilter filter = new FilmFilter();
+        filter.setGenre(genreIds);
+        filter.setMpa(mpaIds);
+        return filter;
+    }
+
+    private static Film film(long id, int mpaId, int... genreIds) {
+        Film film = Film.builder()
+                .id(id)
+                .mpa(Mpa.builder().id(mpaId).build())
+                .genres(new ArrayList<>())
+                .build();
+        for (int genreId : genreIds) {
+            Genre genre = new Genre();
+            genre.setId(genreId);
+            film.addGenre(genre);
+        }
+        return film;
+    }
+}
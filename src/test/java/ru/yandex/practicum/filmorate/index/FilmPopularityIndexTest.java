@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilmPopularityIndexTest {
+
+    @Test
+    void rebuildAndAdjust() {
+        var index = new FilmPopularityIndex();
+        assertFalse(index.isWarm());
+        index.rebuild(Map.of(1L, 3, 2L, 5, 3L, 0));
+        assertTrue(index.isWarm());
+        assertIterableEquals(List.of(2L, 1L, 3L), index.top(10));
+
+        index.adjust(3L, 1);
+        index.adjust(3L, 1);
+        index.adjust(3L, 1);
+        index.adjust(2L, -2);
+        index.addFilm(4L, 0);
+        index.addFilm(5L, 4);
+        assertIterableEquals(List.of(5L, 1L, 2L, 3L, 4L), index.top(10));
+        assertIterableEquals(List.of(5L, 1L), index.top(2));
+        assertEquals(3, index.getLikes(3L));
+        assertEquals(4, index.getLikes(5L));
+    }
+
+    @Test
+    void concurrentAdjustments() throws InterruptedException {
+        var index = new FilmPopularityIndex();
+        index.rebuild(Map.of());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                for (long filmId = 1; filmId <= 100; filmId++) {
+                    for (int like = 0; like < (int) filmId; like++) {
+                        index.adjust(filmId, 1);
+                        index.top(5);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertIterableEquals(List.of(100L, 99L, 98L), index.top(3));
+        assertEquals(800, index.getLikes(100L));
+        assertEquals(100, index.top(1000).size());
+    }
+}
@@ -0,0 +1,107 @@
+package ru.yandex.practicum.filmorate.index;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmFilter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilmRangeIndexTest {
+
+    @Test
+    void selectInclusiveAndOpenRanges() {
+        var index = new FilmRangeIndex();
+        assertFalse(index.isWarm());
+        List<Film> films = List.of(
+                film(1, LocalDate.of(1999, 3, 31), 136),
+                film(2, LocalDate.of(2003, 5, 15), 138),
+                film(3, LocalDate.of(1985, 7, 3), 89),
+                film(4, null, 60));
+        index.rebuild(days -> films.stream()
+                        .filter(film -> film.getReleaseDate() != null)
+                        .forEach(film -> days.accept(film.getId(), film.getReleaseDate().toEpochDay())),
+                durations -> films.forEach(film -> durations.accept(film.getId(), film.getDuration())));
+        assertTrue(index.isWarm());
+
+        assertNull(index.select(new FilmFilter()));
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), index.select(filter(LocalDate.of(1999, 3, 31),
+                LocalDate.of(2003, 5, 15), null, null)));
+        assertEquals(RoaringBitmap.bitmapOf(3, 4), index.select(filter(null, null, null, 89)));
+        assertEquals(RoaringBitmap.bitmapOf(3), index.select(filter(null, LocalDate.of(2000, 1, 1), null, 90)));
+        assertEquals(RoaringBitmap.bitmapOf(2), index.select(filter(LocalDate.of(2000, 1, 1), null, 137, null)));
+        assertTrue(index.select(filter(null, null, 200, 100)).isEmpty());
+
+        Film moved = film(3, LocalDate.of(2003, 11, 5), 129);
+        index.update(moved);
+        assertEquals(RoaringBitmap.bitmapOf(4), index.select(filter(null, null, null, 89)));
+        assertEquals(RoaringBitmap.bitmapOf(2, 3), index.select(filter(LocalDate.of(2003, 1, 1), null, null, null)));
+        index.add(film(5, LocalDate.of(2003, 1, 1), 90));
+        assertEquals(RoaringBitmap.bitmapOf(2, 3, 5), index.select(filter(LocalDate.of(2003, 1, 1), null, 90, null)));
+    }
+
+    @Test
+    void selectMatchesFullScan() {
+        var index = new FilmRangeIndex();
+        Random random = new Random(22);
+        List<Film> films = new ArrayList<>();
+        for (int id = 1; id <= 50_000; id++) {
+            films.add(film(id, LocalDate.of(1900, 1, 1).plusDays(random.nextInt(45_000)), 1 + random.nextInt(240)));
+        }
+        index.rebuild(days -> films.forEach(film -> days.accept(film.getId(), film.getReleaseDate().toEpochDay())),
+                durations -> films.forEach(film -> durations.accept(film.getId(), film.getDuration())));
+
+        for (int i = 0; i < 50; i++) {
+            LocalDate from = LocalDate.of(1900, 1, 1).plusDays(random.nextInt(45_000));
+            FilmFilter filter = filter(from, from.plusDays(random.nextInt(3_000)), null, 60 + random.nextInt(60));
+            RoaringBitmap expected = new RoaringBitmap();
+            films.stream()
+                    .filter(filter::matches)
+                    .forEach(film -> expected.add((int) film.getId()));
+            assertEquals(expected, index.select(filter));
+        }
+    }
+
+    @Test
+    void concurrentUpdatesLeaveFilmUnderOneValue() throws InterruptedException {
+        var index = new FilmRangeIndex();
+        index.rebuild(days -> days.accept(1, 0), durations -> durations.accept(1, 100));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            int thread = i;
+            executor.submit(() -> {
+                for (int duration = 1; duration <= 1000; duration++) {
+                    index.update(film(1, LocalDate.ofEpochDay(thread), thread * 1000 + duration));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // каждое изменение снимает фильм с прежних значений, поэтому он остается ровно под одним
+        assertEquals(1, index.select(filter(null, null, 0, 8000)).getCardinality());
+        assertEquals(1, index.select(filter(LocalDate.ofEpochDay(0), LocalDate.ofEpochDay(7), null, null))
+                .getCardinality());
+    }
+
+    private static FilmFilter filter(LocalDate from, LocalDate to, Integer minDuration, Integer maxDuration) {
+        FilmFilter filter = new FilmFilter();
+        filter.setReleasedFrom(from);
+        filter.setReleasedTo(to);
+        filter.setMinDuration(minDuration);
+        filter.setMaxDuration(maxDuration);
+        return filter;
+    }
+
+    private static Film film(long id, LocalDate releaseDate, int duration) {
+        return Film.builder().id(id).releaseDate(releaseDate).duration(duration).build();
+    }
+}
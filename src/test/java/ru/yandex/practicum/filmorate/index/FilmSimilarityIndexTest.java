@@ -0,0 +1,92 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class FilmSimilarityIndexTest {
+
+    @Test
+    void ranksByCommonLikesThenById() {
+        var index = new FilmSimilarityIndex(2, 3);
+        long[][] likes = {
+                {1, 1}, {1, 2}, {1, 3},
+                {2, 1},
+                {3, 1}, {3, 2},
+                {4, 3},
+                // у пользователя 9 больше трех лайков, его лайки не учитываются
+                {1, 9}, {2, 9}, {5, 9}, {6, 9}
+        };
+        assertFalse(index.isWarm());
+        assertTrue(index.similar(1, 10).isEmpty());
+
+        index.rebuild(LikeMatrix.load(consumer -> {
+            for (long[] like : likes) {
+                consumer.accept(like[0], like[1]);
+            }
+        }));
+
+        assertTrue(index.isWarm());
+        assertEquals(List.of(3L, 2L), index.similar(1, 10), "хранятся только два соседа");
+        assertEquals(List.of(3L), index.similar(1, 1));
+        assertEquals(List.of(1L, 3L), index.similar(2, 10));
+        assertEquals(List.of(1L), index.similar(4, 10));
+        assertTrue(index.similar(5, 10).isEmpty());
+        assertTrue(index.similar(100, 10).isEmpty());
+
+        index.markChanged();
+        assertTrue(index.isStale());
+        assertTrue(index.resetStale());
+        assertFalse(index.isStale());
+        index.rebuild(LikeMatrix.load(consumer -> consumer.accept(2, 1)));
+        assertTrue(index.similar(1, 10).isEmpty(), "прежний результат заменяется целиком");
+    }
+
+    @Test
+    void buildsMillionLikes() {
+        long millis = buildRandomLikes(20_000, 100_000, 1_000_000);
+        assertTrue(millis < 30_000, "сборка: " + millis + " мс");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void buildsTenMillionLikes() {
+        long millis = buildRandomLikes(200_000, 1_000_000, 10_000_000);
+        assertTrue(millis < 120_000, "сборка: " + millis + " мс");
+    }
+
+    /**
+     * Собирает индекс по случайным лайкам и возвращает время сборки в миллисекундах.
+     */
+    private static long buildRandomLikes(int films, int users, int likes) {
+        Random random = new Random(23);
+        long[] pairs = new long[likes];
+        for (int i = 0; i < likes; i++) {
+            // популярные фильмы лайкают чаще: квадрат равномерного распределения
+            double r = random.nextDouble();
+            pairs[i] = ((long) (1 + (int) (films * r * r)) << 32) | (1 + random.nextInt(users));
+        }
+        var index = new FilmSimilarityIndex(20, 1000);
+
+        long start = System.nanoTime();
+        index.rebuild(LikeMatrix.load(consumer -> {
+            for (long pair : pairs) {
+                consumer.accept(pair >>> 32, (int) pair);
+            }
+        }));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Похожие фильмы для {} лайков посчитаны за {} мс на {} ядрах", likes, millis,
+                Runtime.getRuntime().availableProcessors());
+
+        List<Long> similar = index.similar(1, 20);
+        assertEquals(20, similar.size());
+        assertFalse(similar.contains(1L));
+        return millis;
+    }
+}
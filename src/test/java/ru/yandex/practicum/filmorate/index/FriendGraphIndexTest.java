@@ -0,0 +1,125 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class FriendGraphIndexTest {
+
+    @Test
+    void rebuildAndUpdate() {
+        var index = new FriendGraphIndex(500, 100, 1000);
+        assertFalse(index.isWarm());
+        index.rebuild(consumer -> {
+            consumer.accept(1, 5);
+            consumer.accept(1, 3);
+            consumer.accept(1, 3);
+            consumer.accept(2, 3);
+            consumer.accept(2, 4);
+            consumer.accept(2, 5);
+        });
+        assertTrue(index.isWarm());
+        assertIterableEquals(List.of(3L, 5L), index.getFriends(1));
+        assertIterableEquals(List.of(3L, 5L), index.getCommonFriends(List.of(1L, 2L)));
+
+        index.addFriend(1, 4);
+        index.addFriend(1, 4);
+        index.removeFriend(2, 3);
+        index.removeFriend(2, 7);
+        assertIterableEquals(List.of(3L, 4L, 5L), index.getFriends(1));
+        assertIterableEquals(List.of(4L, 5L), index.getCommonFriends(List.of(1L, 2L)));
+        assertTrue(index.getCommonFriends(List.of(1L, 2L, 6L)).isEmpty());
+    }
+
+    @Test
+    void intersectSkewedLists() {
+        var index = new FriendGraphIndex(500, 100, 1000);
+        index.rebuild(consumer -> {
+            for (int friendId = 2; friendId <= 10_000; friendId++) {
+                consumer.accept(1, friendId);
+                if (friendId % 3 == 0) {
+                    consumer.accept(2, friendId);
+                }
+            }
+            consumer.accept(3, 9);
+            consumer.accept(3, 10);
+            consumer.accept(3, 9_999);
+            consumer.accept(3, 20_000);
+        });
+        assertIterableEquals(List.of(9L, 9_999L), index.getCommonFriends(List.of(1L, 2L, 3L)));
+        assertEquals(3_333, index.getCommonFriends(List.of(1L, 2L)).size());
+    }
+
+    @Test
+    void suggestFriendsByMutualFriends() {
+        var index = new FriendGraphIndex(4, 2, 100);
+        index.rebuild(consumer -> {
+            consumer.accept(1, 2);
+            consumer.accept(1, 3);
+            consumer.accept(1, 4);
+            consumer.accept(2, 5);
+            consumer.accept(2, 6);
+            consumer.accept(2, 1);
+            consumer.accept(3, 5);
+            consumer.accept(3, 6);
+            consumer.accept(3, 4);
+            consumer.accept(4, 7);
+            consumer.accept(6, 8);
+        });
+
+        // 5 и 6 — у двух друзей, 7 — у одного; 1 и 4 не предлагаются: это сам пользователь и его друг
+        assertIterableEquals(List.of(5L, 6L), index.suggestFriends(1, 10), "не больше max-count");
+        assertIterableEquals(List.of(5L), index.suggestFriends(1, 1));
+        assertTrue(index.suggestFriends(8, 10).isEmpty());
+
+        // изменение у друга сбрасывает кэш пользователя
+        index.removeFriend(3, 5);
+        assertIterableEquals(List.of(6L, 5L), index.suggestFriends(1, 10));
+        index.addFriend(1, 6);
+        assertIterableEquals(List.of(5L, 7L), index.suggestFriends(1, 10));
+
+        // у друга 3 теперь больше max-fan-out друзей, через него никого не предлагаем
+        index.addFriend(3, 9);
+        index.addFriend(3, 10);
+        index.addFriend(3, 11);
+        assertIterableEquals(List.of(5L, 7L), index.suggestFriends(1, 10));
+        index.removeFriend(2, 5);
+        assertIterableEquals(List.of(7L, 8L), index.suggestFriends(1, 10));
+    }
+
+    @Test
+    void suggestsFriendsForSuperConnectedUser() {
+        int friends = 2_000;
+        int friendsOfFriend = 400;
+        var index = new FriendGraphIndex(500, 100, 1000);
+        index.rebuild(consumer -> {
+            // у пользователя 1 две тысячи друзей, у каждого из них — четыреста своих
+            for (int friend = 2; friend <= friends + 1; friend++) {
+                consumer.accept(1, friend);
+                for (int i = 0; i < friendsOfFriend; i++) {
+                    consumer.accept(friend, 10_000 + (friend * 7 + i * 13) % 50_000);
+                }
+            }
+        });
+
+        long[] nanos = new long[20];
+        for (int i = 0; i < nanos.length; i++) {
+            long start = System.nanoTime();
+            index.addFriend(1, 2 + i);
+            assertEquals(100, index.suggestFriends(1, 100).size());
+            nanos[i] = System.nanoTime() - start;
+        }
+        long cachedStart = System.nanoTime();
+        assertEquals(100, index.suggestFriends(1, 100).size());
+        long cached = System.nanoTime() - cachedStart;
+        Arrays.sort(nanos);
+        log.info("Предложения дружбы для {} друзей по {} друзей: без кэша {} мс (медиана), из кэша {} мкс",
+                friends, friendsOfFriend, String.format("%.2f", nanos[nanos.length / 2] / 1e6), cached / 1000);
+        assertTrue(nanos[nanos.length / 2] < 200_000_000L, "медиана " + nanos[nanos.length / 2] + " нс");
+    }
+}
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.index;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class UserRecommendationIndexTest {
+
+    @Test
+    void recommendsFilmsOfSimilarUsers() {
+        var index = new UserRecommendationIndex(32, 2, 50, 1000, 100, 100);
+        long[][] likes = {
+                {1, 1}, {2, 1}, {3, 1},
+                {1, 2}, {2, 2}, {3, 2},
+                {1, 3}, {2, 3}, {3, 3},
+                {1, 9}, {2, 9}, {3, 9}, {4, 9},
+                {1, 4}, {2, 4},
+                {10, 5}, {11, 5},
+                {10, 6}, {11, 6}
+        };
+        index.rebuild(LikeMatrix.load(consumer -> {
+            for (long[] like : likes) {
+                consumer.accept(like[0], like[1]);
+            }
+        }));
+
+        assertEquals(List.of(3L, 4L), index.recommend(4, 10), "за фильм 3 голосуют четверо, за фильм 4 — один");
+        assertEquals(List.of(3L), index.recommend(4, 1));
+        assertTrue(index.recommend(7, 10).isEmpty(), "у пользователя без лайков нет рекомендаций");
+
+        // свои лайки учитываются до пересборки, чужие — только после
+        index.recordLike(4, 3, true);
+        assertTrue(index.isStale());
+        assertEquals(List.of(4L), index.recommend(4, 10));
+        index.recordLike(7, 10, true);
+        assertEquals(List.of(11L), index.recommend(7, 10));
+        assertTrue(index.recommend(5, 10).isEmpty());
+
+        assertTrue(index.resetStale());
+        index.recordLike(4, 4, true);
+        index.rebuild(LikeMatrix.load(consumer -> {
+            for (long[] like : likes) {
+                consumer.accept(like[0], like[1]);
+            }
+            consumer.accept(3, 4);
+            consumer.accept(10, 7);
+            consumer.accept(12, 6);
+        }));
+        assertTrue(index.isStale(), "лайк во время сборки ждет следующей");
+        assertTrue(index.recommend(4, 10).isEmpty(), "лайк, записанный во время сборки, по-прежнему учтен");
+        assertEquals(List.of(11L, 12L), index.recommend(7, 10));
+        assertEquals(List.of(12L), index.recommend(5, 10), "новый снимок заменяет кэш");
+
+        assertTrue(index.resetStale());
+        index.markChanged();
+        assertTrue(index.isStale());
+        assertEquals(List.of(12L), index.recommend(5, 10), "пакетные лайки ждут сборки");
+
+        var registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+        assertTrue(registry.get("filmorate.recommendations.index.memory").gauge().value() > 0);
+        assertEquals(8, registry.get("filmorate.recommendations.index.users").gauge().value());
+        assertTrue(registry.get("filmorate.recommendations.index.build.time").timeGauge()
+                .value(TimeUnit.MILLISECONDS) >= 0);
+    }
+
+    @Test
+    void findsNeighboursWithinTasteClusters() {
+        int clusters = 100;
+        int filmsPerCluster = 50;
+        int users = 20_000;
+        Random random = new Random(24);
+        // пользователь лайкает 20 фильмов своего кластера и 2 случайных фильма каталога
+        int[][] userFilms = new int[users + 1][];
+        int likes = 0;
+        for (int userId = 1; userId <= users; userId++) {
+            int cluster = userId % clusters;
+            userFilms[userId] = random.ints(0, filmsPerCluster).distinct().limit(20)
+                    .map(film -> 1 + cluster * filmsPerCluster + film)
+                    .toArray();
+            userFilms[userId] = Arrays.copyOf(userFilms[userId], 22);
+            userFilms[userId][20] = 1 + random.nextInt(clusters * filmsPerCluster);
+            userFilms[userId][21] = 1 + random.nextInt(clusters * filmsPerCluster);
+            likes += 22;
+        }
+        var index = new UserRecommendationIndex(32, 2, 50, 1000, 100, 100);
+        var registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+
+        index.rebuild(LikeMatrix.load(consumer -> {
+            for (int userId = 1; userId <= users; userId++) {
+                for (int filmId : userFilms[userId]) {
+                    consumer.accept(filmId, userId);
+                }
+            }
+        }));
+
+        long[] nanos = new long[1000];
+        int recommended = 0;
+        int inCluster = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            int userId = 1 + random.nextInt(users);
+            long start = System.nanoTime();
+            List<Long> films = index.recommend(userId, 10);
+            nanos[i] = System.nanoTime() - start;
+            for (long filmId : films) {
+                recommended++;
+                if ((filmId - 1) / filmsPerCluster == userId % clusters) {
+                    inCluster++;
+                }
+            }
+        }
+        Arrays.sort(nanos);
+        log.info("Индекс рекомендаций: {} лайков, сборка {} мс, {} КБ; запрос p50 {} мс, p99 {} мс; "
+                        + "из своего кластера {} из {} рекомендаций", likes,
+                registry.get("filmorate.recommendations.index.build.time").timeGauge().value(TimeUnit.MILLISECONDS),
+                (long) registry.get("filmorate.recommendations.index.memory").gauge().value() >> 10,
+                String.format("%.2f", nanos[nanos.length / 2] / 1e6),
+                String.format("%.2f", nanos[nanos.length * 99 / 100] / 1e6), inCluster, recommended);
+
+        assertTrue(recommended > nanos.length * 9, "рекомендаций: " + recommended);
+        assertTrue(inCluster > recommended * 0.9, "из своего кластера " + inCluster + " из " + recommended);
+    }
+}
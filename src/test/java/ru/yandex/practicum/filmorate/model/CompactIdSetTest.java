@@ -0,0 +1,170 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class CompactIdSetTest {
+
+    @Test
+    void behavesLikeSetOnBothSidesOfThreshold() {
+        Random random = new Random(17);
+        CompactIdSet ids = new CompactIdSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < CompactIdSet.BITMAP_THRESHOLD * 3; i++) {
+            long id = random.nextInt(CompactIdSet.BITMAP_THRESHOLD * 4);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(id), ids.remove(id));
+            } else {
+                assertEquals(expected.add(id), ids.add(id));
+            }
+            assertEquals(expected.size(), ids.size());
+        }
+        assertTrue(expected.size() > CompactIdSet.BITMAP_THRESHOLD, "множество должно перейти в битмап");
+        assertIterableEquals(expected, ids.asLongSet());
+        assertArrayEquals(expected.stream().mapToInt(Long::intValue).toArray(), ids.toArray());
+        assertEquals(expected, ids.asLongSet());
+        assertEquals(expected.hashCode(), ids.asLongSet().hashCode());
+        assertFalse(ids.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> ids.add(-1));
+        assertThrows(UnsupportedOperationException.class, () -> ids.asLongSet().add(1L));
+    }
+
+    @Test
+    void copiesAreIndependentAndEqual() {
+        for (int count : new int[]{3, CompactIdSet.BITMAP_THRESHOLD + 1}) {
+            CompactIdSet ids = new CompactIdSet();
+            LongStream.range(0, count).forEach(ids::add);
+            CompactIdSet copy = new CompactIdSet();
+            copy.addAll(ids);
+
+            assertEquals(ids, copy);
+            copy.add(count);
+            assertNotEquals(ids, copy);
+            assertFalse(ids.contains(count));
+        }
+    }
+
+    @Test
+    void intersectionMatchesRetainAll() {
+        Random random = new Random(18);
+        int[][] sizes = {{50, 60}, {10, 3000}, {100, 20_000}, {9000, 12_000}, {3000, 3000}};
+        for (int[] pair : sizes) {
+            TreeSet<Long> first = randomIds(random, pair[0]);
+            TreeSet<Long> second = randomIds(random, pair[1]);
+            TreeSet<Long> expected = new TreeSet<>(first);
+            expected.retainAll(second);
+
+            assertEquals(expected, CompactIdSet.intersection(of(first), of(second)).asLongSet());
+            assertEquals(expected, CompactIdSet.intersection(of(second), of(first)).asLongSet());
+        }
+
+        // битмап, уменьшившийся после удалений, пересекается с массивом большего размера
+        CompactIdSet shrunk = new CompactIdSet();
+        LongStream.rangeClosed(0, CompactIdSet.BITMAP_THRESHOLD).forEach(shrunk::add);
+        LongStream.range(10, CompactIdSet.BITMAP_THRESHOLD + 1).forEach(shrunk::remove);
+        CompactIdSet array = new CompactIdSet();
+        LongStream.range(5, 1000).forEach(array::add);
+        assertEquals(Set.of(5L, 6L, 7L, 8L, 9L), CompactIdSet.intersection(shrunk, array).asLongSet());
+    }
+
+    @Test
+    void filmLikesKeepCollectionContract() {
+        Film film = Film.builder().name("film").build();
+        assertTrue(film.addLike(11L));
+        assertTrue(film.addLike(10L));
+        assertFalse(film.addLike(10L));
+        assertIterableEquals(List.of(10L, 11L), film.getLikes());
+        assertTrue(film.getLikes().contains(11L));
+        assertTrue(film.removeLike(11L));
+        assertEquals(1, film.getLikesCount());
+        assertEquals(film, film.copy());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void likesTakeFarLessHeapThanBoxedHashSet() {
+        // 200 тысяч лайков популярного фильма от пользователей из каталога в миллион
+        List<Long> userIds = new Random(1).longs(0, 1_000_000).distinct().limit(200_000).boxed()
+                .collect(Collectors.toList());
+        Set<Long> boxed = new HashSet<>(userIds);
+        CompactIdSet compact = new CompactIdSet();
+        userIds.forEach(compact::add);
+
+        double boxedPerLike = (double) GraphLayout.parseInstance(boxed).totalSize() / userIds.size();
+        double compactPerLike = (double) GraphLayout.parseInstance(compact).totalSize() / userIds.size();
+        log.info("Байт на лайк: HashSet<Long> — {}, CompactIdSet — {}",
+                String.format("%.1f", boxedPerLike), String.format("%.1f", compactPerLike));
+
+        assertTrue(boxedPerLike > 40, "оценка HashSet<Long>: " + boxedPerLike);
+        assertTrue(compactPerLike < 4, "CompactIdSet: " + compactPerLike);
+
+        CompactIdSet few = new CompactIdSet();
+        LongStream.range(0, 1000).map(i -> i * 997).forEach(few::add);
+        assertTrue(GraphLayout.parseInstance(few).totalSize() < 1000 * 6, "массив int до порога");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void friendSetsTakeFarLessHeapPerMillionEdges() {
+        // 2 тысячи пользователей по 100 друзей из каталога в миллион; результат пересчитан на миллион ребер
+        int users = 2_000;
+        int edges = users * 100;
+        Random random = new Random(2);
+        List<Set<Long>> boxed = new ArrayList<>();
+        List<CompactIdSet> compact = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            Set<Long> friends = randomIds(random, 100);
+            boxed.add(new HashSet<>(friends));
+            // так друзья лежат в кэшированной копии User после User.copy()
+            CompactIdSet copy = new CompactIdSet();
+            copy.addAll(of(friends));
+            compact.add(copy);
+        }
+
+        long boxedBytes = GraphLayout.parseInstance(boxed.toArray()).totalSize() * (1_000_000 / edges);
+        long compactBytes = GraphLayout.parseInstance(compact.toArray()).totalSize() * (1_000_000 / edges);
+        log.info("Мегабайт на миллион ребер: HashSet<Long> — {}, CompactIdSet — {}",
+                boxedBytes >> 20, compactBytes >> 20);
+
+        assertTrue(boxedBytes > 40_000_000L, "оценка HashSet<Long>: " + boxedBytes);
+        assertTrue(compactBytes < 6_000_000L, "CompactIdSet: " + compactBytes);
+    }
+
+    @Test
+    void userFriendsKeepCollectionContract() {
+        User user = User.builder().id(1).login("user").build();
+        assertTrue(user.addFriend(7L));
+        assertTrue(user.addFriend(3L));
+        assertFalse(user.addFriend(3L));
+        assertTrue(user.isFriend(7L));
+        assertIterableEquals(List.of(3L, 7L), user.getFriends());
+        List<Integer> visited = new ArrayList<>();
+        user.forEachFriend(visited::add);
+        assertEquals(List.of(3, 7), visited);
+        assertTrue(user.removeFriend(7L));
+        assertEquals(user, user.copy());
+    }
+
+    private static CompactIdSet of(Collection<Long> ids) {
+        CompactIdSet set = new CompactIdSet();
+        ids.forEach(set::add);
+        return set;
+    }
+
+    private static TreeSet<Long> randomIds(Random random, int count) {
+        TreeSet<Long> ids = new TreeSet<>();
+        while (ids.size() < count) {
+            ids.add((long) random.nextInt(1_000_000));
+        }
+        return ids;
+    }
+}
@@ -3,6 +3,12 @@ package ru.yandex.practicum.filmorate.service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.index.FilmPopularityIndex;
+import ru.yandex.practicum.filmorate.index.FilmRangeIndex;
+import ru.yandex.practicum.filmorate.index.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.index.FilmSimilarityIndex;
+import ru.yandex.practicum.filmorate.index.UserRecommendationIndex;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.model.User;
@@ -12,6 +18,7 @@ import ru.yandex.practicum.filmorate.storage.InMemoryMpaStorage;
 import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -27,11 +34,23 @@ class FilmServiceTest {
         var userStorage = new InMemoryUserStorage();
         addUsers(userStorage, 20);
 
+        var popularityIndex = new FilmPopularityIndex();
+        var rangeIndex = new FilmRangeIndex();
+
+        var mpaStorage = new InMemoryMpaStorage();
+        var genreStorage = new InMemoryGenreStorage();
         filmService = new FilmService(
-                new InMemoryFilmStorage(),
-                new InMemoryMpaStorage(),
-                new InMemoryGenreStorage(),
-                userStorage);
+                new InMemoryFilmStorage(mpaStorage, genreStorage, userStorage),
+                mpaStorage,
+                genreStorage,
+                userStorage,
+                popularityIndex,
+                new FilmSearchIndex(popularityIndex),
+                new FilmFacetIndex(rangeIndex),
+                rangeIndex,
+                new FilmSimilarityIndex(20, 1000),
+                new UserRecommendationIndex(32, 2, 50, 1000, 100, 100),
+                LikeWriteBuffer.disabled());
     }
 
 
@@ -40,11 +59,23 @@ class FilmServiceTest {
 
     @Test
     void addFilm() {
+        var popularityIndex = new FilmPopularityIndex();
+        var rangeIndex = new FilmRangeIndex();
+        var mpaStorage = new InMemoryMpaStorage();
+        var genreStorage = new InMemoryGenreStorage();
+        var userStorage = new InMemoryUserStorage();
         var service = new FilmService(
-                new InMemoryFilmStorage(),
-                new InMemoryMpaStorage(),
-                new InMemoryGenreStorage(),
-                new InMemoryUserStorage());
+                new InMemoryFilmStorage(mpaStorage, genreStorage, userStorage),
+                mpaStorage,
+                genreStorage,
+                userStorage,
+                popularityIndex,
+                new FilmSearchIndex(popularityIndex),
+                new FilmFacetIndex(rangeIndex),
+                rangeIndex,
+                new FilmSimilarityIndex(20, 1000),
+                new UserRecommendationIndex(32, 2, 50, 1000, 100, 100),
+                LikeWriteBuffer.disabled());
         var film1 = service.addFilm(makeFilmWithName("Film 1"));
         assertTrue(service.filmExists(film1.getId()), "");
         assertFalse(service.filmExists(1000), "");
@@ -55,11 +86,13 @@ class FilmServiceTest {
         var film1 = filmService.addFilm(makeFilmWithName("film5Likes"));
         filmService.addLike(film1.getId(), 10L);
         filmService.addLike(film1.getId(), 11L);
-        assertEquals(2, film1.getLikesCount(), "Лайки не добавились.");
-        assertIterableEquals(List.of(10L, 11L), film1.getLikes(), "Лайки не добавились.");
+        var stored = filmService.getFilm(film1.getId()).get();
+        assertEquals(2, stored.getLikesCount(), "Лайки не добавились.");
+        assertIterableEquals(List.of(10L, 11L), stored.getLikes(), "Лайки не добавились.");
         filmService.removeLike(film1.getId(), 11L);
-        assertEquals(1, film1.getLikesCount(), "Лайк не удалился.");
-        assertIterableEquals(List.of(10L), film1.getLikes(), "Лайк не удалился.");
+        stored = filmService.getFilm(film1.getId()).get();
+        assertEquals(1, stored.getLikesCount(), "Лайк не удалился.");
+        assertIterableEquals(List.of(10L), stored.getLikes(), "Лайк не удалился.");
     }
 
     @Test
@@ -78,6 +111,21 @@ class FilmServiceTest {
                 filmService.getMostLiked(3).stream().map(Film::getId).collect(Collectors.toList()));
     }
 
+    @Test
+    void getMostLikedFromWarmIndex() {
+        var film1 = filmService.addFilm(makeFilmWithName("film1"));
+        var film2 = filmService.addFilm(makeFilmWithName("film2"));
+        var film3 = filmService.addFilm(makeFilmWithName("film3"));
+        addLikes(filmService, film3, 4L);
+        filmService.warmUpIndexes();
+        addLikes(filmService, film2, 6L);
+        filmService.addLike(film2.getId(), 1L);
+        filmService.removeLike(film3.getId(), 1L);
+        assertIterableEquals(List.of(film2.getId(), film3.getId(), film1.getId()),
+                filmService.getMostLiked(10).stream().map(Film::getId).collect(Collectors.toList()));
+        assertEquals(5, filmService.getMostLiked(1).iterator().next().getLikesCount());
+    }
+
     private void addUsers(InMemoryUserStorage storage, int count) {
         for (int i = 1; i <= count; i++) {
             var user = User.builder()
@@ -93,11 +141,23 @@ class FilmServiceTest {
     @Test
     void updateFilm() {
         //var service = new FilmService(new InMemoryFilmStorage(), new InMemoryMpaStorage(), new InMemoryGenreStorage());
+        var popularityIndex = new FilmPopularityIndex();
+        var rangeIndex = new FilmRangeIndex();
+        var mpaStorage = new InMemoryMpaStorage();
+        var genreStorage = new InMemoryGenreStorage();
+        var userStorage = new InMemoryUserStorage();
         var service = new FilmService(
-                new InMemoryFilmStorage(),
-                new InMemoryMpaStorage(),
-                new InMemoryGenreStorage(),
-                new InMemoryUserStorage());
+                new InMemoryFilmStorage(mpaStorage, genreStorage, userStorage),
+                mpaStorage,
+                genreStorage,
+                userStorage,
+                popularityIndex,
+                new FilmSearchIndex(popularityIndex),
+                new FilmFacetIndex(rangeIndex),
+                rangeIndex,
+                new FilmSimilarityIndex(20, 1000),
+                new UserRecommendationIndex(32, 2, 50, 1000, 100, 100),
+                LikeWriteBuffer.disabled());
         var film1 = service.addFilm(makeFilmWithName("Film 1"));
         assertEquals(film1, service.getFilms().stream().findFirst().get(), "");
         var film2 = film1.withId(film1.getId());
@@ -107,6 +167,9 @@ class FilmServiceTest {
                 "Updated film name",
                 service.getFilms().stream().findFirst().get().getName(),
                 "");
+        assertEquals(List.of(film2.getId()),
+                service.searchFilms("upd FILM", 10).stream().map(Film::getId).collect(Collectors.toList()));
+        assertTrue(service.searchFilms("1", 10).isEmpty(), "старое название не должно находиться");
     }
 
     private static void addLikes(FilmService service, Film film, long likesCount) {
@@ -122,6 +185,7 @@ class FilmServiceTest {
                 .releaseDate(LocalDate.of(2007, 5, 3))
                 .duration(120)
                 .mpa(Mpa.builder().id(1).name("G").build())
+                .genres(new ArrayList<>())
                 .build();
     }
 }
\ No newline at end of file
@@ -2,7 +2,9 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
 
@@ -18,7 +20,7 @@ class UserServiceTest {
 
     @BeforeEach
     void makeService() {
-        service = new UserService(new InMemoryUserStorage());
+        service = new UserService(new InMemoryUserStorage(), new FriendGraphIndex(500, 100, 1000));
     }
 
     @Test
@@ -41,7 +43,7 @@ class UserServiceTest {
 
     private User makeUser(String login, String name) {
         var bDay = LocalDate.of(1990, 1, 1);
-        return User.builder().login(login).email("e@mail.ru").name(name).birthday(bDay).build();
+        return User.builder().login(login).email(login + "@mail.ru").name(name).birthday(bDay).build();
     }
 
     @Test
@@ -57,26 +59,27 @@ class UserServiceTest {
         var user1 = service.addUser(makeUser("user1", "Name1"));
         var user2 = service.addUser(makeUser("user2", "Name2"));
         service.addFriend(user1.getId(), user2.getId());
-        assertEquals(user2.getId(), user1.getFriends().stream().findFirst().get(), "Неверный индекс друга.");
+        assertEquals(user2.getId(), service.getUser(user1.getId()).get().getFriends().stream().findFirst().get(),
+                "Неверный индекс друга.");
         service.removeFriend(user1.getId(), user2.getId());
-        assertTrue(user1.getFriends().isEmpty(), "Друг не удален.");
-        assertTrue(user2.getFriends().isEmpty(), "Друг не удален.");
+        assertTrue(service.getUser(user1.getId()).get().getFriends().isEmpty(), "Друг не удален.");
+        assertTrue(service.getUser(user2.getId()).get().getFriends().isEmpty(), "Друг не удален.");
     }
 
 
     @Test
     void getCommonFriends() throws ValidationException {
         var storage = new InMemoryUserStorage();
-        var userService = new UserService(storage);
+        var userService = new UserService(storage, new FriendGraphIndex(500, 100, 1000));
 
         var bDay = LocalDate.of(1990, 1, 1);
 
-        var user1   = userService.addUser(User.builder().login("user1").email("e@mail.ru").name("j").birthday(bDay).build());
-        var friend1 = userService.addUser(User.builder().login("friend1").email("e@mail.ru").name("j").birthday(bDay).build());
-        var friend2 = userService.addUser(User.builder().login("friend2").email("e@mail.ru").name("j").birthday(bDay).build());
-        var friend3 = userService.addUser(User.builder().login("friend3").email("e@mail.ru").name("j").birthday(bDay).build());
-        var friend4 = userService.addUser(User.builder().login("friend4").email("e@mail.ru").name("j").birthday(bDay).build());
-        var user2   = userService.addUser(User.builder().login("user2").email("e@mail.ru").name("j").birthday(bDay).build());
+        var user1   = userService.addUser(User.builder().login("user1").email("user1@mail.ru").name("j").birthday(bDay).build());
+        var friend1 = userService.addUser(User.builder().login("friend1").email("friend1@mail.ru").name("j").birthday(bDay).build());
+        var friend2 = userService.addUser(User.builder().login("friend2").email("friend2@mail.ru").name("j").birthday(bDay).build());
+        var friend3 = userService.addUser(User.builder().login("friend3").email("friend3@mail.ru").name("j").birthday(bDay).build());
+        var friend4 = userService.addUser(User.builder().login("friend4").email("friend4@mail.ru").name("j").birthday(bDay).build());
+        var user2   = userService.addUser(User.builder().login("user2").email("user2@mail.ru").name("j").birthday(bDay).build());
         userService.addFriend(user1.getId(), friend4.getId());
         userService.addFriend(user1.getId(), friend2.getId());
         userService.addFriend(user1.getId(), friend1.getId());
@@ -88,4 +91,27 @@ class UserServiceTest {
         assertIterableEquals(List.of(friend2, friend4),
                 userService.getCommonFriends(user1.getId(), user2.getId()), "Неверные общие друзья.");
     }
+
+    @Test
+    void getCommonFriendsOfSeveralUsers() {
+        var users = new User[6];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = service.addUser(makeUser("user" + i, "Name" + i));
+        }
+        for (int i = 3; i < 6; i++) {
+            service.addFriend(users[0].getId(), users[i].getId());
+            service.addFriend(users[1].getId(), users[i].getId());
+        }
+        service.addFriend(users[2].getId(), users[4].getId());
+        service.addFriend(users[2].getId(), users[5].getId());
+        var ids = List.of(users[0].getId(), users[1].getId(), users[2].getId());
+
+        // без загруженного графа ответ собирается из хранилища, с графом — из индекса
+        assertIterableEquals(List.of(users[4], users[5]), service.getCommonFriends(ids), "Неверные общие друзья.");
+        service.warmUpIndexes();
+        assertIterableEquals(List.of(users[4], users[5]), service.getCommonFriends(ids), "Неверные общие друзья.");
+        service.removeFriend(users[1].getId(), users[4].getId());
+        assertIterableEquals(List.of(users[5]), service.getCommonFriends(ids), "Неверные общие друзья.");
+        assertThrows(UserNotFoundException.class, () -> service.getCommonFriends(List.of(users[0].getId(), 100L)));
+    }
 }
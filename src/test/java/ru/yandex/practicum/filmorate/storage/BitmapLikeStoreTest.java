@@ -0,0 +1,253 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@SpringBootTest(properties = {
+        "filmorate.likes.storage-format=bitmap",
+        "filmorate.likes.bitmap.compact-interval-ms=100"
+})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class BitmapLikeStoreTest {
+    private final FilmDbStorage filmStorage;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DirtiesContext
+    void keepsFilmStorageContract() throws InterruptedException {
+        addUsers(200);
+        Film withLikes = makeFilm();
+        withLikes.addLike(3L);
+        withLikes.addLike(1L);
+        long first = filmStorage.put(withLikes);
+        long second = filmStorage.put(makeFilm());
+
+        assertEquals(Set.of(1L, 3L), filmStorage.getFilm(first).orElseThrow().getLikes());
+        assertTrue(filmStorage.addLike(second, 7));
+        assertFalse(filmStorage.addLike(second, 7));
+        assertTrue(filmStorage.removeLike(first, 3));
+        assertFalse(filmStorage.removeLike(first, 3));
+        assertTrue(filmStorage.addLike(first, 3), "лайк после отмены снова ставится");
+
+        // пакет с повтором и отменой: повтор не считается, отмена убирает лайк, поставленный тем же пакетом
+        List<Like> added = filmStorage.addLikes(List.of(new Like(second, 8), new Like(second, 8), new Like(second, 7)));
+        assertEquals(List.of(new Like(second, 8)), added);
+        assertEquals(List.of(new Like(second, 8)), filmStorage.removeLikes(List.of(new Like(second, 8))));
+
+        // запись только дописывает журнал, битмап переписывает слияние
+        for (long userId = 10; userId <= 200; userId++) {
+            filmStorage.addLike(second, userId);
+        }
+        for (long userId = 10; userId <= 200; userId += 2) {
+            filmStorage.removeLike(second, userId);
+        }
+        Set<Long> expected = LongStream.rangeClosed(10, 200).filter(id -> id % 2 == 1).boxed()
+                .collect(Collectors.toCollection(TreeSet::new));
+        expected.add(7L);
+        assertEquals(expected, filmStorage.getFilm(second).orElseThrow().getLikes());
+        assertEquals(expected.size(), filmStorage.getLikesCount(second));
+
+        assertEquals(expected, filmStorage.getPage(first, 1).getItems().get(0).getLikes(),
+                "страница читает лайки по диапазону id вместе с журналом");
+
+        // короткий журнал сливает фоновая задача
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (pending(second) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, pending(second));
+        assertEquals(expected, filmStorage.getFilm(second).orElseThrow().getLikes());
+        assertEquals(Map.of(first, 2, second, expected.size()), filmStorage.getLikeCounts());
+        filmStorage.recountLikes();
+        assertEquals(expected.size(), filmStorage.getLikesCount(second));
+        assertEquals(List.of(second, first), filmStorage.getMostLiked(2).stream()
+                .map(Film::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DirtiesContext
+    void concurrentLikesOnOneFilmAreCountedExactly() throws Exception {
+        int users = 300;
+        addUsers(users);
+        long filmId = filmStorage.put(makeFilm());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (long userId = 1; userId <= users; userId++) {
+            long liker = userId;
+            tasks.add(executor.submit(() -> filmStorage.addLike(filmId, liker)));
+            tasks.add(executor.submit(() -> filmStorage.addLike(filmId, liker)));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        assertEquals(users, filmStorage.getLikesCount(filmId));
+        assertEquals(users, filmStorage.getFilm(filmId).orElseThrow().getLikesCount());
+    }
+
+    @Test
+    @DirtiesContext
+    void deletedUserLeavesBitmapsAndLog() {
+        addUsers(4);
+        Film film = makeFilm();
+        film.addLike(1L);
+        film.addLike(2L);
+        film.addLike(3L);
+        long first = filmStorage.put(film);
+        long second = filmStorage.put(makeFilm());
+        // у пользователя 2 лайк в битмапе первого фильма и в журнале второго, у пользователя 3 — отмена в журнале
+        filmStorage.addLike(second, 2);
+        filmStorage.removeLike(first, 3);
+
+        jdbcTemplate.update("DELETE FROM PUBLIC.USERS WHERE user_id = ?", 2);
+        jdbcTemplate.update("DELETE FROM PUBLIC.USERS WHERE user_id = ?", 3);
+        assertEquals(Set.of(1L), filmStorage.getFilm(first).orElseThrow().getLikes());
+        assertEquals(Set.of(), filmStorage.getFilm(second).orElseThrow().getLikes());
+        assertEquals(1, filmStorage.getLikesCount(first));
+        assertEquals(0, filmStorage.getLikesCount(second));
+        assertEquals(0, pending(first) + pending(second));
+
+        filmStorage.compactLikes();
+        filmStorage.recountLikes();
+        assertEquals(1, filmStorage.getLikesCount(first));
+        assertEquals(Set.of(1L), filmStorage.getFilm(first).orElseThrow().getLikes());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void migratesFromRowsAndBackWithSmallerFootprint(@TempDir Path dir) throws Exception {
+        // отдельная файловая база, чтобы мерить место на диске: 25 фильмов по 4 тысячи лайков
+        // от 20 тысяч пользователей, то есть 100 тысяч строк LIKES
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:file:" + dir.resolve("likes") + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate fileJdbc = new JdbcTemplate(dataSource);
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"))
+                .execute(dataSource);
+        int users = 20_000;
+        int films = 25;
+        addUsers(fileJdbc, users);
+        Random random = new Random(19);
+        Map<Long, Collection<Long>> likersByFilm = new LinkedHashMap<>();
+        for (long filmId = 1; filmId <= films; filmId++) {
+            fileJdbc.update("INSERT INTO PUBLIC.FILMS (FILM_NAME, RELEASE_DATE, DURATION, MPA_ID) "
+                    + "values ('Film', DATE '2007-05-03', 120, 1)");
+            likersByFilm.put(filmId, random.longs(1, users + 1).distinct().limit(4000).boxed()
+                    .collect(Collectors.toSet()));
+        }
+        long withoutLikes = compactedSize(fileJdbc, dir);
+
+        RowLikeStore rows = new RowLikeStore(fileJdbc);
+        BitmapLikeStore bitmaps = new BitmapLikeStore(fileJdbc);
+        rows.putAll(likersByFilm);
+        List<long[]> expected = likes(rows);
+        long rowsLoad = loadNanos(rows);
+        long rowsBytes = compactedSize(fileJdbc, dir) - withoutLikes;
+
+        long start = System.nanoTime();
+        bitmaps.importLikes(rows);
+        rows.clear();
+        long migration = System.nanoTime() - start;
+        assertEquals(0, rows.count());
+        assertEquals(expected.size(), bitmaps.count());
+        assertTrue(Arrays.deepEquals(expected.toArray(), likes(bitmaps).toArray()));
+        long bitmapsLoad = loadNanos(bitmaps);
+        long bitmapsBytes = compactedSize(fileJdbc, dir) - withoutLikes;
+        log.info("{} лайков: строки LIKES — {} КБ на диске, загрузка {} мс; битмапы FILM_LIKERS — {} КБ, "
+                        + "загрузка {} мс; перенос {} мс", expected.size(), rowsBytes >> 10, rowsLoad / 1_000_000,
+                bitmapsBytes >> 10, bitmapsLoad / 1_000_000, migration / 1_000_000);
+        // время загрузки только пишется в лог: на общей машине сравнение двух замеров ничего не гарантирует
+        assertTrue(bitmapsBytes * 3 < rowsBytes, "битмапы: " + bitmapsBytes + " байт, строки: " + rowsBytes);
+
+        // повторный перенос ничего не меняет, обратный перенос восстанавливает строки
+        bitmaps.importLikes(new RowLikeStore(fileJdbc));
+        rows.importLikes(bitmaps);
+        bitmaps.clear();
+        assertTrue(Arrays.deepEquals(expected.toArray(), likes(rows).toArray()));
+        fileJdbc.execute("SHUTDOWN");
+    }
+
+    private static List<long[]> likes(LikeStore store) {
+        List<long[]> likes = new ArrayList<>();
+        store.forEachLike((filmId, userId) -> likes.add(new long[]{filmId, userId}));
+        return likes;
+    }
+
+    private static long loadNanos(LikeStore store) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long[] sum = new long[1];
+            long start = System.nanoTime();
+            store.forEachLike((filmId, userId) -> sum[0] += userId);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Размер файла базы после сжатия; SHUTDOWN COMPACT закрывает базу, следующий запрос откроет ее снова.
+     */
+    private static long compactedSize(JdbcTemplate jdbc, Path dir) throws IOException {
+        jdbc.execute("SHUTDOWN COMPACT");
+        return Files.size(dir.resolve("likes.mv.db"));
+    }
+
+    private int pending(long filmId) {
+        Integer pending = jdbcTemplate.queryForObject(
+                "select count(*) from PUBLIC.FILM_LIKE_LOG where film_id = ?", Integer.class, filmId);
+        return pending == null ? 0 : pending;
+    }
+
+    private void addUsers(int count) {
+        addUsers(jdbcTemplate, count);
+    }
+
+    private static void addUsers(JdbcTemplate jdbc, int count) {
+        List<Object[]> batchArgs = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            batchArgs.add(new Object[]{"user" + i + "@mail.ru", "user" + i, "User " + i});
+        }
+        jdbc.batchUpdate("INSERT INTO PUBLIC.USERS (EMAIL, LOGIN, NAME, BIRTHDAY) "
+                + "values (?, ?, ?, DATE '1990-01-01')", batchArgs);
+    }
+
+    private static Film makeFilm() {
+        return Film.builder()
+                .name("Film")
+                .description("Description")
+                .releaseDate(LocalDate.of(2007, 5, 3))
+                .duration(120)
+                .mpa(Mpa.builder().id(1).build())
+                .build();
+    }
+}
@@ -0,0 +1,132 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCacheTest {
+    private final Map<Long, User> store = new HashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final EntityCache<User> cache = new EntityCache<>(100, Duration.ofMinutes(1), Duration.ofMinutes(1),
+            User::getId, User::copy);
+
+    @Test
+    void cachesPresentAndMissingIds() {
+        store.put(1L, makeUser(1));
+
+        assertTrue(cache.get(1, this::load).isPresent());
+        assertTrue(cache.get(1, this::load).isPresent());
+        assertTrue(cache.get(2, this::load).isEmpty());
+        assertTrue(cache.get(2, this::load).isEmpty());
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.missingStats().hitCount());
+        assertEquals(Optional.of(false), cache.contains(2));
+
+        store.put(2L, makeUser(2));
+        cache.invalidateMissing();
+        assertTrue(cache.get(2, this::load).isPresent());
+    }
+
+    @Test
+    void returnsCopies() {
+        store.put(1L, makeUser(1));
+        cache.get(1, this::load).orElseThrow().addFriend(5L);
+        assertTrue(cache.get(1, this::load).orElseThrow().getFriends().isEmpty());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void getAllKeepsRequestOrder() {
+        store.put(1L, makeUser(1));
+        store.put(3L, makeUser(3));
+        cache.get(3, this::load);
+        loads.set(0);
+
+        List<User> users = cache.getAll(List.of(3L, 2L, 1L), this::loadAll);
+        assertIterableEquals(List.of(3L, 1L), users.stream().map(User::getId).collect(Collectors.toList()));
+        assertEquals(1, loads.get());
+        assertEquals(Optional.of(false), cache.contains(2));
+        cache.getAll(List.of(1L, 2L, 3L), this::loadAll);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void loadRacingWithInvalidationIsNotCached() {
+        store.put(1L, makeUser(1));
+        Optional<User> loaded = cache.get(1, id -> {
+            var stale = load(id);
+            // запись завершилась, пока шло чтение
+            store.get(1L).addFriend(7L);
+            cache.invalidate(1);
+            return stale;
+        });
+        assertTrue(loaded.orElseThrow().getFriends().isEmpty());
+        assertEquals(Optional.empty(), cache.contains(1));
+        assertTrue(cache.get(1, this::load).orElseThrow().isFriend(7L));
+    }
+
+    @Test
+    void writeChangesCachedCopy() {
+        store.put(1L, makeUser(1));
+        cache.get(1, this::load);
+        assertTrue(cache.write(1, () -> store.get(1L).addFriend(7L), (user, added) -> user.addFriend(7L)));
+        assertTrue(cache.get(1, this::load).orElseThrow().isFriend(7L));
+        assertEquals(1, loads.get());
+
+        // две записи одного id одновременно: порядок их изменений неизвестен, копия сбрасывается
+        cache.write(1, () -> cache.write(1, () -> store.get(1L).removeFriend(7L),
+                (user, removed) -> user.removeFriend(7L)), (user, removed) -> user.removeFriend(7L));
+        assertEquals(Optional.empty(), cache.contains(1));
+        assertFalse(cache.get(1, this::load).orElseThrow().isFriend(7L));
+    }
+
+    @Test
+    void invalidationOfOtherIdKeepsLoad() {
+        store.put(1L, makeUser(1));
+        store.put(2L, makeUser(2));
+        cache.get(1, id -> {
+            cache.invalidate(2);
+            cache.invalidateAll(List.of(3L, 4L));
+            return load(id);
+        });
+        cache.getAll(List.of(2L, 5L), ids -> {
+            cache.invalidate(1);
+            return loadAll(ids);
+        });
+        assertEquals(Optional.of(true), cache.contains(2));
+        assertEquals(Optional.of(false), cache.contains(5));
+        assertEquals(Optional.empty(), cache.contains(1));
+    }
+
+    private Optional<User> load(long id) {
+        loads.incrementAndGet();
+        return Optional.ofNullable(store.get(id)).map(User::copy);
+    }
+
+    private List<User> loadAll(Collection<Long> ids) {
+        loads.incrementAndGet();
+        return ids.stream()
+                .map(store::get)
+                .filter(Objects::nonNull)
+                .map(User::copy)
+                .collect(Collectors.toList());
+    }
+
+    private static User makeUser(long id) {
+        return User.builder()
+                .id(id)
+                .login("user" + id)
+                .email("user" + id + "@mail.ru")
+                .name("User " + id)
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build();
+    }
+}
@@ -0,0 +1,205 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.exception.ResourceNotFoundException;
+import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryStorageTest {
+    private static final int THREADS = 8;
+
+    private final InMemoryGenreStorage genreStorage = new InMemoryGenreStorage();
+    private final InMemoryUserStorage userStorage = new InMemoryUserStorage();
+    private final InMemoryFilmStorage filmStorage = new InMemoryFilmStorage(new InMemoryMpaStorage(), genreStorage,
+            userStorage);
+
+    @Test
+    void concurrentPutsGetDistinctIds() throws Exception {
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        runConcurrently(thread -> {
+            for (int i = 0; i < 500; i++) {
+                ids.add(filmStorage.put(makeFilm("Film " + thread + "-" + i)));
+            }
+        });
+
+        assertEquals(THREADS * 500, new HashSet<>(ids).size());
+        assertEquals(THREADS * 500, filmStorage.getAll().size());
+        assertIterableEquals(LongStream.rangeClosed(1, 10).boxed().collect(Collectors.toList()),
+                filmStorage.getPage(0, 10).getItems().stream().map(Film::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void concurrentLikesAreCountedExactly() throws Exception {
+        for (int i = 1; i <= 1000; i++) {
+            userStorage.put(makeUser("user" + i, "user" + i + "@mail.ru"));
+        }
+        long popular = filmStorage.put(makeFilm("Popular"));
+        long other = filmStorage.put(makeFilm("Other"));
+        AtomicInteger added = new AtomicInteger();
+        runConcurrently(thread -> {
+            for (long userId = 1; userId <= 1000; userId++) {
+                if (filmStorage.addLike(popular, userId)) {
+                    added.incrementAndGet();
+                }
+                if (userId % THREADS == thread) {
+                    filmStorage.addLike(other, userId);
+                }
+            }
+        });
+
+        assertEquals(1000, added.get(), "каждый лайк должен быть добавлен ровно один раз");
+        assertEquals(Map.of(popular, 1000, other, 1000), filmStorage.getLikeCounts());
+        assertEquals(List.of(popular, other),
+                filmStorage.getMostLiked(2).stream().map(Film::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void filmsAreHydratedWithReferenceData() {
+        Film film = makeFilm("With genres");
+        film.setGenres(List.of(genre(2), genre(1), genre(2)));
+        long id = filmStorage.put(film);
+
+        Film stored = filmStorage.getFilm(id).orElseThrow();
+        assertEquals("G", stored.getMpa().getName());
+        assertEquals(List.of("Комедия", "Драма"),
+                stored.getGenres().stream().map(Genre::getName).collect(Collectors.toList()));
+
+        stored.addLike(5L);
+        assertEquals(0, filmStorage.getFilm(id).orElseThrow().getLikesCount(), "наружу отдается копия");
+
+        Film unknownGenre = makeFilm("Unknown genre");
+        unknownGenre.setGenres(List.of(genre(99)));
+        assertThrows(ResourceNotFoundException.class, () -> filmStorage.put(unknownGenre));
+
+        Film unknownMpa = makeFilm("Unknown mpa");
+        unknownMpa.setMpa(Mpa.builder().id(99).build());
+        assertThrows(ResourceNotFoundException.class, () -> filmStorage.put(unknownMpa));
+        assertEquals(1, filmStorage.getAll().size(), "фильм с неизвестным справочником не сохраняется");
+    }
+
+    @Test
+    void loginsAndEmailsStayUniqueUnderConcurrency() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        runConcurrently(thread -> {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    userStorage.put(makeUser("login" + i, "email" + i + "@mail.ru"));
+                    created.incrementAndGet();
+                } catch (ValidationException e) {
+                    // логин уже занят другим потоком
+                }
+            }
+        });
+
+        assertEquals(100, created.get());
+        assertEquals(100, userStorage.getUsers().size());
+        assertEquals(Set.of("login1"), userStorage.findTakenLogins(List.of("login1", "login100")));
+    }
+
+    @Test
+    void concurrentFriendshipsAreAllKept() throws Exception {
+        for (int i = 0; i <= 200; i++) {
+            userStorage.put(makeUser("user" + i, "user" + i + "@mail.ru"));
+        }
+        runConcurrently(thread -> {
+            for (long friendId = 2 + thread; friendId <= 201; friendId += THREADS) {
+                userStorage.addFriend(1, friendId);
+                userStorage.addFriend(friendId, 1);
+            }
+        });
+
+        assertEquals(200, userStorage.getFriends(1).size());
+        assertEquals(200, userStorage.getUser(1).orElseThrow().getFriends().size());
+        assertEquals(List.of(1L), userStorage.getCommonFriends(List.of(2L, 3L)).stream()
+                .map(User::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void likesAndFriendsOfUnknownUsersAreRejected() {
+        long userId = userStorage.put(makeUser("user", "user@mail.ru"));
+
+        User withUnknownFriend = makeUser("other", "other@mail.ru");
+        withUnknownFriend.addFriend(userId);
+        withUnknownFriend.addFriend(99L);
+        assertThrows(UserNotFoundException.class, () -> userStorage.put(withUnknownFriend));
+        User friendly = makeUser("friendly", "friendly@mail.ru");
+        friendly.addFriend(userId);
+        assertThrows(UserNotFoundException.class, () -> userStorage.putAll(List.of(friendly, withUnknownFriend)));
+        assertEquals(1, userStorage.getUsers().size(), "порция с неизвестным другом не сохраняется целиком");
+
+        Film likedByUnknown = makeFilm("Liked by unknown");
+        likedByUnknown.addLike(99L);
+        Film liked = makeFilm("Liked");
+        liked.addLike(userId);
+        assertThrows(UserNotFoundException.class, () -> filmStorage.putAll(List.of(liked, likedByUnknown)));
+        assertTrue(filmStorage.getAll().isEmpty());
+
+        long filmId = filmStorage.put(liked);
+        assertTrue(filmStorage.hasLike(filmId, userId));
+        assertEquals(Map.of(filmId, 1), filmStorage.getLikeCounts());
+    }
+
+    private static void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread);
+    }
+
+    private static Genre genre(int id) {
+        Genre genre = new Genre();
+        genre.setId(id);
+        return genre;
+    }
+
+    private static Film makeFilm(String name) {
+        return Film.builder()
+                .name(name)
+                .description("Description")
+                .releaseDate(LocalDate.of(2007, 5, 3))
+                .duration(120)
+                .mpa(Mpa.builder().id(1).build())
+                .build();
+    }
+
+    private static User makeUser(String login, String email) {
+        return User.builder()
+                .login(login)
+                .email(email)
+                .name(login)
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build();
+    }
+}